@@ -0,0 +1,64 @@
+package com.codery.utils.cli;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost of building a command through a chain of {@link CliCommand#param(String)} calls, and of compiling the same
+ * {@link CommandTree} again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CliCommandBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int params;
+
+    @Benchmark
+    public CliCommand paramChain() {
+        CliCommand cmd = new CliCommand("tool");
+        for (int i = 0; i < params; i++) {
+            cmd = cmd.param("--flag" + (i & 7));
+        }
+        return cmd;
+    }
+
+    @Benchmark
+    public String paramChainToString() {
+        return paramChain().toString();
+    }
+
+    @Benchmark
+    public String[] paramChainCmdLine() {
+        return paramChain().getCmdLine();
+    }
+
+    @Benchmark
+    public CliCommand pipelineCompile(PipelineState state) {
+        return state.cli.command(state.tree).getCommand();
+    }
+
+    @State(Scope.Benchmark)
+    public static class PipelineState {
+
+        final PosixCli cli = new PosixCli();
+        final CommandTree tree = CommandTree.of(new CliCommand("grep").param("-v", "x"))
+                .pipe(CommandTree.of(new CliCommand("sort").param("-u")))
+                .pipe(CommandTree.of(new CliCommand("wc").param("-l")));
+
+        @TearDown
+        public void close() throws Exception {
+            cli.close();
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.codery.utils.cli;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Spawn-to-exit latency of {@link FutureExecution#execute()}, with and without output to pump, and of a filter run
+ * as a shell pipe, as a {@link Pipeline} of processes and as an in-JVM line stage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExecutionBenchmark {
+
+    private static final Pattern SEVEN = Pattern.compile("7");
+
+    private PosixCli cli;
+    private CliCommand trueCmd;
+    private CliCommand shellTrueCmd;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cli = new PosixCli(new File(System.getProperty("java.io.tmpdir"))).addStandardOutput(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        trueCmd = new CliCommand("true");
+        shellTrueCmd = new CliCommand("sh").param("-c", "true");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cli.close();
+    }
+
+    @Benchmark
+    public int directExec() {
+        return cli.command(trueCmd).execute();
+    }
+
+    @Benchmark
+    public int throughShell() {
+        return cli.command(shellTrueCmd).execute();
+    }
+
+    @Benchmark
+    public int pumpedOutput(Output output) {
+        return cli.command(output.cmd).execute();
+    }
+
+    @Benchmark
+    public int shellPipe() {
+        return cli.command(new CliCommand("seq").param("1", "100000")).pipe(new CliCommand("grep").param("7")).execute();
+    }
+
+    @Benchmark
+    public int processPipeline() {
+        return cli.pipeline(new CliCommand("seq").param("1", "100000")).pipe(new CliCommand("grep").param("7")).execute();
+    }
+
+    @Benchmark
+    public int lineStagePipeline() {
+        return cli.pipeline(new CliCommand("seq").param("1", "100000")).grep(SEVEN).execute();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Output {
+
+        @Param({ "65536", "16777216" })
+        public int outputBytes;
+
+        private CliCommand cmd;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            cmd = new CliCommand("head").param("-c", String.valueOf(outputBytes)).param("/dev/zero");
+        }
+    }
+
+}
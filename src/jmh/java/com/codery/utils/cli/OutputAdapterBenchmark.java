@@ -0,0 +1,77 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of writing a chunk of output into the bundled output adapters, either as the pump hands it over or byte by byte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OutputAdapterBenchmark {
+
+    @Param({ "80", "8192" })
+    public int chunkBytes;
+
+    private byte[] chunk;
+    private StringOutputAdapter stringAdapter;
+    private SLF4JOutputAdapter slf4jAdapter;
+    private LineOutputAdapter lineAdapter;
+    private int lines;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chunk = new byte[chunkBytes];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) (i % 80 == 79 ? '\n' : 'a' + i % 26);
+        }
+        stringAdapter = new StringOutputAdapter();
+        slf4jAdapter = new SLF4JOutputAdapter(OutputAdapterBenchmark.class);
+        lineAdapter = new LineOutputAdapter(line -> lines += line.length(), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String stringAdapterChunk() throws IOException {
+        stringAdapter.write(chunk, 0, chunk.length);
+        return stringAdapter.getWrittenContent();
+    }
+
+    @Benchmark
+    public String stringAdapterByteByByte() throws IOException {
+        for (byte b : chunk) {
+            stringAdapter.write(b);
+        }
+        return stringAdapter.getWrittenContent();
+    }
+
+    @Benchmark
+    public void slf4jAdapterChunk() throws IOException {
+        slf4jAdapter.write(chunk, 0, chunk.length);
+    }
+
+    @Benchmark
+    public int lineAdapterChunk() throws IOException {
+        lineAdapter.write(chunk, 0, chunk.length);
+        return lines;
+    }
+
+    @Benchmark
+    public void slf4jAdapterByteByByte() throws IOException {
+        for (byte b : chunk) {
+            slf4jAdapter.write(b);
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.codery.utils.cli;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of {@link StreamPump} for several output sizes, sink counts and buffer sizes. The input mimics
+ * {@link Process#getInputStream()}, a {@link BufferedInputStream}, so only the pump itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreamPumpBenchmark {
+
+    @Param({ "1024", "1048576", "16777216" })
+    public int outputBytes;
+
+    @Param({ "1", "4" })
+    public int sinks;
+
+    @Param({ "1", "8192", "65536" })
+    public int bufferSize;
+
+    private byte[] output;
+    private List<OutputStream> targets;
+
+    @Setup(Level.Trial)
+    public void setUp(final Blackhole blackhole) {
+        output = new byte[outputBytes];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = (byte) ('a' + i % 26);
+        }
+        targets = new ArrayList<>();
+        for (int i = 0; i < sinks; i++) {
+            targets.add(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    blackhole.consume(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    blackhole.consume(b);
+                    blackhole.consume(len);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void pump() {
+        new StreamPump(new BufferedInputStream(new ByteArrayInputStream(output)), targets, bufferSize).run();
+    }
+
+    /**
+     * The loop the pump used before it read in chunks, as a baseline; it ignores {@link #bufferSize}.
+     */
+    @Benchmark
+    public void byteToByte() throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(output));
+        int i;
+        while ((i = in.read()) != -1) {
+            for (OutputStream out : targets) {
+                out.write(i);
+            }
+        }
+    }
+
+}
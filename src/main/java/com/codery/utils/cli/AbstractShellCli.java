@@ -0,0 +1,1314 @@
+package com.codery.utils.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process handling shared by every {@link ShellCli} backend: environment, working directory, output targets,
+ * output pumping and timeouts. Backends only decide how a {@link CliCommand} and the shell operators
+ * (pipe, and, background, redirection) turn into the command line that is actually started.
+ * <p>
+ * Instances are thread safe: executions read a consistent view of the configuration when they start, so the
+ * configuration may change while other executions run. Output targets added to the instance are shared by every
+ * execution, so use {@link FutureExecution#stdout(OutputStream)} and {@link FutureExecution#stderr(OutputStream)}
+ * to keep the output of concurrent executions apart.
+ */
+public abstract class AbstractShellCli<T extends AbstractShellCli<T>> implements ShellCli {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractShellCli.class);
+    private static final List<OutputStream> DISCARD_OUTPUT = Collections.<OutputStream>singletonList(NullOutputStream.INSTANCE);
+    protected static final long DEFAULT_TIMEOUT = 300_000; //5 min
+    protected static final long DEFAULT_KILL_GRACE_PERIOD = 2_000;
+    public static final long MAX_TIMEOUT = Long.MAX_VALUE;
+    protected final long timeout;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    // copy-on-write, so executions can take their targets while other threads add or clear them
+    private final List<OutputStream> stdOutputs = new CopyOnWriteArrayList<>();
+    private final List<OutputStream> errOutputs = new CopyOnWriteArrayList<>();
+    private final Object environmentLock = new Object();
+    private volatile EnvironmentSnapshot environment;
+    private final List<ExecutionListener> listeners = new CopyOnWriteArrayList<>();
+    protected volatile File dir;
+    private volatile int pumpBufferSize = StreamPump.DEFAULT_BUFFER_SIZE;
+    private volatile SessionPool sessions;
+    private volatile ResultCache resultCache;
+    private volatile ExecutionScheduler scheduler;
+    private volatile long killGracePeriod = DEFAULT_KILL_GRACE_PERIOD;
+    private volatile long resourceSampleInterval;
+    private volatile long cpuTimeLimitNanos;
+    private volatile long residentMemoryLimit;
+    private final ProcessReaper reaper = new ProcessReaper();
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+
+    /**
+     * @param pumpExecutor runs the output pumps of every execution. If null, this instance creates an
+     *                     {@link PumpExecutors#elastic()} pool and shuts it down on {@link #close()}; otherwise the
+     *                     executor is left running, since it may be shared. See {@link PumpExecutors} for how to size it.
+     */
+    protected AbstractShellCli(long timeout, File dir, ExecutorService pumpExecutor) {
+        if (timeout < 0) {
+            this.timeout = DEFAULT_TIMEOUT;
+        } else {
+            this.timeout = timeout;
+        }
+
+        this.dir = dir;
+        this.environment = EnvironmentSnapshot.empty(isEnvironmentCaseSensitive());
+        this.ownsExecutor = pumpExecutor == null;
+        this.executor = pumpExecutor != null ? pumpExecutor : PumpExecutors.elastic();
+    }
+
+    protected abstract T self();
+
+    /**
+     * @return whether environment variables whose names differ only in case are different variables. Called from the
+     * constructor, so it must not depend on the backend's state.
+     */
+    protected abstract boolean isEnvironmentCaseSensitive();
+
+    /**
+     * @return how to run commands in a warm shell, or null if this backend doesn't support {@link #useSessions(int)}.
+     */
+    SessionProtocol sessionProtocol() {
+        return null;
+    }
+
+    /**
+     * Starts the process of an execution. {@code pb} is fully set up, environment included; {@code environment} is
+     * the snapshot that was applied to it, for backends that don't start the process locally.
+     */
+    Process startProcess(ProcessBuilder pb, EnvironmentSnapshot environment) throws IOException {
+        if (pb.directory() != null && !pb.directory().exists()) {
+            LOGGER.info("Directory \"" + pb.directory() + "\" don't exist and will be created.");
+            Files.createDirectory(pb.directory().toPath());
+        }
+        return pb.start();
+    }
+
+    /**
+     * @return whether processes run on this host, so the OS can redirect their input from local files.
+     */
+    boolean isLocal() {
+        return true;
+    }
+
+    long killGracePeriodMillis() {
+        return killGracePeriod;
+    }
+
+    @Override
+    public T clearStandardOutputTargets() {
+        stdOutputs.clear();
+        return self();
+    }
+
+    @Override
+    public T clearErrorOutputTargets() {
+        errOutputs.clear();
+        return self();
+    }
+
+    @Override
+    public T setEnvironmentVariable(String key, String value) {
+        synchronized (environmentLock) {
+            environment = environment.with(key, value);
+        }
+        environmentChanged();
+        return self();
+    }
+
+    @Override
+    public T setEnvironmentVariables(Map<String, String> vars) {
+        synchronized (environmentLock) {
+            environment = environment.with(vars);
+        }
+        environmentChanged();
+        return self();
+    }
+
+    @Override
+    public T inheritEnvironment(boolean inherit) {
+        synchronized (environmentLock) {
+            environment = environment.inheriting(inherit);
+        }
+        environmentChanged();
+        return self();
+    }
+
+    private void environmentChanged() {
+        SessionPool current = sessions;
+        if (current != null) {
+            // sessions got the environment when they started, so they must be replaced
+            current.recycle();
+        }
+    }
+
+    @Override
+    public Map<String, String> getEnvironentVariables() {
+        return environment.getVariables();
+    }
+
+    @Override
+    public EnvironmentSnapshot getEnvironment() {
+        return environment;
+    }
+
+    @Override
+    public Pipeline pipeline(CliCommand cmd) {
+        return new ShellPipeline(Collections.<Object>singletonList(cmd), Charset.defaultCharset(), null, null);
+    }
+
+    @Override
+    public List<ExecutionResult> executeAll(Collection<CliCommand> cmds, int parallelism) {
+        return executeAll(cmds, parallelism, BatchErrorMode.COLLECT_ALL);
+    }
+
+    @Override
+    public List<ExecutionResult> executeAll(Collection<CliCommand> cmds, int parallelism, BatchErrorMode errorMode) {
+        try {
+            return executeAllAsync(cmds, parallelism, errorMode, null).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ShellCliException) {
+                throw (ShellCliException) e.getCause();
+            }
+            throw new ShellCliException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ShellCliException("Interrupted while waiting for a batch of " + cmds.size() + " commands", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<ExecutionResult>> executeAllAsync(Collection<CliCommand> cmds, int parallelism, BatchErrorMode errorMode, Consumer<ExecutionResult> onResult) {
+        return new BatchExecution(this, cmds, parallelism, errorMode, onResult).start();
+    }
+
+    @Override
+    public T dir(File dir) {
+        this.dir = dir;
+        return self();
+    }
+
+    /**
+     * Sets how many bytes the output pumps read from the process streams at once. Larger chunks mean fewer
+     * reads and writes for chatty commands, at the cost of a bigger buffer per running pump.
+     */
+    public T pumpBufferSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Pump buffer size must be positive, got " + bytes);
+        }
+        this.pumpBufferSize = bytes;
+        return self();
+    }
+
+    /**
+     * Sets how long a timed out process, and every process it started, gets to terminate after being asked to
+     * before being killed. A grace period of 0 kills them right away. The same applies to the processes still
+     * running on {@link #close()}.
+     */
+    public T killGracePeriod(long gracePeriod, TimeUnit unit) {
+        if (gracePeriod < 0) {
+            throw new IllegalArgumentException("Kill grace period can't be negative, got " + gracePeriod);
+        }
+        this.killGracePeriod = unit.toMillis(gracePeriod);
+        return self();
+    }
+
+    /**
+     * Samples the CPU time and resident memory of each execution's process tree every {@code interval} while it
+     * runs, so its {@link ExecutionResult} carries them; see {@link ExecutionResult#getCpuTime()}. Memory is only
+     * known on Linux. Executions in shell sessions or on remote agents aren't sampled. Intervals shorter than a
+     * millisecond are rounded up to one. An interval of 0 stops sampling, unless a resource limit is set.
+     */
+    public T monitorResources(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Resource sampling interval can't be negative, got " + interval);
+        }
+        // a positive interval must not truncate to 0, which would stop sampling instead
+        this.resourceSampleInterval = interval == 0 ? 0 : Math.max(unit.toMillis(interval), 1);
+        return self();
+    }
+
+    /**
+     * Kills a process tree, as a timeout would, once it used more than {@code cpuTime} of CPU, and makes its
+     * {@link ExecutionResult#getLimitExceeded()} tell so. The limit is checked on each sample, every 100 ms unless
+     * {@link #monitorResources(long, TimeUnit)} says otherwise, so a tree may go over it by up to an interval's worth
+     * of CPU. A limit of 0 removes it.
+     */
+    public T cpuTimeLimit(long cpuTime, TimeUnit unit) {
+        if (cpuTime < 0) {
+            throw new IllegalArgumentException("CPU time limit can't be negative, got " + cpuTime);
+        }
+        this.cpuTimeLimitNanos = unit.toNanos(cpuTime);
+        return self();
+    }
+
+    /**
+     * Kills a process tree once the memory its processes have resident adds up to more than {@code bytes}, like
+     * {@link #cpuTimeLimit(long, TimeUnit)}. Only enforced on Linux. A limit of 0 removes it.
+     */
+    public T residentMemoryLimit(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Resident memory limit can't be negative, got " + bytes);
+        }
+        this.residentMemoryLimit = bytes;
+        return self();
+    }
+
+    @Override
+    public T addStandardOutput(OutputStream dest) {
+        stdOutputs.add(dest);
+        return self();
+    }
+
+    @Override
+    public T addErrorOutput(OutputStream dest) {
+        errOutputs.add(dest);
+        return self();
+    }
+
+    @Override
+    public T addStandardOutput(LineListener listener, Charset charset) {
+        return addStandardOutput(new LineOutputAdapter(listener, charset));
+    }
+
+    @Override
+    public T addErrorOutput(LineListener listener, Charset charset) {
+        return addErrorOutput(new LineOutputAdapter(listener, charset));
+    }
+
+    /**
+     * Runs commands in up to {@code poolSize} long-lived shells instead of starting a process for each one, which
+     * saves the process creation for workloads of many small commands. Each command still runs in this instance's
+     * directory, with its standard input closed, and gets the same exit code, output and timeout handling as in a
+     * fresh process; a session whose command timed out is killed and replaced. Executions redirecting their output
+     * to a file keep starting their own process. A {@code poolSize} of 0 goes back to a process per command.
+     */
+    @Override
+    public T useSessions(int poolSize) {
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("Session pool size can't be negative, got " + poolSize);
+        }
+        SessionProtocol protocol = sessionProtocol();
+        if (poolSize > 0 && protocol == null) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support shell sessions.");
+        }
+        SessionPool previous = sessions;
+        sessions = poolSize == 0 ? null : new SessionPool(poolSize, generation -> startSession(protocol, generation));
+        if (previous != null) {
+            previous.close();
+        }
+        return self();
+    }
+
+    @Override
+    public T useScheduler(ExecutionScheduler scheduler) {
+        this.scheduler = scheduler;
+        return self();
+    }
+
+    @Override
+    public T useResultCache(int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Result cache size can't be negative, got " + maxEntries);
+        }
+        resultCache = maxEntries == 0 ? null : new ResultCache(maxEntries, ttl, unit);
+        return self();
+    }
+
+    @Override
+    public ResultCacheStatistics getResultCacheStatistics() {
+        ResultCache current = resultCache;
+        return current != null ? current.statistics() : ResultCacheStatistics.DISABLED;
+    }
+
+    private ShellSession startSession(SessionProtocol protocol, int generation) {
+        ProcessBuilder pb = new ProcessBuilder();
+        environment.applyTo(pb.environment());
+        pb.directory(dir);
+        try {
+            return ShellSession.start(protocol, pb, generation, pumpBufferSize, reaper);
+        } catch (IOException e) {
+            throw new ShellCliException("It wasn't possible to start a shell session in directory \"" + dir + "\"", e);
+        }
+    }
+
+    @Override
+    public T addExecutionListener(ExecutionListener listener) {
+        listeners.add(listener);
+        return self();
+    }
+
+    @Override
+    public T removeExecutionListener(ExecutionListener listener) {
+        listeners.remove(listener);
+        return self();
+    }
+
+    private void fireStarted(CliCommand cmd) {
+        for (ExecutionListener each : listeners) {
+            try {
+                each.started(cmd);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Execution listener " + each + " failed.", e);
+            }
+        }
+    }
+
+    private void fireFinished(ExecutionResult result) {
+        for (ExecutionListener each : listeners) {
+            try {
+                each.finished(result);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Execution listener " + each + " failed.", e);
+            }
+        }
+    }
+
+    private void fireFailed(CliCommand cmd, Throwable error) {
+        for (ExecutionListener each : listeners) {
+            try {
+                each.failed(cmd, error);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Execution listener " + each + " failed.", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        AbstractShellCli<?> that = (AbstractShellCli<?>) o;
+
+        if (dir == null && that.dir == null && environment.equals(that.environment)) {
+            return true;
+        }
+
+        return (dir != null ? dir.equals(that.dir) : dir == that.dir) && environment.equals(that.environment);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = dir != null ? dir.hashCode() : 0;
+        result = 31 * result + (environment != null ? environment.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (!isClosed.compareAndSet(false, true)) {
+            throw new RuntimeException("This instance of " + getClass() + " is already closed.");
+        }
+        closOutputStreams(stdOutputs);
+        closOutputStreams(errOutputs);
+        if (sessions != null) {
+            sessions.close();
+        }
+        terminateLiveProcesses();
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private void terminateLiveProcesses() throws InterruptedException {
+        if (reaper.liveCount() == 0) {
+            return;
+        }
+        long grace = killGracePeriod;
+        try {
+            // forcibly killed processes may still take a moment to be reaped by the OS
+            reaper.terminateAll(grace).get(grace + 10_000, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.warn(reaper.liveCount() + " processes started by " + getClass().getSimpleName() + " are still running after close.", e);
+        }
+    }
+
+    private void checkNotClosed() {
+        if (isClosed.get()) {
+            throw new RuntimeException("It is not possible to execute a closed instance of " + getClass());
+        }
+    }
+
+    private void closOutputStreams(List<OutputStream> outStreams) {
+        for (OutputStream out : outStreams) {
+            if (out == System.out || out == System.err) {
+                continue;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new ShellCliException("It wasn't possible to close an outputstream.", e);
+            }
+        }
+    }
+
+    /**
+     * Starts reading the output of a freshly started process.
+     */
+    private interface OutputDrain {
+
+        /**
+         * @return a future completed once all the output was read.
+         */
+        CompletableFuture<Void> start(Process p, long redirectStartPosition, ExecutionResult.Builder result) throws IOException;
+    }
+
+    /**
+     * An execution whose {@link #getCommand()} is the exact command line handed to the {@link ProcessBuilder}.
+     * Output redirection isn't part of the command line: the process' standard output is handed to the target file
+     * through {@link ProcessBuilder.Redirect}.
+     */
+    protected abstract class AbstractFutureExecution implements FutureExecution {
+
+        private File redirectOutputTarget;
+        private boolean appendOutput;
+        private boolean supressOuput;
+        private boolean captureOutput;
+        private int captureHeadBytes;
+        private int captureTailBytes;
+        private OutputStream stdOutputOverride;
+        private OutputStream errOutputOverride;
+        private boolean cached;
+        private String resource = ExecutionScheduler.DEFAULT_RESOURCE;
+        private int priority = ExecutionScheduler.NORMAL_PRIORITY;
+        private String caller = "";
+        private long startTimeoutNanos;
+        private InputStream inputStream;
+        private Path inputFile;
+        private ByteBuffer inputBuffer;
+
+        protected AbstractFutureExecution() {
+        }
+
+        protected AbstractFutureExecution(AbstractFutureExecution futureEx) {
+            redirectOutputTarget = futureEx.redirectOutputTarget;
+            appendOutput = futureEx.appendOutput;
+            supressOuput = futureEx.supressOuput;
+            captureOutput = futureEx.captureOutput;
+            captureHeadBytes = futureEx.captureHeadBytes;
+            captureTailBytes = futureEx.captureTailBytes;
+            stdOutputOverride = futureEx.stdOutputOverride;
+            errOutputOverride = futureEx.errOutputOverride;
+            cached = futureEx.cached;
+            resource = futureEx.resource;
+            priority = futureEx.priority;
+            caller = futureEx.caller;
+            startTimeoutNanos = futureEx.startTimeoutNanos;
+            inputStream = futureEx.inputStream;
+            inputFile = futureEx.inputFile;
+            inputBuffer = futureEx.inputBuffer;
+        }
+
+        /**
+         * @return a copy of this execution, including its redirection and output settings.
+         */
+        protected abstract AbstractFutureExecution copy();
+
+        /**
+         * @return this execution as a line of the shell run by {@link #useSessions(int) sessions}.
+         */
+        abstract String sessionCommandLine();
+
+        @Override
+        public int execute() {
+            try {
+                return executeAsync().get().getExitCode();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ShellCliException) {
+                    throw (ShellCliException) e.getCause();
+                }
+                throw new ShellCliException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ShellCliException("Interrupted while waiting for command \"" + getCommand() + "\"", e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<ExecutionResult> executeAsync() {
+            return executeAsync(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public CompletableFuture<ExecutionResult> executeAsync(long timeout, TimeUnit unit) {
+            checkNotClosed();
+
+            ResultCache cache = resultCache;
+            if (cached && cache != null && redirectOutputTarget == null && !hasInput()) {
+                ResultCache.Key key = new ResultCache.Key(getCommand(), environment, dir, captureOutput ? captureHeadBytes : -1, captureOutput ? captureTailBytes : -1);
+                return cache.get(key, () -> schedule(timeout, unit));
+            }
+            return schedule(timeout, unit);
+        }
+
+        private CompletableFuture<ExecutionResult> schedule(long timeout, TimeUnit unit) {
+            ExecutionScheduler current = scheduler;
+            if (current == null) {
+                return execute(timeout, unit);
+            }
+            long deadline = startTimeoutNanos == 0 ? 0 : System.nanoTime() + startTimeoutNanos;
+            return current.submit(resource, priority, caller, deadline, getCommand(), () -> execute(timeout, unit));
+        }
+
+        private CompletableFuture<ExecutionResult> execute(long timeout, TimeUnit unit) {
+            SessionPool sessionPool = sessions;
+            if (sessionPool != null && redirectOutputTarget == null && !hasInput()) {
+                return notifyListeners(executeInSession(sessionPool, timeout, unit));
+            }
+
+            BoundedOutputAdapter stdCapture = captureOutput ? new BoundedOutputAdapter(captureHeadBytes, captureTailBytes) : null;
+            BoundedOutputAdapter errCapture = captureOutput ? new BoundedOutputAdapter(captureHeadBytes, captureTailBytes) : null;
+            return notifyListeners(executeProcess(timeout, unit, stdCapture, errCapture, (p, redirectStartPosition, result) -> {
+                if (redirectOutputTarget == null) {
+                    return startOutputStreamsWriters(p.getInputStream(), p.getErrorStream(), stdCapture, errCapture, result);
+                }
+                return startOutputStreamsWriters(p, redirectStartPosition, stdCapture, errCapture, result);
+            }));
+        }
+
+        @Override
+        public StreamingExecution executeStreaming() {
+            return executeStreaming(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public StreamingExecution executeStreaming(long timeout, TimeUnit unit) {
+            checkNotClosed();
+            if (redirectOutputTarget != null) {
+                throw new IllegalStateException("The standard output of \"" + getCommand() + "\" is redirected to a file and can't be streamed.");
+            }
+
+            OutputPublisher stdPublisher = new OutputPublisher(executor, pumpBufferSize);
+            OutputPublisher errPublisher = new OutputPublisher(executor, pumpBufferSize);
+            CompletableFuture<ExecutionResult> execution = notifyListeners(executeProcess(timeout, unit, null, null, (p, redirectStartPosition, result) -> {
+                result.pumps(stdPublisher, errPublisher);
+                stdPublisher.attach(p.getInputStream());
+                errPublisher.attach(p.getErrorStream());
+                return CompletableFuture.allOf(stdPublisher.completion(), errPublisher.completion());
+            }));
+            execution.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    stdPublisher.fail(cause);
+                    errPublisher.fail(cause);
+                }
+            });
+            return new StreamingExecution() {
+                @Override
+                public Flow.Publisher<ByteBuffer> standardOutput() {
+                    return stdPublisher;
+                }
+
+                @Override
+                public Flow.Publisher<ByteBuffer> errorOutput() {
+                    return errPublisher;
+                }
+
+                @Override
+                public CompletableFuture<ExecutionResult> result() {
+                    return execution;
+                }
+            };
+        }
+
+        private CompletableFuture<ExecutionResult> executeProcess(long timeout, TimeUnit unit, BoundedOutputAdapter stdCapture, BoundedOutputAdapter errCapture, OutputDrain drain) {
+            EnvironmentSnapshot env = environment;
+            ProcessBuilder pb = setupProcessBuilder(env);
+            ExecutionResult.Builder result = new ExecutionResult.Builder(getCommand()).directory(pb.directory());
+            CompletableFuture<Integer> exit;
+            CompletableFuture<Void> drained;
+            Process p = null;
+            ResourceMonitor monitor = null;
+            InputStream fileInput = null;
+            try {
+                long redirectStartPosition = 0;
+                if (redirectOutputTarget != null) {
+                    if (appendOutput) {
+                        redirectStartPosition = redirectOutputTarget.length();
+                        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(redirectOutputTarget));
+                    } else {
+                        pb.redirectOutput(ProcessBuilder.Redirect.to(redirectOutputTarget));
+                    }
+                }
+
+                boolean inputByOs = isLocal() && inputFile != null && inputFile.getFileSystem() == FileSystems.getDefault();
+                if (inputByOs) {
+                    pb.redirectInput(inputFile.toFile());
+                } else if (inputFile != null) {
+                    // opened before the spawn, so a file that can't be read doesn't leave a process behind
+                    fileInput = Files.newInputStream(inputFile);
+                }
+
+                LOGGER.debug("Running command \"" + pb.command().toString().replaceAll("\\[|\\]|,", "") + "\" in directory \"" + pb.directory() + "\"");
+                fireStarted(getCommand());
+                p = reaper.track(startProcess(pb, env));
+                result.spawned();
+                monitor = startResourceMonitor(p, result);
+
+                if (hasInput() && !inputByOs) {
+                    startInputWriter(p.getOutputStream(), fileInput);
+                } else {
+                    //the default output is not used. Closing it prevents some processes from hanging (all powershell executions, for example).
+                    p.getOutputStream().close();
+                }
+
+                drained = drain.start(p, redirectStartPosition, result);
+
+                exit = p.onExit().thenApply(process -> {
+                    result.exited(process.exitValue());
+                    return process.exitValue();
+                });
+            } catch (IOException | ShellCliException ex) {
+                abandon(p, monitor, fileInput);
+                ShellCliException error = new ShellCliException("An error occurred while trying to execute command \"" + pb.command() + "\" in directory \"" + pb.directory() + "\"", ex);
+                CompletableFuture<ExecutionResult> failed = new CompletableFuture<>();
+                failed.completeExceptionally(error);
+                return failed;
+            }
+            Process process = p;
+            ResourceMonitor resources = monitor;
+
+            CompletableFuture<Boolean> finished = exit.thenCombine(drained, (exitCode, ignored) -> Boolean.TRUE);
+            if (timeout != MAX_TIMEOUT) {
+                finished = finished.completeOnTimeout(Boolean.FALSE, timeout, unit);
+            }
+            return finished.thenApply(inTime -> {
+                boolean timedOut = !inTime && !exit.isDone();
+                if (timedOut) {
+                    result.timedOut();
+                }
+                if (stdCapture != null) {
+                    result.output(stdCapture, errCapture);
+                }
+                if (resources != null) {
+                    result.resources(resources);
+                }
+                ExecutionResult built = result.build();
+                if (timedOut) {
+                    // after building the result, so it doesn't get the killed process' exit code. The pumps are
+                    // released once the whole tree is gone and the pipes are closed
+                    ProcessReaper.terminate(process, killGracePeriod);
+                }
+                return built;
+            });
+        }
+
+        private ResourceMonitor startResourceMonitor(Process p, ExecutionResult.Builder result) {
+            long cpuLimit = cpuTimeLimitNanos;
+            long residentLimit = residentMemoryLimit;
+            long interval = resourceSampleInterval;
+            if (interval == 0) {
+                if (cpuLimit == 0 && residentLimit == 0) {
+                    return null;
+                }
+                interval = ResourceMonitor.DEFAULT_INTERVAL;
+            }
+            return ResourceMonitor.start(p, interval, cpuLimit, residentLimit, limit -> {
+                LOGGER.warn("Command \"" + getCommand() + "\" exceeded its " + limit + " limit and will be killed.");
+                result.limitExceeded(limit);
+                ProcessReaper.terminate(p, killGracePeriod);
+            });
+        }
+
+        // cleans up after an execution that failed to start, possibly after its process was spawned
+        private void abandon(Process p, ResourceMonitor monitor, InputStream fileInput) {
+            if (monitor != null) {
+                monitor.stop();
+            }
+            if (p != null) {
+                ProcessReaper.terminate(p, killGracePeriod);
+            }
+            if (fileInput != null) {
+                try {
+                    fileInput.close();
+                } catch (IOException e) {
+                    LOGGER.debug("It wasn't possible to close input file \"" + inputFile + "\".", e);
+                }
+            }
+        }
+
+        private boolean hasInput() {
+            return inputStream != null || inputFile != null || inputBuffer != null;
+        }
+
+        // the input isn't part of the execution's completion: a process may exit without reading all of it
+        private void startInputWriter(OutputStream stdin, InputStream file) {
+            if (inputBuffer != null) {
+                CompletableFuture.runAsync(new InputPump(inputBuffer, stdin, pumpBufferSize), executor);
+            } else if (inputStream != null) {
+                CompletableFuture.runAsync(new InputPump(inputStream, stdin, pumpBufferSize), executor);
+            } else {
+                CompletableFuture.runAsync(new InputPump(file, stdin, pumpBufferSize), executor).whenComplete((ignored, error) -> {
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        LOGGER.debug("It wasn't possible to close input file \"" + inputFile + "\".", e);
+                    }
+                });
+            }
+        }
+
+        private CompletableFuture<ExecutionResult> notifyListeners(CompletableFuture<ExecutionResult> execution) {
+            if (!listeners.isEmpty()) {
+                execution.whenComplete((executionResult, error) -> {
+                    if (error != null) {
+                        fireFailed(getCommand(), error instanceof CompletionException ? error.getCause() : error);
+                    } else {
+                        fireFinished(executionResult);
+                    }
+                });
+            }
+            return execution;
+        }
+
+        private CompletableFuture<ExecutionResult> executeInSession(SessionPool sessionPool, long timeout, TimeUnit unit) {
+            File executionDir = dir;
+            ExecutionResult.Builder result = new ExecutionResult.Builder(getCommand()).directory(executionDir);
+            BoundedOutputAdapter stdCapture = captureOutput ? new BoundedOutputAdapter(captureHeadBytes, captureTailBytes) : null;
+            BoundedOutputAdapter errCapture = captureOutput ? new BoundedOutputAdapter(captureHeadBytes, captureTailBytes) : null;
+            CompletableFuture<ExecutionResult> ret = new CompletableFuture<>();
+
+            fireStarted(getCommand());
+            sessionPool.submit(new SessionPool.Task() {
+                @Override
+                public void run(ShellSession session) {
+                    // the "spawn" of a session execution is the wait for a free session
+                    result.spawned();
+                    String marker = session.nextMarker();
+                    try {
+                        session.send(sessionProtocol().script(sessionCommandLine(), executionDir, marker));
+                    } catch (IOException e) {
+                        sessionPool.release(session, false);
+                        failed(new ShellCliException("It wasn't possible to send command \"" + getCommand() + "\" to its shell session.", e));
+                        return;
+                    }
+
+                    SessionPump stdPump = new SessionPump(session.stdout(), marker, true, outputTargets(standardOutputs(), stdCapture));
+                    SessionPump errPump = new SessionPump(session.stderr(), marker, false, outputTargets(errorOutputs(), errCapture));
+                    result.pumps(stdPump, errPump);
+                    CompletableFuture<Boolean> finished = CompletableFuture.allOf(CompletableFuture.runAsync(stdPump, executor), CompletableFuture.runAsync(errPump, executor))
+                            .thenApply(ignored -> {
+                                result.exited(stdPump.getExitCode());
+                                return Boolean.TRUE;
+                            });
+                    if (timeout != MAX_TIMEOUT) {
+                        finished = finished.completeOnTimeout(Boolean.FALSE, timeout, unit);
+                    }
+                    finished.whenComplete((inTime, error) -> {
+                        // a command that is still running or left the session in an unknown state can't share it
+                        sessionPool.release(session, error == null && inTime);
+                        if (error != null) {
+                            ret.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                            return;
+                        }
+                        if (!inTime) {
+                            result.timedOut();
+                        }
+                        if (stdCapture != null) {
+                            result.output(stdCapture, errCapture);
+                        }
+                        ret.complete(result.build());
+                    });
+                }
+
+                @Override
+                public void failed(RuntimeException error) {
+                    ret.completeExceptionally(error);
+                }
+            });
+            return ret;
+        }
+
+        private ProcessBuilder setupProcessBuilder(EnvironmentSnapshot env) {
+            ProcessBuilder pb = new ProcessBuilder(getCommand().getCmdLine());
+            env.applyTo(pb.environment());
+            pb = pb.directory(dir);
+            return pb;
+        }
+
+        private CompletableFuture<Void> startOutputStreamsWriters(InputStream stdStream, InputStream errStream, OutputStream stdCapture, OutputStream errCapture, ExecutionResult.Builder result) {
+            StreamPump stdPump = new StreamPump(stdStream, outputTargets(standardOutputs(), stdCapture), pumpBufferSize);
+            StreamPump errPump = new StreamPump(errStream, outputTargets(errorOutputs(), errCapture), pumpBufferSize);
+            result.pumps(stdPump, errPump);
+            return CompletableFuture.allOf(CompletableFuture.runAsync(stdPump, executor), CompletableFuture.runAsync(errPump, executor));
+        }
+
+        // the OS writes the standard output straight into the redirect target; it's only read back when someone listens
+        private CompletableFuture<Void> startOutputStreamsWriters(Process p, long redirectStartPosition, OutputStream stdCapture, OutputStream errCapture, ExecutionResult.Builder result) {
+            StreamPump errPump = new StreamPump(p.getErrorStream(), outputTargets(errorOutputs(), errCapture), pumpBufferSize);
+            CompletableFuture<Void> errPumped = CompletableFuture.runAsync(errPump, executor);
+
+            List<OutputStream> stdOutStreams = listeners(standardOutputs(), stdCapture);
+            if (stdOutStreams.isEmpty()) {
+                result.pumps(null, errPump);
+                return errPumped.thenRun(() -> result.standardOutputBytes(redirectOutputTarget.length() - redirectStartPosition));
+            }
+            FileTailPump tail = new FileTailPump(redirectOutputTarget.toPath(), redirectStartPosition, stdOutStreams, p, pumpBufferSize);
+            result.pumps(tail, errPump);
+            return CompletableFuture.allOf(errPumped, CompletableFuture.runAsync(tail, executor));
+        }
+
+        private List<OutputStream> standardOutputs() {
+            return stdOutputOverride != null ? Collections.singletonList(stdOutputOverride) : stdOutputs;
+        }
+
+        private List<OutputStream> errorOutputs() {
+            return errOutputOverride != null ? Collections.singletonList(errOutputOverride) : errOutputs;
+        }
+
+        private List<OutputStream> outputTargets(List<OutputStream> configured, OutputStream capture) {
+            List<OutputStream> targets = listeners(configured, capture);
+            if (targets.isEmpty()) {
+                // it is necessarily to read all process's inputStream from std and err or else the execution will hang.
+                return DISCARD_OUTPUT;
+            }
+            return targets;
+        }
+
+        private List<OutputStream> listeners(List<OutputStream> configured, OutputStream capture) {
+            if ((supressOuput || configured.isEmpty()) && capture == null) {
+                return Collections.emptyList();
+            }
+            List<OutputStream> targets = new ArrayList<>();
+            if (!supressOuput) {
+                for (OutputStream each : configured) {
+                    // line and record adapters keep decoding state, which executions can't share
+                    targets.add(each instanceof ExecutionScopedOutput ? ((ExecutionScopedOutput) each).forExecution() : each);
+                }
+            }
+            if (capture != null) {
+                targets.add(capture);
+            }
+            return targets;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(getCommand().getCmdLine());
+        }
+
+        @Override
+        public FutureExecution redirectOutput(File out) {
+            AbstractFutureExecution ret = copy();
+            ret.redirectOutputTarget = out;
+            ret.appendOutput = false;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution redirectOutputAppending(File out) {
+            AbstractFutureExecution ret = copy();
+            ret.redirectOutputTarget = out;
+            ret.appendOutput = true;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution stdout(OutputStream out) {
+            AbstractFutureExecution ret = copy();
+            ret.stdOutputOverride = out;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution stderr(OutputStream out) {
+            AbstractFutureExecution ret = copy();
+            ret.errOutputOverride = out;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution schedule(String resource, int priority) {
+            AbstractFutureExecution ret = copy();
+            ret.resource = resource;
+            ret.priority = priority;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution onBehalfOf(String caller) {
+            AbstractFutureExecution ret = copy();
+            ret.caller = caller;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution startBefore(long timeout, TimeUnit unit) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("Start timeout must be positive, got " + timeout);
+            }
+            AbstractFutureExecution ret = copy();
+            ret.startTimeoutNanos = unit.toNanos(timeout);
+            return ret;
+        }
+
+        @Override
+        public FutureExecution cached() {
+            AbstractFutureExecution ret = copy();
+            ret.cached = true;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution supressOutput() {
+            AbstractFutureExecution ret = copy();
+            ret.supressOuput = true;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution input(InputStream in) {
+            AbstractFutureExecution ret = copyWithoutInput();
+            ret.inputStream = in;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution input(Path file) {
+            AbstractFutureExecution ret = copyWithoutInput();
+            ret.inputFile = file;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution input(ByteBuffer bytes) {
+            AbstractFutureExecution ret = copyWithoutInput();
+            ret.inputBuffer = bytes;
+            return ret;
+        }
+
+        private AbstractFutureExecution copyWithoutInput() {
+            AbstractFutureExecution ret = copy();
+            ret.inputStream = null;
+            ret.inputFile = null;
+            ret.inputBuffer = null;
+            return ret;
+        }
+
+        @Override
+        public FutureExecution captureOutput() {
+            return captureOutput(BoundedOutputAdapter.UNBOUNDED, 0);
+        }
+
+        @Override
+        public FutureExecution captureOutput(int headBytes, int tailBytes) {
+            AbstractFutureExecution ret = copy();
+            ret.captureOutput = true;
+            ret.captureHeadBytes = headBytes;
+            ret.captureTailBytes = tailBytes;
+            return ret;
+        }
+
+    }
+
+    /**
+     * Stages are {@link CliCommand}s and {@link LineStage} templates, in pipeline order. Each run of consecutive
+     * commands is started with {@link ProcessBuilder#startPipeline(List)}; each run of line stages is a
+     * {@link TransformPump} between the commands around it.
+     */
+    private class ShellPipeline implements Pipeline {
+
+        private final List<Object> stages;
+        private final Charset charset;
+        private final OutputStream stdOutputOverride;
+        private final OutputStream errOutputOverride;
+
+        ShellPipeline(List<Object> stages, Charset charset, OutputStream stdOutputOverride, OutputStream errOutputOverride) {
+            this.stages = stages;
+            this.charset = charset;
+            this.stdOutputOverride = stdOutputOverride;
+            this.errOutputOverride = errOutputOverride;
+        }
+
+        private ShellPipeline then(Object stage) {
+            List<Object> next = new ArrayList<>(stages.size() + 1);
+            next.addAll(stages);
+            next.add(stage);
+            return new ShellPipeline(next, charset, stdOutputOverride, errOutputOverride);
+        }
+
+        @Override
+        public Pipeline pipe(CliCommand cmd) {
+            return then(cmd);
+        }
+
+        @Override
+        public Pipeline filter(Predicate<CharSequence> filter) {
+            return then(LineStage.filter(filter));
+        }
+
+        @Override
+        public Pipeline map(Function<CharSequence, CharSequence> mapper) {
+            return then(LineStage.map(mapper));
+        }
+
+        @Override
+        public Pipeline grep(Pattern pattern) {
+            return then(LineStage.grep(pattern));
+        }
+
+        @Override
+        public Pipeline charset(Charset charset) {
+            return new ShellPipeline(stages, charset, stdOutputOverride, errOutputOverride);
+        }
+
+        @Override
+        public Pipeline stdout(OutputStream out) {
+            return new ShellPipeline(stages, charset, out, errOutputOverride);
+        }
+
+        @Override
+        public Pipeline stderr(OutputStream out) {
+            return new ShellPipeline(stages, charset, stdOutputOverride, out);
+        }
+
+        @Override
+        public int execute() {
+            try {
+                return executeAsync().get().getExitCode();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ShellCliException) {
+                    throw (ShellCliException) e.getCause();
+                }
+                throw new ShellCliException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ShellCliException("Interrupted while waiting for pipeline \"" + this + "\"", e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<PipelineResult> executeAsync() {
+            return executeAsync(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public CompletableFuture<PipelineResult> executeAsync(long timeout, TimeUnit unit) {
+            checkNotClosed();
+            long startNanos = System.nanoTime();
+            List<Segment> segments = segments();
+            List<Process> started = new ArrayList<>();
+            List<CompletableFuture<?>> parts = new ArrayList<>();
+            try {
+                for (Segment each : segments) {
+                    if (each.commands != null) {
+                        each.processes = start(each.commands);
+                        started.addAll(each.processes);
+                    }
+                }
+                for (int i = 0; i < segments.size(); i++) {
+                    connect(segments, i, parts);
+                }
+            } catch (IOException | RuntimeException ex) {
+                for (Process each : started) {
+                    ProcessReaper.terminate(each.toHandle(), 0);
+                }
+                CompletableFuture<PipelineResult> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new ShellCliException("An error occurred while trying to execute pipeline \"" + this + "\" in directory \"" + dir + "\"", ex));
+                return failed;
+            }
+            for (Process each : started) {
+                parts.add(each.onExit());
+            }
+
+            CompletableFuture<Boolean> finished = CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> Boolean.TRUE);
+            if (timeout != MAX_TIMEOUT) {
+                finished = finished.completeOnTimeout(Boolean.FALSE, timeout, unit);
+            }
+            return finished.thenApply(inTime -> {
+                PipelineResult built = result(segments, !inTime, Duration.ofNanos(System.nanoTime() - startNanos));
+                if (!inTime) {
+                    for (Process each : started) {
+                        ProcessReaper.terminate(each.toHandle(), killGracePeriod);
+                    }
+                }
+                return built;
+            });
+        }
+
+        private List<Segment> segments() {
+            List<Segment> segments = new ArrayList<>();
+            Segment current = null;
+            for (Object each : stages) {
+                boolean command = each instanceof CliCommand;
+                if (current == null || (current.commands != null) != command) {
+                    current = new Segment(command);
+                    segments.add(current);
+                }
+                if (command) {
+                    current.commands.add((CliCommand) each);
+                } else {
+                    current.lineStages.add(((LineStage) each).fresh());
+                }
+            }
+            return segments;
+        }
+
+        private List<Process> start(List<CliCommand> commands) throws IOException {
+            File executionDir = dir;
+            if (executionDir != null && !executionDir.exists()) {
+                LOGGER.info("Directory \"" + executionDir + "\" don't exist and will be created.");
+                Files.createDirectory(executionDir.toPath());
+            }
+            List<ProcessBuilder> builders = new ArrayList<>(commands.size());
+            for (CliCommand each : commands) {
+                ProcessBuilder pb = new ProcessBuilder(command(each).getCommand().getCmdLine());
+                environment.applyTo(pb.environment());
+                builders.add(pb.directory(executionDir));
+            }
+            LOGGER.debug("Running pipeline \"" + commands + "\" in directory \"" + executionDir + "\"");
+            List<Process> processes = ProcessBuilder.startPipeline(builders);
+            for (Process each : processes) {
+                reaper.track(each);
+            }
+            return processes;
+        }
+
+        // reads the output of segment i, and the error output of its processes
+        private void connect(List<Segment> segments, int i, List<CompletableFuture<?>> parts) throws IOException {
+            Segment segment = segments.get(i);
+            boolean last = i == segments.size() - 1;
+            if (segment.commands != null) {
+                if (i == 0) {
+                    //the default output is not used. Closing it prevents some processes from hanging.
+                    segment.processes.get(0).getOutputStream().close();
+                }
+                for (Process each : segment.processes) {
+                    StreamPump errPump = new StreamPump(each.getErrorStream(), targets(errOutputOverride, errOutputs), pumpBufferSize);
+                    parts.add(CompletableFuture.runAsync(errPump, executor));
+                }
+                if (last) {
+                    StreamPump stdPump = new StreamPump(segment.lastProcess().getInputStream(), targets(stdOutputOverride, stdOutputs), pumpBufferSize);
+                    segment.outputPump = stdPump;
+                    parts.add(CompletableFuture.runAsync(stdPump, executor));
+                }
+                return;
+            }
+            // a line segment always follows a command segment
+            Segment upstream = segments.get(i - 1);
+            List<OutputStream> outputs = last ? targets(stdOutputOverride, stdOutputs) : Collections.singletonList(segments.get(i + 1).processes.get(0).getOutputStream());
+            TransformPump pump = new TransformPump(upstream.lastProcess().getInputStream(), segment.lineStages, charset, outputs, !last, pumpBufferSize);
+            segment.transformPump = pump;
+            segment.transformed = CompletableFuture.runAsync(pump, executor);
+            upstream.outputPump = pump;
+            parts.add(segment.transformed);
+        }
+
+        private List<OutputStream> targets(OutputStream override, List<OutputStream> configured) {
+            if (override != null) {
+                return Collections.singletonList(override);
+            }
+            if (configured.isEmpty()) {
+                return DISCARD_OUTPUT;
+            }
+            List<OutputStream> targets = new ArrayList<>(configured.size());
+            for (OutputStream each : configured) {
+                targets.add(each instanceof ExecutionScopedOutput ? ((ExecutionScopedOutput) each).forExecution() : each);
+            }
+            return targets;
+        }
+
+        private PipelineResult result(List<Segment> segments, boolean timedOut, Duration totalDuration) {
+            List<PipelineResult.Stage> results = new ArrayList<>(stages.size());
+            long bytesIn = 0;
+            for (Segment segment : segments) {
+                if (segment.commands != null) {
+                    for (int i = 0; i < segment.commands.size(); i++) {
+                        Process p = segment.processes.get(i);
+                        boolean lastOfSegment = i == segment.commands.size() - 1;
+                        int exitCode = p.isAlive() ? ExecutionResult.TIMEOUT_EXIT_CODE : p.exitValue();
+                        // between two processes of a segment, the bytes go through an OS pipe
+                        long in = i == 0 ? bytesIn : PipelineResult.UNKNOWN;
+                        long out = lastOfSegment ? segment.outputPump.getBytes() : PipelineResult.UNKNOWN;
+                        results.add(new PipelineResult.Stage(segment.commands.get(i).toString(), true, exitCode, in, out, PipelineResult.UNKNOWN, PipelineResult.UNKNOWN, null));
+                    }
+                } else {
+                    TransformPump pump = segment.transformPump;
+                    for (int i = 0; i < segment.lineStages.size(); i++) {
+                        LineStage stage = segment.lineStages.get(i);
+                        int exitCode = stage.getError() != null ? 1 : segment.transformed.isDone() ? 0 : ExecutionResult.TIMEOUT_EXIT_CODE;
+                        // between two line stages, lines are handed over without being encoded
+                        long in = i == 0 ? pump.getBytes() : PipelineResult.UNKNOWN;
+                        long out = i == segment.lineStages.size() - 1 ? pump.getWritten() : PipelineResult.UNKNOWN;
+                        results.add(new PipelineResult.Stage(stage.getName(), false, exitCode, in, out, stage.getLinesIn(), stage.getLinesOut(), stage.getError()));
+                    }
+                    bytesIn = pump.getWritten();
+                }
+            }
+            return new PipelineResult(results, timedOut, totalDuration);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder ret = new StringBuilder();
+            for (Object each : stages) {
+                if (ret.length() > 0) {
+                    ret.append(" | ");
+                }
+                ret.append(each instanceof LineStage ? ((LineStage) each).getName() : each);
+            }
+            return ret.toString();
+        }
+    }
+
+    /**
+     * A run of consecutive commands, or of consecutive line stages, of a {@link ShellPipeline} execution.
+     */
+    private static final class Segment {
+
+        private final List<CliCommand> commands;
+        private final List<LineStage> lineStages;
+        private List<Process> processes;
+        // what reads the standard output of the segment's last process
+        private OutputPump outputPump;
+        private TransformPump transformPump;
+        private CompletableFuture<Void> transformed;
+
+        Segment(boolean commands) {
+            this.commands = commands ? new ArrayList<>() : null;
+            this.lineStages = commands ? null : new ArrayList<>();
+        }
+
+        Process lastProcess() {
+            return processes.get(processes.size() - 1);
+        }
+    }
+
+}
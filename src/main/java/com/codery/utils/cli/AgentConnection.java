@@ -0,0 +1,206 @@
+package com.codery.utils.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection of a {@link RemoteCli} with one {@link ShellAgent}, shared by every execution dispatched to it. A
+ * daemon thread reads the agent's frames and hands them to the {@link RemoteProcess} they belong to; writes are
+ * serialized, so each frame goes out whole.
+ * <p>
+ * The connection is lost when reading or writing fails, or when the agent doesn't answer heartbeats; every process
+ * still on it is then told, and decides whether it can be run elsewhere.
+ */
+final class AgentConnection implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentConnection.class);
+
+    private final InetSocketAddress address;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Consumer<AgentConnection> onLost;
+    private final Map<Integer, RemoteProcess> executions = new ConcurrentHashMap<>();
+    private final AtomicInteger lastId = new AtomicInteger();
+    private final AtomicBoolean lost = new AtomicBoolean();
+    private volatile boolean closing;
+    private volatile long lastReceived = System.nanoTime();
+
+    private AgentConnection(InetSocketAddress address, Socket socket, DataInputStream in, DataOutputStream out, Consumer<AgentConnection> onLost) {
+        this.address = address;
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.onLost = onLost;
+    }
+
+    /**
+     * Connects and authenticates with the agent at {@code address}.
+     *
+     * @param onLost called once, when the connection is lost.
+     */
+    static AgentConnection open(InetSocketAddress address, String token, int connectTimeout, Consumer<AgentConnection> onLost) throws IOException {
+        Socket socket = new Socket();
+        AgentConnection connection;
+        try {
+            socket.connect(address, connectTimeout);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(connectTimeout);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            AgentProtocol.write(out, AgentProtocol.HELLO, 0, AgentProtocol.hello(token));
+            AgentProtocol.Frame reply = AgentProtocol.read(in);
+            if (reply == null) {
+                throw new EOFException("Agent " + address + " closed the connection during the handshake.");
+            }
+            if (reply.type == AgentProtocol.FAILED) {
+                throw new IOException("Agent " + address + " refused the connection: " + AgentProtocol.readString(reply.payload()));
+            }
+            if (reply.type != AgentProtocol.WELCOME) {
+                throw new IOException("Agent " + address + " answered the handshake with frame type " + reply.type + ".");
+            }
+            // heartbeats detect a silent agent from now on
+            socket.setSoTimeout(0);
+            connection = new AgentConnection(address, socket, in, out, onLost);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        Thread reader = new Thread(connection, "process-runner-remote-" + address);
+        reader.setDaemon(true);
+        reader.start();
+        return connection;
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return how many executions are running on this connection.
+     */
+    int inFlight() {
+        return executions.size();
+    }
+
+    /**
+     * @return the id {@code process} has on this connection, before anything was sent for it.
+     */
+    int register(RemoteProcess process) {
+        int id = lastId.incrementAndGet();
+        executions.put(id, process);
+        return id;
+    }
+
+    /**
+     * Sends a frame, or fails the connection if it can't.
+     */
+    void send(byte type, int id, byte[] payload, int off, int len) throws IOException {
+        if (lost.get()) {
+            throw new SocketException("Connection with agent " + address + " was lost.");
+        }
+        try {
+            synchronized (out) {
+                AgentProtocol.write(out, type, id, payload, off, len);
+            }
+        } catch (IOException e) {
+            lost(e);
+            throw e;
+        }
+    }
+
+    void send(byte type, int id, byte[] payload) throws IOException {
+        send(type, id, payload, 0, payload.length);
+    }
+
+    /**
+     * Pings the agent, unless it has been silent for longer than {@code timeoutNanos}, in which case the connection
+     * is lost.
+     */
+    void heartbeat(long timeoutNanos) {
+        long silence = System.nanoTime() - lastReceived;
+        if (silence > timeoutNanos) {
+            lost(new SocketTimeoutException("Agent " + address + " didn't answer for " + silence / 1_000_000 + " ms."));
+            return;
+        }
+        try {
+            send(AgentProtocol.PING, 0, new byte[0]);
+        } catch (IOException e) {
+            LOGGER.debug("It wasn't possible to ping agent " + address + ".", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            AgentProtocol.Frame frame;
+            while ((frame = AgentProtocol.read(in)) != null) {
+                lastReceived = System.nanoTime();
+                if (frame.type == AgentProtocol.PONG) {
+                    continue;
+                }
+                RemoteProcess process = frame.type == AgentProtocol.EXIT || frame.type == AgentProtocol.FAILED ? executions.remove(frame.id) : executions.get(frame.id);
+                if (process != null) {
+                    process.received(this, frame);
+                }
+            }
+            lost(new EOFException("Agent " + address + " closed the connection."));
+        } catch (IOException e) {
+            lost(e);
+        }
+    }
+
+    /**
+     * Closes the connection and tells the processes still on it.
+     */
+    void lost(IOException cause) {
+        if (!lost.compareAndSet(false, true)) {
+            return;
+        }
+        if (!closing) {
+            LOGGER.warn("Lost connection with agent " + address + " running " + executions.size() + " executions: " + cause);
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.debug("It wasn't possible to close the connection with agent " + address + ".", e);
+        }
+        onLost.accept(this);
+        for (Integer each : executions.keySet()) {
+            RemoteProcess process = executions.remove(each);
+            if (process != null) {
+                process.connectionLost(this, cause);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection on purpose; processes still on it are lost all the same.
+     */
+    void close() {
+        closing = true;
+        lost(new SocketException("Connection with agent " + address + " was closed."));
+    }
+
+    @Override
+    public String toString() {
+        return "AgentConnection{" + address + "}";
+    }
+
+}
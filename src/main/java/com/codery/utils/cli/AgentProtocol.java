@@ -0,0 +1,248 @@
+package com.codery.utils.cli;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Frames exchanged by a {@link RemoteCli} and its {@link ShellAgent}s. Every frame is a type byte, the id of the
+ * execution it belongs to (0 for the connection itself), the payload length and the payload, so the output and exit
+ * codes of any number of executions share a single connection. Strings are length prefixed UTF-8.
+ * <p>
+ * The client starts with {@link #HELLO}, which the agent answers with {@link #WELCOME} or, for a wrong token, with
+ * {@link #FAILED} before closing the connection. For each execution the client sends {@link #EXECUTE}, then
+ * {@link #STDIN} chunks ending with {@link #STDIN_CLOSE}, and the agent sends {@link #STDOUT} and {@link #STDERR}
+ * chunks ending with {@link #EXIT}, or {@link #FAILED} when the process couldn't be started. Frames of a connection
+ * are delivered in order, so every output chunk of an execution arrives before its exit code.
+ */
+final class AgentProtocol {
+
+    static final int VERSION = 1;
+
+    // client to agent
+    static final byte HELLO = 1;
+    static final byte EXECUTE = 2;
+    static final byte STDIN = 3;
+    static final byte STDIN_CLOSE = 4;
+    static final byte KILL = 5;
+    static final byte PING = 6;
+
+    // agent to client
+    static final byte WELCOME = 64;
+    static final byte STDOUT = 65;
+    static final byte STDERR = 66;
+    static final byte EXIT = 67;
+    static final byte FAILED = 68;
+    static final byte PONG = 69;
+
+    // larger frames mean a peer that doesn't speak this protocol
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private AgentProtocol() {
+    }
+
+    static final class Frame {
+
+        final byte type;
+        final int id;
+        final byte[] payload;
+
+        Frame(byte type, int id, byte[] payload) {
+            this.type = type;
+            this.id = id;
+            this.payload = payload;
+        }
+
+        DataInputStream payload() {
+            return new DataInputStream(new ByteArrayInputStream(payload));
+        }
+    }
+
+    /**
+     * @return the next frame, or null when the peer closed the connection between frames.
+     */
+    static Frame read(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return null;
+        }
+        int id = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Invalid frame length " + length + ".");
+        }
+        byte[] payload = length == 0 ? EMPTY : new byte[length];
+        in.readFully(payload);
+        return new Frame((byte) type, id, payload);
+    }
+
+    /**
+     * Writes a whole frame and flushes it. Callers synchronize on {@code out}, since many executions share it.
+     */
+    static void write(DataOutputStream out, byte type, int id, byte[] payload, int off, int len) throws IOException {
+        out.writeByte(type);
+        out.writeInt(id);
+        out.writeInt(len);
+        out.write(payload, off, len);
+        out.flush();
+    }
+
+    static void write(DataOutputStream out, byte type, int id) throws IOException {
+        write(out, type, id, EMPTY, 0, 0);
+    }
+
+    static void write(DataOutputStream out, byte type, int id, byte[] payload) throws IOException {
+        write(out, type, id, payload, 0, payload.length);
+    }
+
+    static byte[] hello(String token) {
+        Payload payload = new Payload();
+        payload.writeInt(VERSION);
+        payload.writeString(token);
+        return payload.toByteArray();
+    }
+
+    static byte[] execute(List<String> cmdLine, String dir, Map<String, String> variables, boolean inherit) {
+        Payload payload = new Payload();
+        payload.writeInt(cmdLine.size());
+        for (String each : cmdLine) {
+            payload.writeString(each);
+        }
+        payload.writeString(dir != null ? dir : "");
+        payload.writeBoolean(inherit);
+        payload.writeInt(variables.size());
+        for (Map.Entry<String, String> each : variables.entrySet()) {
+            payload.writeString(each.getKey());
+            payload.writeString(each.getValue());
+        }
+        return payload.toByteArray();
+    }
+
+    static byte[] exitCode(int exitCode) {
+        Payload payload = new Payload();
+        payload.writeInt(exitCode);
+        return payload.toByteArray();
+    }
+
+    static byte[] kill(long graceMillis) {
+        Payload payload = new Payload();
+        payload.writeLong(graceMillis);
+        return payload.toByteArray();
+    }
+
+    static byte[] message(String message) {
+        Payload payload = new Payload();
+        payload.writeString(message != null ? message : "");
+        return payload.toByteArray();
+    }
+
+    /**
+     * Decoded {@link #EXECUTE} payload.
+     */
+    static final class Execute {
+
+        final List<String> cmdLine;
+        final String dir;
+        final boolean inherit;
+        final Map<String, String> variables;
+
+        private Execute(List<String> cmdLine, String dir, boolean inherit, Map<String, String> variables) {
+            this.cmdLine = cmdLine;
+            this.dir = dir;
+            this.inherit = inherit;
+            this.variables = variables;
+        }
+
+        static Execute decode(Frame frame) throws IOException {
+            DataInputStream in = frame.payload();
+            int argc = in.readInt();
+            checkCount(argc);
+            if (argc == 0) {
+                throw new IOException("Empty command line.");
+            }
+            List<String> cmdLine = new ArrayList<>(argc);
+            for (int i = 0; i < argc; i++) {
+                cmdLine.add(readString(in));
+            }
+            String dir = readString(in);
+            boolean inherit = in.readBoolean();
+            int count = in.readInt();
+            checkCount(count);
+            Map<String, String> variables = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                variables.put(readString(in), readString(in));
+            }
+            return new Execute(cmdLine, dir.isEmpty() ? null : dir, inherit, variables);
+        }
+    }
+
+    private static void checkCount(int count) throws IOException {
+        if (count < 0 || count > MAX_PAYLOAD) {
+            throw new IOException("Invalid count " + count + ".");
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new EOFException("Invalid string length " + length + ".");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds payloads in memory, where writes can't fail.
+     */
+    private static final class Payload {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        void writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        void writeBoolean(boolean value) {
+            try {
+                out.writeBoolean(value);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        void writeString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(encoded.length);
+            // DataOutputStream doesn't buffer, so this lands right after the length
+            bytes.write(encoded, 0, encoded.length);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+}
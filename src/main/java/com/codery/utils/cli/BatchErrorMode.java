@@ -0,0 +1,20 @@
+package com.codery.utils.cli;
+
+/**
+ * What {@link ShellCli#executeAll(java.util.Collection, int, BatchErrorMode)} does when a command fails, meaning it
+ * couldn't be started, exited with a non-zero code or timed out.
+ */
+public enum BatchErrorMode {
+
+    /**
+     * Stops starting new commands at the first failure and fails the whole batch with it. Commands already running
+     * are left to finish.
+     */
+    FAIL_FAST,
+
+    /**
+     * Runs every command. Non-zero exit codes and timeouts are reported in the results; commands that couldn't be
+     * started fail the batch once everything else has finished.
+     */
+    COLLECT_ALL
+}
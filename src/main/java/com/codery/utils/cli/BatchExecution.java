@@ -0,0 +1,139 @@
+package com.codery.utils.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a batch of commands on one {@link ShellCli}, keeping at most {@code parallelism} of them running at a time.
+ * A new command is started from the completion of a previous one, so the batch itself holds no thread.
+ */
+class BatchExecution {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchExecution.class);
+
+    private final ShellCli cli;
+    private final List<CliCommand> cmds;
+    private final int parallelism;
+    private final BatchErrorMode errorMode;
+    private final Consumer<ExecutionResult> onResult;
+    private final ExecutionResult[] results;
+    private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger remaining;
+    private final CompletableFuture<List<ExecutionResult>> done = new CompletableFuture<>();
+
+    BatchExecution(ShellCli cli, Collection<CliCommand> cmds, int parallelism, BatchErrorMode errorMode, Consumer<ExecutionResult> onResult) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive, got " + parallelism);
+        }
+        this.cli = cli;
+        this.cmds = new ArrayList<>(cmds);
+        this.parallelism = parallelism;
+        this.errorMode = errorMode;
+        this.onResult = onResult;
+        this.results = new ExecutionResult[this.cmds.size()];
+        this.remaining = new AtomicInteger(this.cmds.size());
+    }
+
+    CompletableFuture<List<ExecutionResult>> start() {
+        if (cmds.isEmpty()) {
+            done.complete(Collections.<ExecutionResult>emptyList());
+            return done;
+        }
+        for (int i = 0; i < Math.min(parallelism, cmds.size()); i++) {
+            startNext();
+        }
+        return done;
+    }
+
+    private void startNext() {
+        // looping instead of recursing keeps the stack flat when many commands fail right away
+        while (!done.isDone()) {
+            int index = next.getAndIncrement();
+            if (index >= cmds.size()) {
+                return;
+            }
+            CompletableFuture<ExecutionResult> execution;
+            try {
+                execution = cli.command(cmds.get(index)).executeAsync();
+            } catch (RuntimeException e) {
+                execution = new CompletableFuture<>();
+                execution.completeExceptionally(e);
+            }
+            if (!execution.isDone()) {
+                execution.whenComplete((result, error) -> {
+                    completed(index, result, error);
+                    startNext();
+                });
+                return;
+            }
+            // a spawn failure, like a missing program, comes back as a future that already failed
+            ExecutionResult result = null;
+            Throwable error = null;
+            try {
+                result = execution.join();
+            } catch (CompletionException | CancellationException e) {
+                error = e;
+            }
+            completed(index, result, error);
+        }
+    }
+
+    private void completed(int index, ExecutionResult result, Throwable error) {
+        if (error != null) {
+            failed(new ShellCliException("Command \"" + cmds.get(index) + "\" couldn't be executed.", unwrap(error)));
+        } else {
+            results[index] = result;
+            if (onResult != null) {
+                // a failing consumer must not keep the batch from completing or from starting the next commands
+                try {
+                    onResult.accept(result);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Batch result consumer " + onResult + " failed.", e);
+                }
+            }
+            if (errorMode == BatchErrorMode.FAIL_FAST && !result.isSuccess()) {
+                String reason = result.isTimedOut() ? "timed out" : "exited with code " + result.getExitCode();
+                failed(new ShellCliException("Command \"" + cmds.get(index) + "\" " + reason + "."));
+            }
+        }
+
+        if (remaining.decrementAndGet() == 0 && !done.isDone()) {
+            if (errors.isEmpty()) {
+                done.complete(Collections.unmodifiableList(Arrays.asList(results)));
+            } else {
+                ShellCliException batchError = new ShellCliException(errors.size() + " of " + cmds.size() + " commands couldn't be executed.", errors.get(0));
+                for (Throwable each : errors.subList(1, errors.size())) {
+                    batchError.addSuppressed(each);
+                }
+                done.completeExceptionally(batchError);
+            }
+        }
+    }
+
+    private void failed(ShellCliException error) {
+        if (errorMode == BatchErrorMode.FAIL_FAST) {
+            done.completeExceptionally(error);
+        } else {
+            errors.add(error);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,150 @@
+package com.codery.utils.cli;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Captures output within a fixed byte budget: the first {@code headBytes} written are kept, and after that only the
+ * last {@code tailBytes}, in a ring buffer. Whatever falls in between is dropped and counted, so a chatty command
+ * can't exhaust the heap. The head buffer grows as needed up to its limit; the ring buffer is only allocated once
+ * the head is full.
+ */
+public class BoundedOutputAdapter extends OutputStream {
+
+    /**
+     * A head budget as large as a byte array can get, for captures that keep everything.
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE - 8;
+    private static final int INITIAL_HEAD_SIZE = 256;
+
+    private final int headLimit;
+    private final int tailLimit;
+    private final byte[] single = new byte[1];
+    private byte[] head;
+    private int headCount;
+    private byte[] tail;
+    private int tailPos;
+    private int tailCount;
+    private long totalBytes;
+
+    public BoundedOutputAdapter(int headBytes, int tailBytes) {
+        if (headBytes < 0 || tailBytes < 0) {
+            throw new IllegalArgumentException("Byte budgets can't be negative, got head " + headBytes + " and tail " + tailBytes);
+        }
+        this.headLimit = headBytes;
+        this.tailLimit = tailBytes;
+        this.head = new byte[Math.min(headBytes, INITIAL_HEAD_SIZE)];
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        totalBytes += len;
+
+        int toHead = Math.min(len, headLimit - headCount);
+        if (toHead > 0) {
+            ensureHeadCapacity(headCount + toHead);
+            System.arraycopy(b, off, head, headCount, toHead);
+            headCount += toHead;
+            off += toHead;
+            len -= toHead;
+        }
+        if (len == 0 || tailLimit == 0) {
+            return;
+        }
+
+        if (tail == null) {
+            tail = new byte[tailLimit];
+        }
+        if (len >= tailLimit) {
+            System.arraycopy(b, off + len - tailLimit, tail, 0, tailLimit);
+            tailPos = 0;
+            tailCount = tailLimit;
+            return;
+        }
+        int untilEnd = Math.min(len, tailLimit - tailPos);
+        System.arraycopy(b, off, tail, tailPos, untilEnd);
+        System.arraycopy(b, off + untilEnd, tail, 0, len - untilEnd);
+        tailPos = (tailPos + len) % tailLimit;
+        tailCount = Math.min(tailCount + len, tailLimit);
+    }
+
+    private void ensureHeadCapacity(int capacity) {
+        if (capacity > head.length) {
+            int newSize = (int) Math.min((long) headLimit, Math.max((long) head.length * 2, capacity));
+            head = Arrays.copyOf(head, newSize);
+        }
+    }
+
+    /**
+     * @return the first bytes written, up to the head budget.
+     */
+    public synchronized byte[] getHead() {
+        return Arrays.copyOf(head, headCount);
+    }
+
+    /**
+     * @return the last bytes written after the head was full, up to the tail budget.
+     */
+    public synchronized byte[] getTail() {
+        byte[] ret = new byte[tailCount];
+        if (tailCount == 0) {
+            return ret;
+        }
+        if (tailCount < tailLimit) {
+            // the ring buffer didn't wrap yet
+            System.arraycopy(tail, 0, ret, 0, tailCount);
+        } else {
+            System.arraycopy(tail, tailPos, ret, 0, tailLimit - tailPos);
+            System.arraycopy(tail, 0, ret, tailLimit - tailPos, tailPos);
+        }
+        return ret;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return how many bytes were written between the head and the tail, and thus not kept.
+     */
+    public synchronized long getDroppedBytes() {
+        return totalBytes - headCount - tailCount;
+    }
+
+    /**
+     * @return {@link #getWrittenContent(Charset)} with the default charset.
+     */
+    public String getWrittenContent() {
+        return getWrittenContent(Charset.defaultCharset());
+    }
+
+    /**
+     * @return the head followed by the tail. If bytes were dropped in between, a line telling how many separates them.
+     */
+    public synchronized String getWrittenContent(Charset charset) {
+        String content = new String(head, 0, headCount, charset);
+        long dropped = getDroppedBytes();
+        if (dropped > 0) {
+            content += System.lineSeparator() + "[... " + dropped + " bytes dropped ...]" + System.lineSeparator();
+        }
+        return content + new String(getTail(), charset);
+    }
+
+    /**
+     * Discards everything captured so far, keeping the allocated buffers.
+     */
+    public synchronized void reset() {
+        headCount = 0;
+        tailPos = 0;
+        tailCount = 0;
+        totalBytes = 0;
+    }
+
+}
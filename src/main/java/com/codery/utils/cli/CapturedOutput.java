@@ -0,0 +1,193 @@
+package com.codery.utils.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only view of the output captured by a {@link SpillingOutputAdapter}: the heap buffer when the output stayed
+ * under the memory threshold, or a memory mapping of the temporary file it spilled to. Every accessor reads from the
+ * start, and may be used any number of times until {@link #close()}, which deletes the temporary file.
+ * <p>
+ * The OS releases a mapping only once its buffers are garbage collected, so on Windows, where a mapped file can't be
+ * deleted, a file still mapped on close is deleted when the JVM exits instead.
+ */
+public final class CapturedOutput implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CapturedOutput.class);
+
+    private final List<ByteBuffer> regions;
+    private final long size;
+    private final Path file;
+    private volatile boolean closed;
+
+    CapturedOutput(List<ByteBuffer> regions, long size, Path file) {
+        this.regions = regions;
+        this.size = size;
+        this.file = file;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the temporary file holding the output, or null when the output was kept in memory.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the whole output as a read-only buffer.
+     * @throws IllegalStateException if the output is larger than a {@link ByteBuffer} can be; use
+     *                               {@link #openStream()} or {@link #lines(Charset)} then.
+     */
+    public ByteBuffer asByteBuffer() {
+        checkNotClosed();
+        if (regions.size() > 1) {
+            throw new IllegalStateException("An output of " + size + " bytes doesn't fit a single buffer.");
+        }
+        return regions.get(0).asReadOnlyBuffer();
+    }
+
+    public InputStream openStream() {
+        checkNotClosed();
+        return new RegionInputStream(regions);
+    }
+
+    /**
+     * @return the lines of the output, decoded with {@code charset} and without their {@code \n}, {@code \r\n} or
+     * {@code \r} terminator. Lines are decoded as the iteration advances.
+     */
+    public Iterator<String> lines(Charset charset) {
+        checkNotClosed();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(openStream(), charset));
+        return new Iterator<String>() {
+            private String next = readLine();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String ret = next;
+                next = readLine();
+                return ret;
+            }
+
+            private String readLine() {
+                try {
+                    return reader.readLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("The captured output was closed.");
+        }
+    }
+
+    /**
+     * Deletes the temporary file, if there is one. Buffers and streams obtained before must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (file != null) {
+            delete(file);
+        }
+    }
+
+    static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.debug("It wasn't possible to delete \"" + file + "\" now, it will be deleted on exit.", e);
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    private static final class RegionInputStream extends InputStream {
+
+        private final Iterator<ByteBuffer> regions;
+        private ByteBuffer current;
+
+        RegionInputStream(List<ByteBuffer> regions) {
+            this.regions = regions.iterator();
+            this.current = this.regions.next().duplicate();
+        }
+
+        @Override
+        public int read() {
+            if (!advance()) {
+                return -1;
+            }
+            return current.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = 0;
+            while (skipped < n && advance()) {
+                int count = (int) Math.min(n - skipped, current.remaining());
+                current.position(current.position() + count);
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return current.remaining();
+        }
+
+        private boolean advance() {
+            while (!current.hasRemaining()) {
+                if (!regions.hasNext()) {
+                    return false;
+                }
+                current = regions.next().duplicate();
+            }
+            return true;
+        }
+    }
+
+}
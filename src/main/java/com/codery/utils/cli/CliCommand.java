@@ -4,37 +4,86 @@ import java.util.Arrays;
 
 /**
  * Created by thomasadriano on 09/07/15.
+ * <p>
+ * Immutable. A command built through {@link #param(String)} shares the parameters of the command it came from and
+ * only holds the ones it added, so building a command of n parameters takes O(n) instead of copying the whole command
+ * line on every call. The flat command line is assembled on the first {@link #getCmdLine()} and kept.
  */
 public class CliCommand {
 
+    // the command this one added parameters to, or null if params is the whole command line
+    private final CliCommand base;
     private final String[] params;
+    private final int size;
+    private volatile String[] cmdLine;
+    private volatile String text;
 
     public CliCommand(String process) {
-        params = new String[]{process};
+        this(new String[]{process});
     }
 
     public CliCommand(String[] cmdLine) {
+        this.base = null;
         this.params = cmdLine;
+        this.size = cmdLine.length;
+        this.cmdLine = cmdLine;
     }
 
     public CliCommand(CliCommand cmd) {
-        this.params = cmd.params;}
+        this.base = cmd.base;
+        this.params = cmd.params;
+        this.size = cmd.size;
+        this.cmdLine = cmd.cmdLine;
+    }
+
+    private CliCommand(CliCommand base, String[] added) {
+        this.base = base;
+        this.params = added;
+        this.size = base.size + added.length;
+    }
 
     public String[] getCmdLine() {
-        return params;
+        String[] ret = cmdLine;
+        if (ret == null) {
+            ret = new String[size];
+            int end = size;
+            for (CliCommand each = this; each != null; each = each.base) {
+                String[] known = each.cmdLine;
+                if (known != null) {
+                    // an ancestor already assembled: its command line is everything left
+                    System.arraycopy(known, 0, ret, 0, end);
+                    break;
+                }
+                end -= each.params.length;
+                System.arraycopy(each.params, 0, ret, end, each.params.length);
+            }
+            cmdLine = ret;
+        }
+        return ret;
     }
 
+    /**
+     * @return how many elements {@link #getCmdLine()} has, without assembling it.
+     */
+    public int size() {
+        return size;
+    }
 
     public CliCommand param(String param) {
-        return new CliCommand(ArraysUtils.concat(params, new String[]{param}));
+        return new CliCommand(this, new String[]{param});
     }
 
     public CliCommand param(String paramName, String paramValue) {
-        return new CliCommand(ArraysUtils.concat(params, new String[]{paramName, paramValue}));
+        return new CliCommand(this, new String[]{paramName, paramValue});
     }
 
     public String toString() {
-        return Arrays.toString(params).replaceAll("\\]|\\]|,", "");
+        String ret = text;
+        if (ret == null) {
+            ret = String.join(" ", getCmdLine());
+            text = ret;
+        }
+        return ret;
     }
 
     public boolean equals(Object o) {
@@ -43,11 +92,11 @@ public class CliCommand {
 
         CliCommand that = (CliCommand) o;
 
-        return Arrays.equals(params, that.params);
+        return size == that.size && Arrays.equals(getCmdLine(), that.getCmdLine());
 
     }
 
     public int hashCode() {
-        return params != null ? Arrays.hashCode(params) : 0;
+        return Arrays.hashCode(getCmdLine());
     }
 }
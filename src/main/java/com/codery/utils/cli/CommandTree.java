@@ -0,0 +1,197 @@
+package com.codery.utils.cli;
+
+/**
+ * An immutable command built from {@link CliCommand}s and shell operators, as a tree instead of a flat list of
+ * tokens. Operators compose left to right, the way they read on a shell's command line: {@code a.pipe(b).and(c)} is
+ * {@code a | b ; c}. Combining trees shares the operands, so building a long chain of operators costs linear time.
+ * <p>
+ * Backends turn a tree into the command line they start through a {@link Compiler}. The result is kept in the tree,
+ * so a tree executed many times, or extended with more operators, isn't compiled again.
+ */
+public abstract class CommandTree {
+
+    /**
+     * Turns a {@link CommandTree} into what a backend starts. A compiler should be a single instance per backend,
+     * since trees keep the result of the last compiler used.
+     */
+    public interface Compiler<P> {
+
+        P compile(CommandTree tree);
+    }
+
+    /**
+     * What a {@link CommandTree} is made of.
+     */
+    public interface Visitor<R> {
+
+        R command(CliCommand cmd);
+
+        R pipe(CommandTree left, CommandTree right);
+
+        R sequence(CommandTree first, CommandTree second);
+
+        R background(CommandTree cmd);
+    }
+
+    private volatile Compiled<?> compiled;
+
+    CommandTree() {
+    }
+
+    public static CommandTree of(CliCommand cmd) {
+        return new Command(cmd);
+    }
+
+    public abstract <R> R accept(Visitor<R> visitor);
+
+    /**
+     * {@code this | next}: the standard output of this command is the standard input of {@code next}.
+     */
+    public CommandTree pipe(CommandTree next) {
+        return new Pipe(this, next);
+    }
+
+    /**
+     * {@code this ; next}: {@code next} runs once this command finished, whatever its exit code.
+     */
+    public CommandTree and(CommandTree next) {
+        return new Sequence(this, next);
+    }
+
+    /**
+     * {@code this &}: this command runs without being waited for.
+     */
+    public CommandTree background() {
+        return new Background(this);
+    }
+
+    /**
+     * @return the leftmost command of this tree, which is the one started first.
+     */
+    public abstract CliCommand first();
+
+    /**
+     * @return what {@code compiler} makes of this tree, compiling it only if the last compiler used was another one.
+     */
+    @SuppressWarnings("unchecked")
+    public <P> P compile(Compiler<P> compiler) {
+        Compiled<?> current = compiled;
+        if (current == null || current.compiler != compiler) {
+            current = new Compiled<>(compiler, compiler.compile(this));
+            compiled = current;
+        }
+        return (P) current.plan;
+    }
+
+    private static final class Compiled<P> {
+
+        private final Compiler<P> compiler;
+        private final P plan;
+
+        Compiled(Compiler<P> compiler, P plan) {
+            this.compiler = compiler;
+            this.plan = plan;
+        }
+    }
+
+    private static final class Command extends CommandTree {
+
+        private final CliCommand cmd;
+
+        Command(CliCommand cmd) {
+            this.cmd = cmd;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.command(cmd);
+        }
+
+        @Override
+        public CliCommand first() {
+            return cmd;
+        }
+
+        @Override
+        public String toString() {
+            return cmd.toString();
+        }
+    }
+
+    private static final class Pipe extends CommandTree {
+
+        private final CommandTree left;
+        private final CommandTree right;
+
+        Pipe(CommandTree left, CommandTree right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.pipe(left, right);
+        }
+
+        @Override
+        public CliCommand first() {
+            return left.first();
+        }
+
+        @Override
+        public String toString() {
+            return left + " | " + right;
+        }
+    }
+
+    private static final class Sequence extends CommandTree {
+
+        private final CommandTree first;
+        private final CommandTree second;
+
+        Sequence(CommandTree first, CommandTree second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.sequence(first, second);
+        }
+
+        @Override
+        public CliCommand first() {
+            return first.first();
+        }
+
+        @Override
+        public String toString() {
+            return first + " ; " + second;
+        }
+    }
+
+    private static final class Background extends CommandTree {
+
+        private final CommandTree cmd;
+
+        Background(CommandTree cmd) {
+            this.cmd = cmd;
+        }
+
+        @Override
+        public <R> R accept(Visitor<R> visitor) {
+            return visitor.background(cmd);
+        }
+
+        @Override
+        public CliCommand first() {
+            return cmd.first();
+        }
+
+        @Override
+        public String toString() {
+            return cmd + " &";
+        }
+    }
+
+}
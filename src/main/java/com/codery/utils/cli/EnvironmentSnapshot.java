@@ -0,0 +1,157 @@
+package com.codery.utils.cli;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * An immutable view of the environment a {@link ShellCli} hands to its processes. It's built once per change of the
+ * environment and then applied to every {@link ProcessBuilder} in a single pass, so it can be read by any number of
+ * executions while another thread changes the environment.
+ * <p>
+ * On a case-insensitive environment, like Windows', each variable is matched against the JVM's inherited environment
+ * when the snapshot is built, so a variable named {@code path} replaces the inherited {@code Path} instead of
+ * ending up next to it.
+ */
+public final class EnvironmentSnapshot {
+
+    private static final EnvironmentSnapshot EMPTY_CASE_SENSITIVE = new EnvironmentSnapshot(Collections.<String, String>emptyMap(), true, true);
+    private static final EnvironmentSnapshot EMPTY_CASE_INSENSITIVE = new EnvironmentSnapshot(Collections.<String, String>emptyMap(), false, true);
+
+    private final Map<String, String> variables;
+    private final boolean caseSensitive;
+    private final boolean inherit;
+    // the variables as they must be stored into a ProcessBuilder's environment
+    private final String[] keys;
+    private final String[] values;
+
+    private EnvironmentSnapshot(Map<String, String> variables, boolean caseSensitive, boolean inherit) {
+        this.variables = Collections.unmodifiableMap(variables);
+        this.caseSensitive = caseSensitive;
+        this.inherit = inherit;
+        this.keys = new String[variables.size()];
+        this.values = new String[variables.size()];
+        int i = 0;
+        for (Entry<String, String> each : variables.entrySet()) {
+            keys[i] = inherit && !caseSensitive ? InheritedKeys.spelling(each.getKey()) : each.getKey();
+            values[i] = each.getValue();
+            i++;
+        }
+    }
+
+    static EnvironmentSnapshot empty(boolean caseSensitive) {
+        return caseSensitive ? EMPTY_CASE_SENSITIVE : EMPTY_CASE_INSENSITIVE;
+    }
+
+    /**
+     * @return a snapshot with {@code key} set to {@code value}.
+     */
+    EnvironmentSnapshot with(String key, String value) {
+        return with(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * @return a snapshot with every variable of {@code vars} set.
+     */
+    EnvironmentSnapshot with(Map<String, String> vars) {
+        Map<String, String> next = newMap(caseSensitive);
+        next.putAll(variables);
+        for (Entry<String, String> each : vars.entrySet()) {
+            next.put(each.getKey(), each.getValue());
+        }
+        return new EnvironmentSnapshot(next, caseSensitive, inherit);
+    }
+
+    /**
+     * @return a snapshot with the same variables which starts processes with or without the JVM's environment.
+     */
+    EnvironmentSnapshot inheriting(boolean inherit) {
+        return inherit == this.inherit ? this : new EnvironmentSnapshot(newMapOf(variables), caseSensitive, inherit);
+    }
+
+    /**
+     * Stores this snapshot's variables into a {@link ProcessBuilder#environment()}, which still holds the JVM's
+     * environment.
+     */
+    void applyTo(Map<String, String> target) {
+        if (!inherit) {
+            target.clear();
+        }
+        for (int i = 0; i < keys.length; i++) {
+            target.put(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * @return the variables set on the {@link ShellCli}, ordered by name on case-insensitive environments and by
+     * insertion otherwise. Case-insensitive lookups work on case-insensitive environments.
+     */
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+
+    public boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    /**
+     * @return false if processes get only this snapshot's variables instead of the JVM's environment with them set.
+     */
+    public boolean isInheriting() {
+        return inherit;
+    }
+
+    private Map<String, String> newMapOf(Map<String, String> source) {
+        Map<String, String> copy = newMap(caseSensitive);
+        copy.putAll(source);
+        return copy;
+    }
+
+    private static Map<String, String> newMap(boolean caseSensitive) {
+        return caseSensitive ? new LinkedHashMap<String, String>() : new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        EnvironmentSnapshot that = (EnvironmentSnapshot) o;
+        return inherit == that.inherit && variables.equals(that.variables);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * variables.hashCode() + (inherit ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return (inherit ? "inherited + " : "") + variables;
+    }
+
+    /**
+     * The JVM's environment never changes, so its keys are indexed case-insensitively only once.
+     */
+    private static final class InheritedKeys {
+
+        private static final Map<String, String> BY_NAME = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        static {
+            for (String each : System.getenv().keySet()) {
+                BY_NAME.put(each, each);
+            }
+        }
+
+        static String spelling(String key) {
+            String inherited = BY_NAME.get(key);
+            return inherited != null ? inherited : key;
+        }
+    }
+
+}
@@ -0,0 +1,440 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ExecutionListener} that keeps a history of every execution it is registered for in append-only binary
+ * segment files, so slow, failed or timed out commands can be found after the fact. Registering it costs the
+ * executions a copy of their result into a queue: a background thread encodes the queued entries and appends them to
+ * the current segment through a {@link FileChannel} in batches. When the queue is full, entries are dropped and
+ * counted rather than making executions wait.
+ * <p>
+ * Each instance writes new segments, named after a sequence number, next to the ones of earlier instances, and starts
+ * the next segment once the current one reaches the segment size; the oldest segments beyond the segment count are
+ * deleted. Queries read every segment back through a read-only memory mapping, and look at the fixed-size fields of
+ * a record before decoding its strings, so only the entries they return are decoded. A record cut short by a crash
+ * ends its segment.
+ */
+public class ExecutionJournal implements ExecutionListener, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionJournal.class);
+    public static final long DEFAULT_SEGMENT_BYTES = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 32;
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int BATCH_SIZE = 256;
+    private static final int BUFFER_SIZE = 65536;
+    private static final String SEGMENT_PREFIX = "executions-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int MAGIC = 0x50524A31; // "PRJ1"
+    private static final int HEADER_SIZE = 4;
+    // a record's fixed-size fields, which come before its strings; offsets are from the end of the length prefix
+    private static final int FLAGS = 0;
+    private static final int START_TIME = 1;
+    private static final int SPAWN = 9;
+    private static final int FIRST_BYTE = 17;
+    private static final int RUN = 25;
+    private static final int TOTAL = 33;
+    private static final int EXIT_CODE = 41;
+    private static final int STDOUT_BYTES = 45;
+    private static final int STDERR_BYTES = 53;
+    private static final int COMMAND = 61;
+    private static final byte TIMED_OUT = 1;
+    private static final byte FAILED = 2;
+    // tells the writer to stop, once everything queued before it was written
+    private static final JournalEntry CLOSE = new JournalEntry("", null, 0, 0, -1, 0, 0, 0, 0, 0, false, false);
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final BlockingQueue<JournalEntry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder dropped = new LongAdder();
+    private final Object progress = new Object();
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+    private final Thread writer;
+    // guarded by progress
+    private long enqueued;
+    private long processed;
+    // used by the writer thread only
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private FileChannel segment;
+    private long segmentSize;
+    private long nextSequence;
+
+    public ExecutionJournal(Path dir) {
+        this(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * @param segmentBytes size after which the next segment is started; a single record may exceed it.
+     * @param maxSegments  how many segments to keep, or 0 to keep them all.
+     */
+    public ExecutionJournal(Path dir, long segmentBytes, int maxSegments) {
+        if (segmentBytes <= HEADER_SIZE || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between " + (HEADER_SIZE + 1) + " and " + Integer.MAX_VALUE + " bytes, got " + segmentBytes);
+        }
+        if (maxSegments < 0) {
+            throw new IllegalArgumentException("Segment count can't be negative, got " + maxSegments);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        try {
+            Files.createDirectories(dir);
+            List<Path> existing = segments();
+            nextSequence = existing.isEmpty() ? 1 : sequenceOf(existing.get(existing.size() - 1)) + 1;
+        } catch (IOException e) {
+            throw new ShellCliException("It wasn't possible to open the execution journal in \"" + dir + "\".", e);
+        }
+        writer = new Thread(this::write, "process-runner-journal-" + dir.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    /**
+     * @return how many entries were lost because the queue was full or they couldn't be written.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void finished(ExecutionResult result) {
+        enqueue(JournalEntry.of(result));
+    }
+
+    @Override
+    public void failed(CliCommand cmd, Throwable error) {
+        enqueue(JournalEntry.failure(cmd, System.currentTimeMillis()));
+    }
+
+    private void enqueue(JournalEntry entry) {
+        if (isClosed.get()) {
+            return;
+        }
+        synchronized (progress) {
+            if (!queue.offer(entry)) {
+                dropped.increment();
+                return;
+            }
+            enqueued++;
+        }
+    }
+
+    /**
+     * Waits until every entry recorded so far was written, so the queries see it.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (progress) {
+            long target = enqueued;
+            while (processed < target && writer.isAlive()) {
+                progress.wait(100);
+            }
+        }
+    }
+
+    private void write() {
+        List<JournalEntry> batch = new ArrayList<>(BATCH_SIZE);
+        boolean closing = false;
+        while (!closing) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            int written = 0;
+            for (JournalEntry each : batch) {
+                if (each == CLOSE) {
+                    closing = true;
+                    break;
+                }
+                written++;
+            }
+            try {
+                append(batch.subList(0, written));
+            } catch (IOException e) {
+                LOGGER.warn("It wasn't possible to write " + written + " entries into the execution journal in \"" + dir + "\".", e);
+                dropped.add(written);
+                closeSegment();
+            }
+            synchronized (progress) {
+                processed += written;
+                progress.notifyAll();
+            }
+            batch.clear();
+        }
+        closeSegment();
+    }
+
+    private void append(List<JournalEntry> entries) throws IOException {
+        for (JournalEntry each : entries) {
+            byte[] command = each.getCommand().getBytes(StandardCharsets.UTF_8);
+            byte[] directory = each.getDirectory() != null ? each.getDirectory().getBytes(StandardCharsets.UTF_8) : null;
+            int length = COMMAND + 4 + command.length + 4 + (directory != null ? directory.length : 0);
+            int recordSize = 4 + length;
+            if (segment == null || (segmentSize + buffer.position() + recordSize > segmentBytes && segmentSize + buffer.position() > HEADER_SIZE)) {
+                nextSegment();
+            }
+            if (buffer.remaining() < recordSize) {
+                drain();
+                if (buffer.capacity() < recordSize) {
+                    buffer = ByteBuffer.allocate(recordSize);
+                }
+            }
+            buffer.putInt(length);
+            buffer.put((byte) ((each.isTimedOut() ? TIMED_OUT : 0) | (each.isFailed() ? FAILED : 0)));
+            buffer.putLong(each.getStartTime());
+            buffer.putLong(each.spawnNanos());
+            buffer.putLong(each.firstByteNanos());
+            buffer.putLong(each.runNanos());
+            buffer.putLong(each.totalNanos());
+            buffer.putInt(each.getExitCode());
+            buffer.putLong(each.getStandardOutputBytes());
+            buffer.putLong(each.getErrorOutputBytes());
+            buffer.putInt(command.length);
+            buffer.put(command);
+            if (directory != null) {
+                buffer.putInt(directory.length);
+                buffer.put(directory);
+            } else {
+                buffer.putInt(-1);
+            }
+        }
+        drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segmentSize += segment.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void nextSegment() throws IOException {
+        if (segment != null) {
+            drain();
+            closeSegment();
+        }
+        Path file = dir.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+        segment = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        buffer.putInt(MAGIC);
+        segmentSize = 0;
+        deleteOldSegments();
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            LOGGER.debug("It wasn't possible to close a segment of the execution journal in \"" + dir + "\".", e);
+        }
+        segment = null;
+        buffer.clear();
+    }
+
+    private void deleteOldSegments() throws IOException {
+        if (maxSegments == 0) {
+            return;
+        }
+        List<Path> existing = segments();
+        for (int i = 0; i < existing.size() - maxSegments; i++) {
+            CapturedOutput.delete(existing.get(i));
+        }
+    }
+
+    /**
+     * Writes what is still queued and stops the writer thread. Entries of executions finishing afterwards are
+     * ignored.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (!isClosed.compareAndSet(false, true)) {
+            return;
+        }
+        queue.put(CLOSE);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Visits every recorded entry, oldest segment first. Entries of a segment are in the order executions
+     * finished.
+     */
+    public void forEach(Consumer<JournalEntry> consumer) {
+        scan((record, offset) -> consumer.accept(decode(record, offset)));
+    }
+
+    /**
+     * @return the {@code n} entries with the longest total duration, longest first.
+     */
+    public List<JournalEntry> slowest(int n) {
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        Comparator<JournalEntry> byDuration = Comparator.comparingLong(JournalEntry::totalNanos);
+        PriorityQueue<JournalEntry> slowest = new PriorityQueue<>(n, byDuration);
+        scan((record, offset) -> {
+            if (slowest.size() < n || record.getLong(offset + TOTAL) > slowest.peek().totalNanos()) {
+                slowest.add(decode(record, offset));
+                if (slowest.size() > n) {
+                    slowest.poll();
+                }
+            }
+        });
+        List<JournalEntry> ret = new ArrayList<>(slowest);
+        ret.sort(byDuration.reversed());
+        return ret;
+    }
+
+    /**
+     * @return how many times each command didn't succeed (exited with other than 0, timed out or failed), from the
+     * most to the least failing.
+     */
+    public Map<String, Long> failuresByCommand() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        scan((record, offset) -> {
+            if (record.get(offset + FLAGS) != 0 || record.getInt(offset + EXIT_CODE) != 0) {
+                counts.merge(string(record, offset + COMMAND), 1L, Long::sum);
+            }
+        });
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(counts.entrySet());
+        sorted.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> ret = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> each : sorted) {
+            ret.put(each.getKey(), each.getValue());
+        }
+        return ret;
+    }
+
+    /**
+     * @return the entries of executions started from {@code fromMillis}, inclusive, to {@code toMillis}, exclusive,
+     * in milliseconds since the epoch.
+     */
+    public List<JournalEntry> between(long fromMillis, long toMillis) {
+        List<JournalEntry> ret = new ArrayList<>();
+        scan((record, offset) -> {
+            long start = record.getLong(offset + START_TIME);
+            if (start >= fromMillis && start < toMillis) {
+                ret.add(decode(record, offset));
+            }
+        });
+        return ret;
+    }
+
+    private interface RecordVisitor {
+
+        /**
+         * @param offset where the record starts in {@code segment}, after its length.
+         */
+        void visit(ByteBuffer segment, int offset);
+    }
+
+    private void scan(RecordVisitor visitor) {
+        List<Path> files;
+        try {
+            files = segments();
+        } catch (IOException e) {
+            throw new ShellCliException("It wasn't possible to list the execution journal in \"" + dir + "\".", e);
+        }
+        for (Path each : files) {
+            ByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(each, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                // deleted by the retention in the meantime
+                LOGGER.debug("Skipping execution journal segment \"" + each + "\".", e);
+                continue;
+            }
+            if (mapped.limit() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+                LOGGER.debug("Skipping \"" + each + "\", which isn't an execution journal segment.");
+                continue;
+            }
+            int position = HEADER_SIZE;
+            while (position + 4 <= mapped.limit()) {
+                int length = mapped.getInt(position);
+                if (length < COMMAND + 8 || position + 4 + length > mapped.limit()) {
+                    // the end of a segment whose last record is still being written, or was cut short
+                    break;
+                }
+                visitor.visit(mapped, position + 4);
+                position += 4 + length;
+            }
+        }
+    }
+
+    private static JournalEntry decode(ByteBuffer record, int offset) {
+        byte flags = record.get(offset + FLAGS);
+        String command = string(record, offset + COMMAND);
+        int directoryOffset = offset + COMMAND + 4 + record.getInt(offset + COMMAND);
+        String directory = string(record, directoryOffset);
+        return new JournalEntry(command, directory, record.getLong(offset + START_TIME), record.getLong(offset + SPAWN),
+                record.getLong(offset + FIRST_BYTE), record.getLong(offset + RUN), record.getLong(offset + TOTAL),
+                record.getInt(offset + EXIT_CODE), record.getLong(offset + STDOUT_BYTES), record.getLong(offset + STDERR_BYTES),
+                (flags & TIMED_OUT) != 0, (flags & FAILED) != 0);
+    }
+
+    // a length-prefixed UTF-8 string, null for a length of -1
+    private static String string(ByteBuffer record, int offset) {
+        int length = record.getInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = record.duplicate();
+        slice.position(offset + 4);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> ret = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path each : stream) {
+                ret.add(each);
+            }
+        }
+        // zero padded, so names sort by sequence
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
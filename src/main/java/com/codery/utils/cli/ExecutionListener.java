@@ -0,0 +1,29 @@
+package com.codery.utils.cli;
+
+/**
+ * Receives the lifecycle events of every execution of a {@link ShellCli}, see
+ * {@link ShellCli#addExecutionListener(ExecutionListener)}. Events are delivered on whatever thread drives the
+ * execution at that point (the caller, a pump or the process reaper), so listeners must be thread safe and quick.
+ * Exceptions thrown by a listener are logged and otherwise ignored.
+ */
+public interface ExecutionListener {
+
+    /**
+     * Called right before the process is started.
+     */
+    default void started(CliCommand cmd) {
+    }
+
+    /**
+     * Called once the process exited and its output was drained, or once its timeout expired. The result carries
+     * the timing of each phase, the output byte counts, the exit code and whether the timeout fired.
+     */
+    void finished(ExecutionResult result);
+
+    /**
+     * Called when the execution couldn't be started or its output couldn't be pumped.
+     */
+    default void failed(CliCommand cmd, Throwable error) {
+    }
+
+}
@@ -0,0 +1,300 @@
+package com.codery.utils.cli;
+
+import java.io.File;
+import java.time.Duration;
+
+/**
+ * Outcome of a finished {@link FutureExecution}: exit code, whether the timeout fired, how long each phase took
+ * and, when {@link FutureExecution#captureOutput()} was used, the captured output.
+ */
+public final class ExecutionResult {
+
+    public static final int TIMEOUT_EXIT_CODE = -1;
+
+    private final CliCommand command;
+    private final File directory;
+    private final int exitCode;
+    private final boolean timedOut;
+    private final long startTime;
+    private final Duration spawnDuration;
+    private final Duration firstByteDuration;
+    private final Duration runDuration;
+    private final Duration totalDuration;
+    private final String standardOutput;
+    private final String errorOutput;
+    private final long droppedStandardOutputBytes;
+    private final long droppedErrorOutputBytes;
+    private final long standardOutputBytes;
+    private final long errorOutputBytes;
+    private final Duration cpuTime;
+    private final long peakResidentBytes;
+    private final ResourceLimit limitExceeded;
+
+    private ExecutionResult(Builder builder) {
+        command = builder.command;
+        directory = builder.directory;
+        exitCode = builder.exitCode;
+        timedOut = builder.timedOut;
+        startTime = builder.startTime;
+        spawnDuration = Duration.ofNanos(builder.spawnedNanos - builder.startNanos);
+        firstByteDuration = builder.firstByteNanos == 0 ? null : Duration.ofNanos(builder.firstByteNanos - builder.startNanos);
+        runDuration = Duration.ofNanos(builder.exitNanos - builder.startNanos);
+        totalDuration = Duration.ofNanos(builder.endNanos - builder.startNanos);
+        standardOutput = builder.standardOutput;
+        errorOutput = builder.errorOutput;
+        droppedStandardOutputBytes = builder.droppedStandardOutputBytes;
+        droppedErrorOutputBytes = builder.droppedErrorOutputBytes;
+        standardOutputBytes = builder.standardOutputBytes;
+        errorOutputBytes = builder.errorOutputBytes;
+        cpuTime = builder.cpuTime;
+        peakResidentBytes = builder.peakResidentBytes;
+        limitExceeded = builder.limitExceeded;
+    }
+
+    public CliCommand getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the directory the command ran in, or null if it ran in the JVM's working directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the process exit code, or {@link #TIMEOUT_EXIT_CODE} when the process didn't finish in time.
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return true when the process finished in time, within its resource limits, with exit code 0.
+     */
+    public boolean isSuccess() {
+        return !timedOut && limitExceeded == null && exitCode == 0;
+    }
+
+    /**
+     * @return when the execution started, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return how long it took to start the process.
+     */
+    public Duration getSpawnDuration() {
+        return spawnDuration;
+    }
+
+    /**
+     * @return how long it took from the start of the execution until the first byte of output (standard or error)
+     * arrived, or null if the process printed nothing.
+     */
+    public Duration getFirstByteDuration() {
+        return firstByteDuration;
+    }
+
+    /**
+     * @return how long it took from the start of the execution until the process exited (or timed out).
+     */
+    public Duration getRunDuration() {
+        return runDuration;
+    }
+
+    /**
+     * @return how long the whole execution took, including draining the process output.
+     */
+    public Duration getTotalDuration() {
+        return totalDuration;
+    }
+
+    /**
+     * @return how long the output pumps kept running after the process exited.
+     */
+    public Duration getDrainDuration() {
+        return totalDuration.minus(runDuration);
+    }
+
+    /**
+     * @return how many bytes the process wrote to its standard output.
+     */
+    public long getStandardOutputBytes() {
+        return standardOutputBytes;
+    }
+
+    /**
+     * @return how many bytes the process wrote to its error output.
+     */
+    public long getErrorOutputBytes() {
+        return errorOutputBytes;
+    }
+
+    /**
+     * @return the CPU time the process tree used, as sampled while it ran, or null if resources weren't monitored.
+     * See {@link AbstractShellCli#monitorResources(long, java.util.concurrent.TimeUnit)}.
+     */
+    public Duration getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * @return the most memory the process tree had resident at once, in bytes, or -1 if it isn't known.
+     */
+    public long getPeakResidentBytes() {
+        return peakResidentBytes;
+    }
+
+    /**
+     * @return the limit the process tree was killed for exceeding, or null. The exit code is then the one of the
+     * killed process.
+     */
+    public ResourceLimit getLimitExceeded() {
+        return limitExceeded;
+    }
+
+    /**
+     * @return the captured standard output, or null if the output wasn't captured.
+     */
+    public String getStandardOutput() {
+        return standardOutput;
+    }
+
+    /**
+     * @return the captured error output, or null if the output wasn't captured.
+     */
+    public String getErrorOutput() {
+        return errorOutput;
+    }
+
+    /**
+     * @return how many bytes of standard output didn't fit the capture budget given to
+     * {@link FutureExecution#captureOutput(int, int)}.
+     */
+    public long getDroppedStandardOutputBytes() {
+        return droppedStandardOutputBytes;
+    }
+
+    /**
+     * @return how many bytes of error output didn't fit the capture budget given to
+     * {@link FutureExecution#captureOutput(int, int)}.
+     */
+    public long getDroppedErrorOutputBytes() {
+        return droppedErrorOutputBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionResult{command=" + command + ", exitCode=" + exitCode + ", timedOut=" + timedOut + ", totalDuration=" + totalDuration
+                + ", standardOutputBytes=" + standardOutputBytes + ", errorOutputBytes=" + errorOutputBytes + "}";
+    }
+
+    static final class Builder {
+
+        private final CliCommand command;
+        private final long startTime = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private File directory;
+        private long spawnedNanos = startNanos;
+        private long exitNanos = startNanos;
+        private long endNanos = startNanos;
+        private int exitCode = TIMEOUT_EXIT_CODE;
+        private boolean timedOut;
+        private String standardOutput;
+        private String errorOutput;
+        private long droppedStandardOutputBytes;
+        private long droppedErrorOutputBytes;
+        private long firstByteNanos;
+        private long standardOutputBytes;
+        private long errorOutputBytes;
+        private OutputPump standardOutputPump;
+        private OutputPump errorOutputPump;
+        private Duration cpuTime;
+        private long peakResidentBytes = -1;
+        // set by the resource sampler
+        private volatile ResourceLimit limitExceeded;
+
+        Builder(CliCommand command) {
+            this.command = command;
+        }
+
+        Builder directory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        Builder spawned() {
+            spawnedNanos = System.nanoTime();
+            return this;
+        }
+
+        Builder exited(int exitCode) {
+            this.exitCode = exitCode;
+            exitNanos = System.nanoTime();
+            return this;
+        }
+
+        Builder timedOut() {
+            timedOut = true;
+            exitCode = TIMEOUT_EXIT_CODE;
+            exitNanos = System.nanoTime();
+            return this;
+        }
+
+        Builder output(BoundedOutputAdapter standardOutput, BoundedOutputAdapter errorOutput) {
+            this.standardOutput = standardOutput.getWrittenContent();
+            this.errorOutput = errorOutput.getWrittenContent();
+            droppedStandardOutputBytes = standardOutput.getDroppedBytes();
+            droppedErrorOutputBytes = errorOutput.getDroppedBytes();
+            return this;
+        }
+
+        Builder pumps(OutputPump standardOutputPump, OutputPump errorOutputPump) {
+            this.standardOutputPump = standardOutputPump;
+            this.errorOutputPump = errorOutputPump;
+            return this;
+        }
+
+        Builder resources(ResourceMonitor monitor) {
+            cpuTime = monitor.getCpuTime();
+            peakResidentBytes = monitor.getPeakResidentBytes();
+            return this;
+        }
+
+        Builder limitExceeded(ResourceLimit limit) {
+            limitExceeded = limit;
+            return this;
+        }
+
+        /**
+         * For output nobody pumped, like standard output redirected to a file without listeners.
+         */
+        Builder standardOutputBytes(long bytes) {
+            standardOutputBytes = bytes;
+            return this;
+        }
+
+        ExecutionResult build() {
+            endNanos = System.nanoTime();
+            if (standardOutputPump != null) {
+                standardOutputBytes = standardOutputPump.getBytes();
+                firstByteNanos = standardOutputPump.getFirstByteNanos();
+            }
+            if (errorOutputPump != null) {
+                errorOutputBytes = errorOutputPump.getBytes();
+                long errFirstByte = errorOutputPump.getFirstByteNanos();
+                if (errFirstByte != 0 && (firstByteNanos == 0 || errFirstByte - firstByteNanos < 0)) {
+                    firstByteNanos = errFirstByte;
+                }
+            }
+            return new ExecutionResult(this);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.codery.utils.cli;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Queues the executions of the {@link ShellCli}s it is {@link ShellCli#useScheduler(ExecutionScheduler) used by},
+ * so that at most a given number of them run at once per named resource, like "at most 2 compilers and 16 git
+ * calls". Executions name their resource and priority with {@link FutureExecution#schedule(String, int)}; the others
+ * use {@link #DEFAULT_RESOURCE} with {@link #NORMAL_PRIORITY}.
+ * <p>
+ * When a slot frees up, the highest priority waits the least. Within a priority, callers (see
+ * {@link FutureExecution#onBehalfOf(String)}) take turns, so one caller queueing hundreds of executions doesn't
+ * starve the others, and each caller's executions start in the order they were queued. An execution that can't start
+ * before its {@link FutureExecution#startBefore(long, TimeUnit) deadline} fails as soon as the deadline expires,
+ * without taking a slot.
+ * <p>
+ * A scheduler holds no thread: queued executions are started from the completion of the ones before them.
+ */
+public class ExecutionScheduler {
+
+    public static final String DEFAULT_RESOURCE = "default";
+    public static final int NORMAL_PRIORITY = 0;
+
+    private final int defaultLimit;
+    private final Map<String, ResourceQueue> resources = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultLimit how many executions may run at once for resources without their own {@link #limit}.
+     */
+    public ExecutionScheduler(int defaultLimit) {
+        checkLimit(defaultLimit);
+        this.defaultLimit = defaultLimit;
+    }
+
+    /**
+     * Sets how many executions of {@code resource} may run at once. Lowering a limit doesn't stop the executions
+     * already running; it only delays the next ones.
+     */
+    public ExecutionScheduler limit(String resource, int maxConcurrent) {
+        checkLimit(maxConcurrent);
+        ResourceQueue queue = queue(resource);
+        queue.setLimit(maxConcurrent);
+        // a raised limit frees slots right away
+        queue.dispatch();
+        return this;
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Concurrency limit must be positive, got " + limit);
+        }
+    }
+
+    /**
+     * @param deadlineNanos the {@link System#nanoTime()} the execution must start before, or 0 for none.
+     * @param start starts the execution once it got a slot.
+     */
+    CompletableFuture<ExecutionResult> submit(String resource, int priority, String caller, long deadlineNanos, CliCommand cmd, Supplier<CompletableFuture<ExecutionResult>> start) {
+        Ticket ticket = new Ticket(priority, caller, deadlineNanos, cmd, start);
+        ResourceQueue queue = queue(resource);
+        queue.enqueue(ticket);
+        if (deadlineNanos != 0) {
+            long remaining = deadlineNanos - System.nanoTime();
+            CompletableFuture.delayedExecutor(Math.max(remaining, 0), TimeUnit.NANOSECONDS).execute(() -> queue.expire(ticket));
+        }
+        queue.dispatch();
+        return ticket.result;
+    }
+
+    private ResourceQueue queue(String resource) {
+        return resources.computeIfAbsent(resource, name -> new ResourceQueue(name, defaultLimit));
+    }
+
+    /**
+     * @return the resources used or limited so far.
+     */
+    public Set<String> getResources() {
+        return Collections.unmodifiableSet(resources.keySet());
+    }
+
+    /**
+     * @return how many executions of {@code resource} are waiting for a slot.
+     */
+    public int getQueueDepth(String resource) {
+        ResourceQueue queue = resources.get(resource);
+        return queue != null ? queue.getQueued() : 0;
+    }
+
+    /**
+     * @return how many executions of {@code resource} are running.
+     */
+    public int getRunning(String resource) {
+        ResourceQueue queue = resources.get(resource);
+        return queue != null ? queue.getRunning() : 0;
+    }
+
+    public int getLimit(String resource) {
+        ResourceQueue queue = resources.get(resource);
+        return queue != null ? queue.getLimit() : defaultLimit;
+    }
+
+    /**
+     * @return how long executions of {@code resource} waited for a slot, counting only those that got one.
+     */
+    public LatencySummary getWaitLatency(String resource) {
+        ResourceQueue queue = resources.get(resource);
+        return queue != null ? queue.waitLatency.summary() : new LatencyHistogram().summary();
+    }
+
+    /**
+     * @return how many executions of {@code resource} failed because their deadline expired in the queue.
+     */
+    public long getExpired(String resource) {
+        ResourceQueue queue = resources.get(resource);
+        return queue != null ? queue.expired.sum() : 0;
+    }
+
+    private static final class Ticket {
+
+        private final int priority;
+        private final String caller;
+        private final long deadlineNanos;
+        private final CliCommand cmd;
+        private final Supplier<CompletableFuture<ExecutionResult>> start;
+        private final long queuedNanos = System.nanoTime();
+        private final CompletableFuture<ExecutionResult> result = new CompletableFuture<>();
+        // guarded by the resource queue
+        private boolean dequeued;
+
+        Ticket(int priority, String caller, long deadlineNanos, CliCommand cmd, Supplier<CompletableFuture<ExecutionResult>> start) {
+            this.priority = priority;
+            this.caller = caller;
+            this.deadlineNanos = deadlineNanos;
+            this.cmd = cmd;
+            this.start = start;
+        }
+
+        boolean isExpired(long now) {
+            return deadlineNanos != 0 && now - deadlineNanos >= 0;
+        }
+    }
+
+    private static final class ResourceQueue {
+
+        private final String name;
+        // highest priority first, then the callers of each priority in turn
+        private final TreeMap<Integer, LinkedHashMap<String, Deque<Ticket>>> waiting = new TreeMap<>(Collections.reverseOrder());
+        private final LatencyHistogram waitLatency = new LatencyHistogram();
+        private final LongAdder expired = new LongAdder();
+        private int limit;
+        private int running;
+        private int queued;
+
+        ResourceQueue(String name, int limit) {
+            this.name = name;
+            this.limit = limit;
+        }
+
+        synchronized void setLimit(int limit) {
+            this.limit = limit;
+        }
+
+        synchronized int getLimit() {
+            return limit;
+        }
+
+        synchronized int getRunning() {
+            return running;
+        }
+
+        synchronized int getQueued() {
+            return queued;
+        }
+
+        synchronized void enqueue(Ticket ticket) {
+            waiting.computeIfAbsent(ticket.priority, priority -> new LinkedHashMap<>())
+                    .computeIfAbsent(ticket.caller, caller -> new ArrayDeque<>())
+                    .add(ticket);
+            queued++;
+        }
+
+        void expire(Ticket ticket) {
+            synchronized (this) {
+                if (ticket.dequeued) {
+                    return;
+                }
+                remove(ticket);
+            }
+            fail(ticket);
+        }
+
+        private void fail(Ticket ticket) {
+            expired.increment();
+            ticket.result.completeExceptionally(new ShellCliException("Command \"" + ticket.cmd + "\" couldn't start before its deadline: "
+                    + "it waited " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ticket.queuedNanos) + " ms for a \"" + name + "\" slot."));
+        }
+
+        /**
+         * Starts queued executions while there are free slots.
+         */
+        void dispatch() {
+            while (true) {
+                Ticket next;
+                synchronized (this) {
+                    if (running >= limit) {
+                        return;
+                    }
+                    next = poll();
+                    if (next == null) {
+                        return;
+                    }
+                    running++;
+                }
+                start(next);
+            }
+        }
+
+        private void start(Ticket ticket) {
+            waitLatency.record(System.nanoTime() - ticket.queuedNanos);
+            CompletableFuture<ExecutionResult> execution;
+            try {
+                execution = ticket.start.get();
+            } catch (RuntimeException e) {
+                execution = new CompletableFuture<>();
+                execution.completeExceptionally(e);
+            }
+            if (execution.isDone()) {
+                // dispatch() is already looping, so there's no need to recurse into it
+                finished(ticket, execution, false);
+            } else {
+                CompletableFuture<ExecutionResult> running = execution;
+                running.whenComplete((result, error) -> finished(ticket, running, true));
+            }
+        }
+
+        private void finished(Ticket ticket, CompletableFuture<ExecutionResult> execution, boolean dispatchNext) {
+            synchronized (this) {
+                running--;
+            }
+            if (dispatchNext) {
+                dispatch();
+            }
+            execution.whenComplete((result, error) -> {
+                if (error != null) {
+                    ticket.result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                } else {
+                    ticket.result.complete(result);
+                }
+            });
+        }
+
+        // skips, and fails, the tickets whose deadline expired before their timer went off
+        private Ticket poll() {
+            long now = System.nanoTime();
+            Iterator<LinkedHashMap<String, Deque<Ticket>>> levels = waiting.values().iterator();
+            while (levels.hasNext()) {
+                LinkedHashMap<String, Deque<Ticket>> callers = levels.next();
+                while (!callers.isEmpty()) {
+                    Map.Entry<String, Deque<Ticket>> first = callers.entrySet().iterator().next();
+                    Deque<Ticket> tickets = first.getValue();
+                    Ticket ticket = tickets.poll();
+                    // the caller goes to the end of the line, to let the others have a turn
+                    callers.remove(first.getKey());
+                    if (!tickets.isEmpty()) {
+                        callers.put(first.getKey(), tickets);
+                    }
+                    queued--;
+                    ticket.dequeued = true;
+                    if (!ticket.isExpired(now)) {
+                        if (callers.isEmpty()) {
+                            levels.remove();
+                        }
+                        return ticket;
+                    }
+                    // can't complete futures while holding the lock, their callbacks may come back to this queue
+                    CompletableFuture.runAsync(() -> fail(ticket));
+                }
+                levels.remove();
+            }
+            return null;
+        }
+
+        private void remove(Ticket ticket) {
+            LinkedHashMap<String, Deque<Ticket>> callers = waiting.get(ticket.priority);
+            Deque<Ticket> tickets = callers.get(ticket.caller);
+            tickets.remove(ticket);
+            if (tickets.isEmpty()) {
+                callers.remove(ticket.caller);
+                if (callers.isEmpty()) {
+                    waiting.remove(ticket.priority);
+                }
+            }
+            queued--;
+            ticket.dequeued = true;
+        }
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.codery.utils.cli;
+
+import java.io.OutputStream;
+
+/**
+ * An output target that keeps decoding state, like a partial line or record. Such a target added to a
+ * {@link ShellCli} is shared by every execution, so each execution writes into its own {@link #forExecution()} copy
+ * instead, and gets whole lines or records even while executions run concurrently.
+ */
+interface ExecutionScopedOutput {
+
+    /**
+     * @return a target delivering to the same listener, with its own decoding state.
+     */
+    OutputStream forExecution();
+
+}
@@ -0,0 +1,152 @@
+package com.codery.utils.cli;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * {@link ExecutionListener} that aggregates counters and latency histograms of every execution it is registered
+ * for. Read it through its getters or over JMX after {@link #registerMBean(String)}. Recording an execution costs a
+ * handful of atomic increments, so it can stay registered in production.
+ */
+public class ExecutionStatistics implements ExecutionListener, ExecutionStatisticsMXBean {
+
+    private static final String OBJECT_NAME_PREFIX = "com.codery.utils.cli:type=ExecutionStatistics,name=";
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder nonZeroExits = new LongAdder();
+    private final LongAdder standardOutputBytes = new LongAdder();
+    private final LongAdder errorOutputBytes = new LongAdder();
+    private final LatencyHistogram spawnLatency = new LatencyHistogram();
+    private final LatencyHistogram firstByteLatency = new LatencyHistogram();
+    private final LatencyHistogram runLatency = new LatencyHistogram();
+    private final LatencyHistogram drainLatency = new LatencyHistogram();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+
+    @Override
+    public void finished(ExecutionResult result) {
+        executions.increment();
+        if (result.isTimedOut()) {
+            timeouts.increment();
+        } else if (result.getExitCode() != 0) {
+            nonZeroExits.increment();
+        }
+        standardOutputBytes.add(result.getStandardOutputBytes());
+        errorOutputBytes.add(result.getErrorOutputBytes());
+        spawnLatency.record(result.getSpawnDuration());
+        if (result.getFirstByteDuration() != null) {
+            firstByteLatency.record(result.getFirstByteDuration());
+        }
+        runLatency.record(result.getRunDuration());
+        drainLatency.record(result.getDrainDuration());
+        totalLatency.record(result.getTotalDuration());
+    }
+
+    @Override
+    public void failed(CliCommand cmd, Throwable error) {
+        failures.increment();
+    }
+
+    /**
+     * Registers this instance in the platform MBean server as
+     * {@code com.codery.utils.cli:type=ExecutionStatistics,name=<name>}.
+     */
+    public ExecutionStatistics registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name)));
+        } catch (JMException e) {
+            throw new ShellCliException("It wasn't possible to register the execution statistics \"" + name + "\" in JMX.", e);
+        }
+        return this;
+    }
+
+    public void unregisterMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name)));
+        } catch (JMException e) {
+            throw new ShellCliException("It wasn't possible to unregister the execution statistics \"" + name + "\" from JMX.", e);
+        }
+    }
+
+    @Override
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getNonZeroExits() {
+        return nonZeroExits.sum();
+    }
+
+    @Override
+    public long getStandardOutputBytes() {
+        return standardOutputBytes.sum();
+    }
+
+    @Override
+    public long getErrorOutputBytes() {
+        return errorOutputBytes.sum();
+    }
+
+    @Override
+    public LatencySummary getSpawnLatency() {
+        return spawnLatency.summary();
+    }
+
+    @Override
+    public LatencySummary getFirstByteLatency() {
+        return firstByteLatency.summary();
+    }
+
+    @Override
+    public LatencySummary getRunLatency() {
+        return runLatency.summary();
+    }
+
+    @Override
+    public LatencySummary getDrainLatency() {
+        return drainLatency.summary();
+    }
+
+    @Override
+    public LatencySummary getTotalLatency() {
+        return totalLatency.summary();
+    }
+
+    @Override
+    public void reset() {
+        executions.reset();
+        failures.reset();
+        timeouts.reset();
+        nonZeroExits.reset();
+        standardOutputBytes.reset();
+        errorOutputBytes.reset();
+        spawnLatency.reset();
+        firstByteLatency.reset();
+        runLatency.reset();
+        drainLatency.reset();
+        totalLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "executions=" + getExecutions() + ", failures=" + getFailures() + ", timeouts=" + getTimeouts() + ", nonZeroExits=" + getNonZeroExits()
+                + ", spawn[" + getSpawnLatency() + "], run[" + getRunLatency() + "], total[" + getTotalLatency() + "]";
+    }
+}
@@ -0,0 +1,32 @@
+package com.codery.utils.cli;
+
+/**
+ * JMX view of {@link ExecutionStatistics}.
+ */
+public interface ExecutionStatisticsMXBean {
+
+    long getExecutions();
+
+    long getFailures();
+
+    long getTimeouts();
+
+    long getNonZeroExits();
+
+    long getStandardOutputBytes();
+
+    long getErrorOutputBytes();
+
+    LatencySummary getSpawnLatency();
+
+    LatencySummary getFirstByteLatency();
+
+    LatencySummary getRunLatency();
+
+    LatencySummary getDrainLatency();
+
+    LatencySummary getTotalLatency();
+
+    void reset();
+
+}
@@ -0,0 +1,120 @@
+package com.codery.utils.cli;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a file the process writes its output to (through {@link ProcessBuilder.Redirect}) and copies what gets
+ * appended to it into the output targets, until the process exits and the file is read to its end. Bytes are moved
+ * with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so a single {@link FileOutputStream}
+ * target is filled by the kernel without passing through the JVM heap.
+ */
+class FileTailPump extends OutputPump {
+
+    private static final long POLL_INTERVAL_MILLIS = 10;
+
+    private final Path file;
+    private final long startPosition;
+    private final List<OutputStream> outStreams;
+    private final Process process;
+    private final int bufferSize;
+
+    FileTailPump(Path file, long startPosition, List<OutputStream> outStreams, Process process, int bufferSize) {
+        this.file = file;
+        this.startPosition = startPosition;
+        this.outStreams = outStreams;
+        this.process = process;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void run() {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            follow(in, targetChannel());
+        } catch (IOException e) {
+            throw new ShellCliException("An error occurred trying to copy \"" + file + "\" into the output streams.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ShellCliException("Interrupted while following \"" + file + "\"", e);
+        } finally {
+            flushOutputStreams();
+        }
+    }
+
+    private void follow(FileChannel in, WritableByteChannel out) throws IOException, InterruptedException {
+        long position = startPosition;
+        while (true) {
+            // checked before reading the size, so whatever the process wrote before exiting is still copied
+            boolean exited = !process.isAlive();
+            long size = in.size();
+            if (size > position) {
+                long transferred = in.transferTo(position, size - position, out);
+                pumped(transferred);
+                position += transferred;
+            } else if (exited) {
+                return;
+            } else {
+                TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL_MILLIS);
+            }
+        }
+    }
+
+    private WritableByteChannel targetChannel() {
+        if (outStreams.size() == 1 && outStreams.get(0) instanceof FileOutputStream) {
+            return ((FileOutputStream) outStreams.get(0)).getChannel();
+        }
+        return new FanOutChannel(outStreams, bufferSize);
+    }
+
+    private void flushOutputStreams() {
+        for (OutputStream out : outStreams) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new ShellCliException("It wasn't possible to flush an outputstream.", e);
+            }
+        }
+    }
+
+    private static final class FanOutChannel implements WritableByteChannel {
+
+        private final List<OutputStream> outStreams;
+        private final byte[] buffer;
+
+        FanOutChannel(List<OutputStream> outStreams, int bufferSize) {
+            this.outStreams = outStreams;
+            this.buffer = new byte[bufferSize];
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int written = 0;
+            while (src.hasRemaining()) {
+                int len = Math.min(src.remaining(), buffer.length);
+                src.get(buffer, 0, len);
+                for (OutputStream out : outStreams) {
+                    out.write(buffer, 0, len);
+                }
+                written += len;
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,14 +1,50 @@
 package com.codery.utils.cli;
 
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by thomasadriano on 12/07/15.
  */
 public interface FutureExecution {
 
+    /**
+     * Runs the command and blocks until it finishes or its timeout expires.
+     *
+     * @return the exit code, or {@link ExecutionResult#TIMEOUT_EXIT_CODE} on timeout.
+     */
     int execute();
 
+    /**
+     * Starts the command and returns without waiting for it. The future completes once the process exited and
+     * its output was drained, or once the {@link ShellCli}'s timeout expires.
+     */
+    CompletableFuture<ExecutionResult> executeAsync();
+
+    /**
+     * Same as {@link #executeAsync()}, with a timeout for this execution only.
+     */
+    CompletableFuture<ExecutionResult> executeAsync(long timeout, TimeUnit unit);
+
+    /**
+     * Starts the command with its standard and error output published to reactive subscribers instead of the output
+     * targets, with the {@link ShellCli}'s timeout. Output capture doesn't apply, and the command always starts its
+     * own process, even with {@link ShellCli#useSessions(int) sessions}.
+     *
+     * @throws IllegalStateException if the output is redirected to a file.
+     */
+    StreamingExecution executeStreaming();
+
+    /**
+     * Same as {@link #executeStreaming()}, with a timeout for this execution only.
+     */
+    StreamingExecution executeStreaming(long timeout, TimeUnit unit);
+
     FutureExecution pipe(CliCommand cmd);
 
     FutureExecution background();
@@ -19,8 +55,83 @@ public interface FutureExecution {
 
     FutureExecution redirectOutputAppending(File out);
     
+    /**
+     * Writes the standard output of this execution into {@code out} instead of the {@link ShellCli}'s standard output
+     * targets, so executions running at the same time don't mix their output. {@code out} isn't closed.
+     */
+    FutureExecution stdout(OutputStream out);
+
+    /**
+     * Same as {@link #stdout(OutputStream)}, for the error output.
+     */
+    FutureExecution stderr(OutputStream out);
+
     FutureExecution supressOutput();
 
+    /**
+     * Keeps the standard and error output of this execution in its {@link ExecutionResult}, besides writing it to
+     * the configured output targets. For outputs too large for the heap, pass a {@link SpillingOutputAdapter} to
+     * {@link #stdout(OutputStream)} instead.
+     */
+    FutureExecution captureOutput();
+
+    /**
+     * Same as {@link #captureOutput()}, but keeps only the first {@code headBytes} and the last {@code tailBytes} of
+     * each output.
+     *
+     * @see BoundedOutputAdapter
+     */
+    FutureExecution captureOutput(int headBytes, int tailBytes);
+
+    /**
+     * Feeds the command's standard input with everything read from {@code in}, on the pump executor, and closes the
+     * standard input once {@code in} is exhausted. Writes wait for the command to consume its input, so large
+     * sources stream through without being buffered. {@code in} isn't closed, and can feed a single execution only.
+     * Executions with an input always start their own process, even with {@link ShellCli#useSessions(int) sessions}.
+     */
+    FutureExecution input(InputStream in);
+
+    /**
+     * Same as {@link #input(InputStream)}, reading the standard input from a file. Files of the default file system
+     * are handed to the process by the OS, without passing through the JVM.
+     */
+    FutureExecution input(Path file);
+
+    /**
+     * Same as {@link #input(InputStream)}, writing the bytes between the position and the limit of {@code bytes}.
+     * The buffer's position isn't changed, so the execution can be repeated.
+     */
+    FutureExecution input(ByteBuffer bytes);
+
+    /**
+     * Marks this execution as free of side effects, so its result may come from the {@link ShellCli}'s
+     * {@link ShellCli#useResultCache(int, long, TimeUnit) result cache}: an identical execution (same command line,
+     * environment, directory and output capture) that finished within the cache's time to live, or that is still
+     * running, answers it instead of a new process. The output targets only get the output of executions that
+     * actually ran, so capture the output to get it from cached results. Executions with an input or a redirected
+     * output are never cached.
+     */
+    FutureExecution cached();
+
+    /**
+     * Queues this execution for a slot of {@code resource} in the {@link ShellCli}'s
+     * {@link ShellCli#useScheduler(ExecutionScheduler) scheduler}, ahead of the executions with a lower
+     * {@code priority}. Without a scheduler, it starts right away as usual.
+     */
+    FutureExecution schedule(String resource, int priority);
+
+    /**
+     * Names who queued this execution, so the {@link ExecutionScheduler} can take turns between callers of the same
+     * priority instead of serving them in arrival order.
+     */
+    FutureExecution onBehalfOf(String caller);
+
+    /**
+     * Fails this execution with a {@link ShellCliException} if a {@link ExecutionScheduler} doesn't start it within
+     * {@code timeout}. The execution's own timeout starts counting once it started.
+     */
+    FutureExecution startBefore(long timeout, TimeUnit unit);
+
     CliCommand getCommand();
 
 }
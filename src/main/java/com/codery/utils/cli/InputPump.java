@@ -0,0 +1,95 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Feeds a process' standard input from an {@link InputStream} or a {@link ByteBuffer}, then closes it so the
+ * process sees the end of its input. Writes block while the pipe is full, so the source is read only as fast as the
+ * process consumes it. A process that exits without reading all of its input just ends the feed.
+ */
+class InputPump implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InputPump.class);
+
+    private final InputStream source;
+    private final ByteBuffer buffer;
+    private final OutputStream stdin;
+    private final int bufferSize;
+
+    InputPump(InputStream source, OutputStream stdin, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive, got " + bufferSize);
+        }
+        this.source = source;
+        this.buffer = null;
+        this.stdin = stdin;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param buffer the bytes from its position to its limit are written; the buffer itself isn't changed.
+     */
+    InputPump(ByteBuffer buffer, OutputStream stdin, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive, got " + bufferSize);
+        }
+        this.source = null;
+        this.buffer = buffer.duplicate();
+        this.stdin = stdin;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (source != null) {
+                writeStream();
+            } else {
+                writeBuffer();
+            }
+        } catch (IOException e) {
+            // mostly a broken pipe: the process exited or closed its input before reading everything
+            LOGGER.debug("Standard input feed stopped before the end of its source.", e);
+        } finally {
+            closeStdin();
+        }
+    }
+
+    private void writeStream() throws IOException {
+        byte[] chunk = new byte[bufferSize];
+        int read;
+        while ((read = source.read(chunk, 0, chunk.length)) != -1) {
+            stdin.write(chunk, 0, read);
+            // the process may be waiting for this chunk before producing the output that lets it read the next one
+            stdin.flush();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (buffer.hasArray()) {
+            stdin.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(bufferSize, buffer.remaining())];
+        while (buffer.hasRemaining()) {
+            int count = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, count);
+            stdin.write(chunk, 0, count);
+        }
+    }
+
+    private void closeStdin() {
+        try {
+            stdin.close();
+        } catch (IOException e) {
+            LOGGER.debug("It wasn't possible to close a process' standard input.", e);
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.codery.utils.cli;
+
+import java.io.File;
+import java.time.Duration;
+
+/**
+ * One execution recorded by an {@link ExecutionJournal}: the command line as text, where it ran, the timing of each
+ * phase, the exit code and the output byte counts. Executions that couldn't be started or pumped are recorded as
+ * {@link #isFailed() failed}, with the time of the failure and no timings.
+ */
+public final class JournalEntry {
+
+    private final String command;
+    private final String directory;
+    private final long startTime;
+    private final long spawnNanos;
+    private final long firstByteNanos;
+    private final long runNanos;
+    private final long totalNanos;
+    private final int exitCode;
+    private final long standardOutputBytes;
+    private final long errorOutputBytes;
+    private final boolean timedOut;
+    private final boolean failed;
+
+    JournalEntry(String command, String directory, long startTime, long spawnNanos, long firstByteNanos, long runNanos, long totalNanos,
+                 int exitCode, long standardOutputBytes, long errorOutputBytes, boolean timedOut, boolean failed) {
+        this.command = command;
+        this.directory = directory;
+        this.startTime = startTime;
+        this.spawnNanos = spawnNanos;
+        this.firstByteNanos = firstByteNanos;
+        this.runNanos = runNanos;
+        this.totalNanos = totalNanos;
+        this.exitCode = exitCode;
+        this.standardOutputBytes = standardOutputBytes;
+        this.errorOutputBytes = errorOutputBytes;
+        this.timedOut = timedOut;
+        this.failed = failed;
+    }
+
+    static JournalEntry of(ExecutionResult result) {
+        File dir = result.getDirectory();
+        Duration firstByte = result.getFirstByteDuration();
+        return new JournalEntry(result.getCommand().toString(), dir != null ? dir.getPath() : null, result.getStartTime(),
+                result.getSpawnDuration().toNanos(), firstByte != null ? firstByte.toNanos() : -1, result.getRunDuration().toNanos(),
+                result.getTotalDuration().toNanos(), result.getExitCode(), result.getStandardOutputBytes(), result.getErrorOutputBytes(),
+                result.isTimedOut(), false);
+    }
+
+    static JournalEntry failure(CliCommand cmd, long time) {
+        return new JournalEntry(cmd.toString(), null, time, 0, -1, 0, 0, ExecutionResult.TIMEOUT_EXIT_CODE, 0, 0, false, true);
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the directory the command ran in, or null for the JVM's working directory and for failed executions.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return when the execution started, or failed, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public Duration getSpawnDuration() {
+        return Duration.ofNanos(spawnNanos);
+    }
+
+    /**
+     * @return how long the first byte of output took, or null if the process printed nothing.
+     */
+    public Duration getFirstByteDuration() {
+        return firstByteNanos < 0 ? null : Duration.ofNanos(firstByteNanos);
+    }
+
+    public Duration getRunDuration() {
+        return Duration.ofNanos(runNanos);
+    }
+
+    public Duration getTotalDuration() {
+        return Duration.ofNanos(totalNanos);
+    }
+
+    /**
+     * @return the exit code, or {@link ExecutionResult#TIMEOUT_EXIT_CODE} for executions that timed out or failed.
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public long getStandardOutputBytes() {
+        return standardOutputBytes;
+    }
+
+    public long getErrorOutputBytes() {
+        return errorOutputBytes;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return true when the execution couldn't be started or its output couldn't be pumped.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return true when the process finished in time with exit code 0.
+     */
+    public boolean isSuccess() {
+        return !failed && !timedOut && exitCode == 0;
+    }
+
+    long spawnNanos() {
+        return spawnNanos;
+    }
+
+    long firstByteNanos() {
+        return firstByteNanos;
+    }
+
+    long runNanos() {
+        return runNanos;
+    }
+
+    long totalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalEntry{command=" + command + ", exitCode=" + exitCode + ", timedOut=" + timedOut + ", failed=" + failed
+                + ", totalDuration=" + getTotalDuration() + "}";
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.codery.utils.cli;
+
+/**
+ * Point-in-time summary of a {@link LatencyHistogram}, in microseconds. Exposed over JMX as composite data.
+ */
+public final class LatencySummary {
+
+    private final long count;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p90Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    public LatencySummary(long count, long meanMicros, long p50Micros, long p90Micros, long p99Micros, long maxMicros) {
+        this.count = count;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP90Micros() {
+        return p90Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + meanMicros + "us, p50=" + p50Micros + "us, p90=" + p90Micros + "us, p99=" + p99Micros + "us, max=" + maxMicros + "us";
+    }
+}
@@ -0,0 +1,14 @@
+package com.codery.utils.cli;
+
+/**
+ * Receives process output one line at a time, see {@link LineOutputAdapter}.
+ */
+public interface LineListener {
+
+    /**
+     * @param line the line, without its line terminator. The sequence is a view over a reused buffer that is only
+     *             valid during this call; use {@code line.toString()} to keep it.
+     */
+    void onLine(CharSequence line);
+
+}
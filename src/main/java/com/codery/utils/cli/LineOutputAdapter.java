@@ -0,0 +1,180 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Decodes process output with an explicit charset and hands it to a {@link LineListener} line by line. Lines may end
+ * with {@code \n} or {@code \r\n}, and multibyte characters split between two writes are decoded as a whole. The
+ * decoder and the buffers are reused for every write, so steady-state decoding doesn't allocate.
+ * <p>
+ * A pending line without terminator is delivered on {@link #flush()}, which the output pumps call when a process'
+ * stream ends, and on {@link #close()}.
+ * <p>
+ * An adapter added to a {@link ShellCli} decodes each execution separately, so its listener gets whole lines even
+ * while executions run concurrently, but it must then accept calls from several threads at once.
+ */
+public class LineOutputAdapter extends OutputStream implements ExecutionScopedOutput {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final LineListener listener;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final LineView line = new LineView();
+    private final byte[] single = new byte[1];
+    // how far chars was already searched for a line terminator
+    private int scanned;
+
+    public LineOutputAdapter(LineListener listener, Charset charset) {
+        this.listener = listener;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * @return an adapter delivering to the same listener with its own decoding state, so the output of concurrent
+     * executions sharing this adapter is still split into whole lines.
+     */
+    @Override
+    public LineOutputAdapter forExecution() {
+        return new LineOutputAdapter(listener, decoder.charset());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int chunk = Math.min(len, bytes.remaining());
+            bytes.put(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+            decode(false);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        deliverPending();
+    }
+
+    @Override
+    public void close() throws IOException {
+        decode(true);
+        while (decoder.flush(chars).isOverflow()) {
+            grow();
+        }
+        deliverLines();
+        deliverPending();
+        decoder.reset();
+    }
+
+    private void decode(boolean endOfInput) {
+        bytes.flip();
+        while (true) {
+            int consumed = bytes.position();
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            boolean progressed = bytes.position() > consumed;
+            deliverLines();
+            if (!result.isOverflow()) {
+                break;
+            }
+            // a character outside the BMP takes two chars, so an overflow may leave one unused
+            if (!progressed || !chars.hasRemaining()) {
+                grow();
+            }
+        }
+        // keeps the bytes of a character that isn't complete yet for the next write
+        bytes.compact();
+    }
+
+    private void deliverLines() {
+        char[] arr = chars.array();
+        int end = chars.position();
+        int lineStart = 0;
+        for (int i = scanned; i < end; i++) {
+            if (arr[i] == '\n') {
+                int lineEnd = i > lineStart && arr[i - 1] == '\r' ? i - 1 : i;
+                deliver(arr, lineStart, lineEnd);
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart > 0) {
+            System.arraycopy(arr, lineStart, arr, 0, end - lineStart);
+            chars.position(end - lineStart);
+        }
+        scanned = chars.position();
+    }
+
+    private void deliverPending() {
+        if (chars.position() > 0) {
+            char[] arr = chars.array();
+            int end = chars.position();
+            deliver(arr, 0, arr[end - 1] == '\r' ? end - 1 : end);
+            chars.clear();
+            scanned = 0;
+        }
+    }
+
+    private void deliver(char[] arr, int start, int end) {
+        line.set(arr, start, end - start);
+        listener.onLine(line);
+    }
+
+    // only lines longer than the buffer make it grow
+    private void grow() {
+        CharBuffer bigger = CharBuffer.wrap(Arrays.copyOf(chars.array(), chars.capacity() * 2));
+        bigger.position(chars.position());
+        chars = bigger;
+    }
+
+    private static final class LineView implements CharSequence {
+
+        private char[] arr;
+        private int offset;
+        private int length;
+
+        void set(char[] arr, int offset, int length) {
+            this.arr = arr;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            return arr[offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(arr, offset, length);
+        }
+    }
+}
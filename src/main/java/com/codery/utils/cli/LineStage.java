@@ -0,0 +1,110 @@
+package com.codery.utils.cli;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link Pipeline} stage run in the JVM, one line at a time. A pipeline holds one instance per stage as a template,
+ * and each execution works on its own {@link #fresh()} copy, since stages keep counters and, for {@link #grep}, a
+ * matcher.
+ */
+abstract class LineStage {
+
+    private final String name;
+    private long linesIn;
+    private long linesOut;
+    private Throwable error;
+
+    LineStage(String name) {
+        this.name = name;
+    }
+
+    static LineStage filter(Predicate<CharSequence> filter) {
+        return new LineStage("filter") {
+            @Override
+            protected CharSequence apply(CharSequence line) {
+                return filter.test(line) ? line : null;
+            }
+
+            @Override
+            LineStage fresh() {
+                return filter(filter);
+            }
+        };
+    }
+
+    static LineStage map(Function<CharSequence, CharSequence> mapper) {
+        return new LineStage("map") {
+            @Override
+            protected CharSequence apply(CharSequence line) {
+                return mapper.apply(line);
+            }
+
+            @Override
+            LineStage fresh() {
+                return map(mapper);
+            }
+        };
+    }
+
+    static LineStage grep(Pattern pattern) {
+        return new LineStage("grep " + pattern.pattern()) {
+            // matches the reused line view without turning every line into a String
+            private final Matcher matcher = pattern.matcher("");
+
+            @Override
+            protected CharSequence apply(CharSequence line) {
+                return matcher.reset(line).find() ? line : null;
+            }
+
+            @Override
+            LineStage fresh() {
+                return grep(pattern);
+            }
+        };
+    }
+
+    /**
+     * @return the line to hand to the next stage, or null to drop it.
+     */
+    protected abstract CharSequence apply(CharSequence line);
+
+    /**
+     * @return a copy of this stage with its own state, for one execution.
+     */
+    abstract LineStage fresh();
+
+    final CharSequence process(CharSequence line) {
+        linesIn++;
+        CharSequence ret;
+        try {
+            ret = apply(line);
+        } catch (RuntimeException e) {
+            error = e;
+            throw e;
+        }
+        if (ret != null) {
+            linesOut++;
+        }
+        return ret;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getLinesIn() {
+        return linesIn;
+    }
+
+    long getLinesOut() {
+        return linesOut;
+    }
+
+    Throwable getError() {
+        return error;
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.codery.utils.cli;
+
+import java.io.OutputStream;
+
+/**
+ * Discards everything written to it. Used to drain the output nobody listens to, which must still be read or the
+ * process blocks once its pipe is full.
+ */
+public final class NullOutputStream extends OutputStream {
+
+    public static final NullOutputStream INSTANCE = new NullOutputStream();
+
+    private NullOutputStream() {
+    }
+
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+
+}
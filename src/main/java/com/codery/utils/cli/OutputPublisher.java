@@ -0,0 +1,221 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes a process stream to a single subscriber, reading from the process only while the subscriber has
+ * outstanding demand. Each {@link Flow.Subscriber#onNext(Object)} gets the publisher's one buffer, refilled for every
+ * chunk, so it's only valid until {@code onNext} returns. A cancelled subscription discards the rest of the stream,
+ * so the process never blocks on a full pipe nobody reads.
+ * <p>
+ * Reads run on the given executor, one at a time; whenever the demand drops to zero the reading task ends and a
+ * later {@link Flow.Subscription#request(long)} schedules it again.
+ */
+class OutputPublisher extends OutputPump implements Flow.Publisher<ByteBuffer> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutputPublisher.class);
+
+    private final Executor executor;
+    private final int bufferSize;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private volatile InputStream inStream;
+    private volatile Throwable startError;
+    private volatile Throwable demandError;
+    private volatile Flow.Subscriber<? super ByteBuffer> subscriber;
+    private volatile boolean cancelled;
+    private boolean terminated;
+    private boolean demandErrorSignalled;
+    private ByteBuffer buffer;
+
+    OutputPublisher(Executor executor, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive, got " + bufferSize);
+        }
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Starts publishing {@code stream} to the current or future subscriber.
+     */
+    void attach(InputStream stream) {
+        inStream = stream;
+        schedule();
+    }
+
+    /**
+     * Signals {@code error} to the subscriber instead of a stream, for a process that couldn't be started.
+     */
+    void fail(Throwable error) {
+        startError = error;
+        completion.completeExceptionally(error);
+        schedule();
+    }
+
+    /**
+     * @return a future completed once the stream was fully read, either by the subscriber or discarded.
+     */
+    CompletableFuture<Void> completion() {
+        return completion;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Process output can only be published to one subscriber."));
+            return;
+        }
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(new Subscription());
+        schedule();
+    }
+
+    private void schedule() {
+        if (pending.getAndIncrement() == 0) {
+            executor.execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        int missed = 1;
+        do {
+            drain();
+            missed = pending.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drain() {
+        Flow.Subscriber<? super ByteBuffer> target = subscriber;
+        if (terminated || target == null) {
+            return;
+        }
+        signalDemandError(target);
+        if (startError != null) {
+            terminated = true;
+            if (!cancelled) {
+                target.onError(startError);
+            }
+            return;
+        }
+        InputStream in = inStream;
+        if (in == null) {
+            return;
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+        try {
+            while (cancelled || demand.get() > 0) {
+                int read = in.read(buffer.array(), 0, bufferSize);
+                if (read == -1) {
+                    finish(in);
+                    if (!cancelled) {
+                        target.onComplete();
+                    }
+                    return;
+                }
+                pumped(read);
+                if (!cancelled) {
+                    demand.decrementAndGet();
+                    buffer.clear().limit(read);
+                    emit(target);
+                    signalDemandError(target);
+                }
+            }
+        } catch (IOException e) {
+            ShellCliException error = new ShellCliException("An error occurred trying to read a process stream.", e);
+            terminated = true;
+            closeQuietly(in);
+            completion.completeExceptionally(error);
+            if (!cancelled) {
+                target.onError(error);
+            }
+        }
+    }
+
+    private void emit(Flow.Subscriber<? super ByteBuffer> target) {
+        try {
+            target.onNext(buffer);
+        } catch (RuntimeException e) {
+            // a subscriber that throws is treated as cancelled, and the rest of the stream is discarded
+            LOGGER.warn("Subscriber " + target + " failed; discarding the rest of the output.", e);
+            cancelled = true;
+        }
+    }
+
+    // signalled from the reading task, like every other signal, so it never overlaps an onNext
+    private void signalDemandError(Flow.Subscriber<? super ByteBuffer> target) {
+        Throwable error = demandError;
+        if (error != null && !demandErrorSignalled) {
+            demandErrorSignalled = true;
+            target.onError(error);
+        }
+    }
+
+    private void finish(InputStream in) {
+        terminated = true;
+        closeQuietly(in);
+        completion.complete(null);
+    }
+
+    private void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            LOGGER.debug("It wasn't possible to close a process stream.", e);
+        }
+    }
+
+    private class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (!cancelled) {
+                    demandError = new IllegalArgumentException("Requested demand must be positive, got " + n);
+                    cancelled = true;
+                }
+                schedule();
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+    }
+
+}
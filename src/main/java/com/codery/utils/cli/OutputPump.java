@@ -0,0 +1,29 @@
+package com.codery.utils.cli;
+
+/**
+ * Base of the tasks that move process output into the output targets. Keeps count of the bytes moved and of when
+ * the first of them arrived, for {@link ExecutionResult}.
+ */
+abstract class OutputPump implements Runnable {
+
+    private volatile long bytes;
+    private volatile long firstByteNanos;
+
+    protected final void pumped(long count) {
+        if (count > 0 && bytes == 0) {
+            firstByteNanos = System.nanoTime();
+        }
+        bytes += count;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the first byte, or 0 if nothing was pumped.
+     */
+    long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+}
@@ -0,0 +1,75 @@
+package com.codery.utils.cli;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A pipeline the {@link ShellCli} starts and connects itself, instead of handing a {@code |} to a shell like
+ * {@link FutureExecution#pipe(CliCommand)} does. Consecutive commands are started together with
+ * {@link ProcessBuilder#startPipeline(java.util.List)}, so their output flows from one process to the next through
+ * the OS, without a shell process in between. Line stages ({@link #filter}, {@link #map}, {@link #grep}) run in the
+ * JVM, on the pump that reads the previous command's output; consecutive line stages share that pump.
+ * <p>
+ * Line stages decode their input with {@link #charset(Charset)} and write every line they keep terminated by
+ * {@code \n}. Each stage, process or not, reports its own exit code and byte counts in the {@link PipelineResult}.
+ * <p>
+ * Immutable: every method returns a new pipeline, and the same pipeline may be executed many times, concurrently.
+ */
+public interface Pipeline {
+
+    Pipeline pipe(CliCommand cmd);
+
+    /**
+     * Keeps only the lines {@code filter} accepts. The line is a view over a reused buffer, only valid during the call.
+     */
+    Pipeline filter(Predicate<CharSequence> filter);
+
+    /**
+     * Replaces every line by what {@code mapper} returns for it, or drops the line when it returns null. The line is
+     * a view over a reused buffer, only valid during the call; it may be returned as is.
+     */
+    Pipeline map(Function<CharSequence, CharSequence> mapper);
+
+    /**
+     * Keeps only the lines where {@code pattern} is found, like {@code grep -E}.
+     */
+    Pipeline grep(Pattern pattern);
+
+    /**
+     * @param charset how line stages decode and encode lines. Defaults to {@link Charset#defaultCharset()}.
+     */
+    Pipeline charset(Charset charset);
+
+    /**
+     * Writes the output of the last stage into {@code out} only, instead of the {@link ShellCli}'s standard output
+     * targets.
+     */
+    Pipeline stdout(OutputStream out);
+
+    /**
+     * Writes the error output of every command into {@code out} only, instead of the {@link ShellCli}'s error output
+     * targets.
+     */
+    Pipeline stderr(OutputStream out);
+
+    /**
+     * Runs the pipeline and blocks until every stage finished or the timeout expired.
+     *
+     * @return the exit code of the last stage, or {@link ExecutionResult#TIMEOUT_EXIT_CODE} on timeout.
+     */
+    int execute();
+
+    CompletableFuture<PipelineResult> executeAsync();
+
+    /**
+     * @return a future completed once every process exited and every stage finished, or once the timeout expired,
+     * in which case every process still running is terminated.
+     */
+    CompletableFuture<PipelineResult> executeAsync(long timeout, TimeUnit unit);
+
+}
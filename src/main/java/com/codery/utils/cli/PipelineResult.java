@@ -0,0 +1,152 @@
+package com.codery.utils.cli;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a finished {@link Pipeline}: one {@link Stage} per command and line stage, in pipeline order.
+ */
+public final class PipelineResult {
+
+    /**
+     * A count that isn't kept: the bytes two consecutive commands exchange through an OS pipe, which the JVM doesn't
+     * see, the bytes consecutive line stages hand each other as decoded lines, and the lines of a command.
+     */
+    public static final long UNKNOWN = -1;
+
+    private final List<Stage> stages;
+    private final boolean timedOut;
+    private final Duration totalDuration;
+
+    PipelineResult(List<Stage> stages, boolean timedOut, Duration totalDuration) {
+        this.stages = Collections.unmodifiableList(stages);
+        this.timedOut = timedOut;
+        this.totalDuration = totalDuration;
+    }
+
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * @return the exit code of the last stage, like a shell without {@code pipefail}, or
+     * {@link ExecutionResult#TIMEOUT_EXIT_CODE} when the pipeline didn't finish in time.
+     */
+    public int getExitCode() {
+        return timedOut ? ExecutionResult.TIMEOUT_EXIT_CODE : stages.get(stages.size() - 1).getExitCode();
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return true when the pipeline finished in time and every stage exited with 0, like a shell with
+     * {@code pipefail}.
+     */
+    public boolean isSuccess() {
+        if (timedOut) {
+            return false;
+        }
+        for (Stage each : stages) {
+            if (each.getExitCode() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Duration getTotalDuration() {
+        return totalDuration;
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineResult{stages=" + stages + ", timedOut=" + timedOut + ", totalDuration=" + totalDuration + "}";
+    }
+
+    /**
+     * What a single stage did. Line stages exit with 0, or with 1 when they threw an exception, which is then
+     * available from {@link #getError()}; a stage still running when the pipeline timed out exits with
+     * {@link ExecutionResult#TIMEOUT_EXIT_CODE}.
+     */
+    public static final class Stage {
+
+        private final String name;
+        private final boolean process;
+        private final int exitCode;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long linesIn;
+        private final long linesOut;
+        private final Throwable error;
+
+        Stage(String name, boolean process, int exitCode, long bytesIn, long bytesOut, long linesIn, long linesOut, Throwable error) {
+            this.name = name;
+            this.process = process;
+            this.exitCode = exitCode;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.linesIn = linesIn;
+            this.linesOut = linesOut;
+            this.error = error;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return true for a command, false for a line stage run in the JVM.
+         */
+        public boolean isProcess() {
+            return process;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * @return how many bytes the stage read, or {@link #UNKNOWN}.
+         */
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * @return how many bytes the stage wrote, or {@link #UNKNOWN}.
+         */
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * @return how many lines a line stage read, or {@link #UNKNOWN} for a command.
+         */
+        public long getLinesIn() {
+            return linesIn;
+        }
+
+        /**
+         * @return how many lines a line stage kept, or {@link #UNKNOWN} for a command.
+         */
+        public long getLinesOut() {
+            return linesOut;
+        }
+
+        /**
+         * @return what made a line stage fail, or null.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "Stage{name=" + name + ", exitCode=" + exitCode + ", bytesIn=" + bytesIn + ", bytesOut=" + bytesOut + "}";
+        }
+    }
+
+}
@@ -0,0 +1,249 @@
+package com.codery.utils.cli;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ShellCli} for Linux and other POSIX systems. Plain commands are started directly from their argument
+ * list, without a shell in between. Only when a shell operator is used (pipe, and or background)
+ * the command line is turned into a script run by {@code sh -c}, with every argument single quoted.
+ * <p>
+ * Since there is no shell to report it, a program that can't be found makes {@link FutureExecution#execute()}
+ * throw a {@link ShellCliException} instead of returning the shell's 127.
+ */
+public class PosixCli extends AbstractShellCli<PosixCli> {
+
+    private static final String[] SH_CALL_PARAMS = new String[] { "sh", "-c" };
+    private static final Pattern SAFE_ARGUMENT = Pattern.compile("[A-Za-z0-9_@%+=:,./-]+");
+
+    public PosixCli() {
+        this(-1, new File(System.getProperty("user.dir")));
+    }
+
+    public PosixCli(long timeout) {
+        this(timeout, new File(System.getProperty("user.dir")));
+    }
+
+    public PosixCli(File dir) {
+        this(-1, dir);
+    }
+
+    public PosixCli(long timeout, File dir) {
+        this(timeout, dir, null);
+    }
+
+    /**
+     * @param pumpExecutor runs the output pumps; see {@link AbstractShellCli#AbstractShellCli(long, File, ExecutorService)}.
+     */
+    public PosixCli(long timeout, File dir, ExecutorService pumpExecutor) {
+        super(timeout, dir, pumpExecutor);
+    }
+
+    @Override
+    protected PosixCli self() {
+        return this;
+    }
+
+    @Override
+    protected boolean isEnvironmentCaseSensitive() {
+        return true;
+    }
+
+    @Override
+    public FutureExecution command(CliCommand cmd) {
+        return command(CommandTree.of(cmd));
+    }
+
+    @Override
+    public FutureExecution command(CommandTree tree) {
+        return new PosixCliFutureExecution(tree);
+    }
+
+    @Override
+    SessionProtocol sessionProtocol() {
+        return new PosixSessionProtocol();
+    }
+
+    static String quote(String arg) {
+        if (!arg.isEmpty() && SAFE_ARGUMENT.matcher(arg).matches()) {
+            return arg;
+        }
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Runs each command in a subshell, so changes to variables or to the current directory don't leak into the
+     * next command of the session. Unlike a fresh process, a program that can't be found gives exit code 127.
+     */
+    private static final class PosixSessionProtocol implements SessionProtocol {
+
+        @Override
+        public String[] shellCommandLine() {
+            return new String[] { "sh" };
+        }
+
+        @Override
+        public String script(String commandLine, File dir, String marker) {
+            StringBuilder script = new StringBuilder();
+            if (commandLine == null) {
+                script.append("true\n");
+            } else {
+                script.append("( ");
+                if (dir != null) {
+                    script.append("cd ").append(quote(dir.getAbsolutePath())).append(" && ");
+                }
+                script.append(commandLine).append("\n) </dev/null\n");
+            }
+            script.append("printf '%s:%d\\n' ").append(marker).append(" \"$?\"\n");
+            script.append("printf '%s\\n' ").append(marker).append(" >&2\n");
+            return script.toString();
+        }
+
+        @Override
+        public Charset charset() {
+            return Charset.defaultCharset();
+        }
+    }
+
+    /**
+     * Plain commands are started as they are; anything with an operator becomes a script for {@code sh -c}, with
+     * every argument quoted.
+     */
+    private static final class PosixCompiler implements CommandTree.Compiler<CliCommand>, CommandTree.Visitor<CliCommand> {
+
+        private static final PosixCompiler INSTANCE = new PosixCompiler();
+
+        @Override
+        public CliCommand compile(CommandTree tree) {
+            CliCommand plain = tree.accept(this);
+            if (plain != null) {
+                return plain;
+            }
+            return new CliCommand(new String[] { SH_CALL_PARAMS[0], SH_CALL_PARAMS[1], toScript(tree) });
+        }
+
+        @Override
+        public CliCommand command(CliCommand cmd) {
+            return cmd;
+        }
+
+        @Override
+        public CliCommand pipe(CommandTree left, CommandTree right) {
+            return null;
+        }
+
+        @Override
+        public CliCommand sequence(CommandTree first, CommandTree second) {
+            return null;
+        }
+
+        @Override
+        public CliCommand background(CommandTree cmd) {
+            return null;
+        }
+    }
+
+    static String toScript(CommandTree tree) {
+        StringBuilder script = new StringBuilder();
+        tree.accept(new ScriptWriter(script));
+        return script.toString();
+    }
+
+    private static final class ScriptWriter implements CommandTree.Visitor<Void> {
+
+        private final StringBuilder script;
+
+        ScriptWriter(StringBuilder script) {
+            this.script = script;
+        }
+
+        @Override
+        public Void command(CliCommand cmd) {
+            String[] cmdLine = cmd.getCmdLine();
+            for (int i = 0; i < cmdLine.length; i++) {
+                if (i > 0) {
+                    script.append(' ');
+                }
+                script.append(quote(cmdLine[i]));
+            }
+            return null;
+        }
+
+        @Override
+        public Void pipe(CommandTree left, CommandTree right) {
+            left.accept(this);
+            script.append(" | ");
+            return right.accept(this);
+        }
+
+        @Override
+        public Void sequence(CommandTree first, CommandTree second) {
+            first.accept(this);
+            // a backgrounded command is already terminated by its '&'
+            script.append(script.charAt(script.length() - 1) == '&' ? " " : " ; ");
+            return second.accept(this);
+        }
+
+        @Override
+        public Void background(CommandTree cmd) {
+            cmd.accept(this);
+            script.append(" &");
+            return null;
+        }
+    }
+
+    private class PosixCliFutureExecution extends AbstractFutureExecution {
+
+        private final CommandTree tree;
+
+        PosixCliFutureExecution(CommandTree tree) {
+            this.tree = tree;
+        }
+
+        PosixCliFutureExecution(PosixCliFutureExecution futureEx) {
+            this(futureEx, futureEx.tree);
+        }
+
+        // the settings already chained carry over to the grown command
+        PosixCliFutureExecution(PosixCliFutureExecution futureEx, CommandTree tree) {
+            super(futureEx);
+            this.tree = tree;
+        }
+
+        @Override
+        protected PosixCliFutureExecution copy() {
+            return new PosixCliFutureExecution(this);
+        }
+
+        @Override
+        public FutureExecution pipe(CliCommand cmd) {
+            return new PosixCliFutureExecution(this, tree.pipe(CommandTree.of(cmd)));
+        }
+
+        @Override
+        public FutureExecution and(CliCommand cmd) {
+            return new PosixCliFutureExecution(this, tree.and(CommandTree.of(cmd)));
+        }
+
+        @Override
+        public FutureExecution background() {
+            return new PosixCliFutureExecution(this, tree.background());
+        }
+
+        @Override
+        String sessionCommandLine() {
+            CliCommand cmd = getCommand();
+            // unless the command is plain, it was already compiled into a script
+            return cmd == tree.first() ? toScript(tree) : cmd.getCmdLine()[2];
+        }
+
+        @Override
+        public CliCommand getCommand() {
+            return tree.compile(PosixCompiler.INSTANCE);
+        }
+
+    }
+
+}
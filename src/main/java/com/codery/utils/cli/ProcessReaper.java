@@ -0,0 +1,117 @@
+package com.codery.utils.cli;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the processes a {@link ShellCli} started and still running, and terminates process trees: first
+ * politely, letting them clean up for a grace period, then forcibly. The whole tree is terminated because commands
+ * started through a shell ({@code cmd /c}, {@code sh -c}) usually run in a child of the process that was started,
+ * and killing only the shell would leave the child running and holding the output pipes open.
+ */
+final class ProcessReaper {
+
+    private final Set<Process> live = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Tracks {@code process} until it exits, or is lost with the agent running it.
+     */
+    Process track(Process process) {
+        live.add(process);
+        process.onExit().whenComplete((ignored, error) -> live.remove(process));
+        return process;
+    }
+
+    int liveCount() {
+        return live.size();
+    }
+
+    /**
+     * Terminates every tracked process with its descendants.
+     *
+     * @return a future completed once all of them exited.
+     */
+    CompletableFuture<Void> terminateAll(long graceMillis) {
+        List<CompletableFuture<Void>> terminations = new ArrayList<>();
+        for (Process each : live) {
+            terminations.add(terminate(each, graceMillis));
+        }
+        return CompletableFuture.allOf(terminations.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Asks {@code root} and its descendants to terminate, and kills whatever is still alive after
+     * {@code graceMillis}. With no grace period, or where polite termination isn't supported, the tree is killed
+     * right away.
+     *
+     * @return a future completed once the whole tree exited.
+     */
+    static CompletableFuture<Void> terminate(ProcessHandle root, long graceMillis) {
+        // descendants must be listed before their parents die, or they can't be found anymore
+        Set<ProcessHandle> tree = tree(root);
+        boolean polite = graceMillis > 0 && root.supportsNormalTermination();
+        for (ProcessHandle each : tree) {
+            if (polite) {
+                each.destroy();
+            } else {
+                each.destroyForcibly();
+            }
+        }
+
+        CompletableFuture<Void> exited = exitOf(tree);
+        if (polite) {
+            CompletableFuture.delayedExecutor(graceMillis, TimeUnit.MILLISECONDS).execute(() -> {
+                if (!exited.isDone()) {
+                    // children spawned during the grace period are killed as well
+                    Set<ProcessHandle> remaining = tree(root);
+                    remaining.addAll(tree);
+                    for (ProcessHandle each : remaining) {
+                        each.destroyForcibly();
+                    }
+                }
+            });
+        }
+        return exited;
+    }
+
+    /**
+     * Terminates {@code process} and its descendants as {@link #terminate(ProcessHandle, long)} does. A process
+     * without a handle, like one running on a {@link ShellAgent}, terminates its tree itself when destroyed.
+     */
+    static CompletableFuture<Void> terminate(Process process, long graceMillis) {
+        ProcessHandle handle;
+        try {
+            handle = process.toHandle();
+        } catch (UnsupportedOperationException e) {
+            if (graceMillis > 0) {
+                process.destroy();
+            } else {
+                process.destroyForcibly();
+            }
+            return process.onExit().handle((ignored, error) -> null);
+        }
+        return terminate(handle, graceMillis);
+    }
+
+    // the root comes first, so it learns about the termination before seeing its children die
+    private static Set<ProcessHandle> tree(ProcessHandle root) {
+        Set<ProcessHandle> tree = new LinkedHashSet<>();
+        tree.add(root);
+        root.descendants().forEach(tree::add);
+        return tree;
+    }
+
+    private static CompletableFuture<Void> exitOf(Set<ProcessHandle> tree) {
+        List<CompletableFuture<ProcessHandle>> exits = new ArrayList<>();
+        for (ProcessHandle each : tree) {
+            exits.add(each.onExit());
+        }
+        return CompletableFuture.allOf(exits.toArray(new CompletableFuture<?>[0]));
+    }
+
+}
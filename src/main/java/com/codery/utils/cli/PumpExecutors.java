@@ -0,0 +1,91 @@
+package com.codery.utils.cli;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for the output pumps of a {@link ShellCli}. Every running execution keeps up to two pumps busy (standard
+ * and error output) until the process closes its streams, so the executor must be able to run at least twice as many
+ * tasks as there are concurrent executions, or the processes whose pumps are queued will block on a full pipe.
+ */
+public final class PumpExecutors {
+
+    private static final int SHARED_POOL_SIZE = Math.max(64, Runtime.getRuntime().availableProcessors() * 16);
+
+    private PumpExecutors() {
+    }
+
+    /**
+     * @return a bounded pool shared by every {@link ShellCli} of this JVM. It is never shut down, and pumps queue up
+     * once all of its threads are busy, so it suits many instances with moderate concurrency each.
+     */
+    public static ExecutorService shared() {
+        return SharedPoolHolder.POOL;
+    }
+
+    /**
+     * @return a pool of at most {@code threads} threads, which are released after a minute without work.
+     */
+    public static ExecutorService bounded(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new PumpThreadFactory());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * @return a pool that creates a thread for every pump that has no idle thread to run on, so pumps never queue.
+     */
+    public static ExecutorService elastic() {
+        return Executors.newCachedThreadPool(new PumpThreadFactory());
+    }
+
+    /**
+     * @return an executor that runs each pump on its own virtual thread, or an {@link #elastic()} pool on runtimes
+     * without virtual threads.
+     */
+    public static ExecutorService virtual() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return elastic();
+        }
+    }
+
+    /**
+     * @return true if this runtime supports virtual threads, so {@link #virtual()} doesn't fall back to platform threads.
+     */
+    public static boolean isVirtualSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static final class SharedPoolHolder {
+        private static final ExecutorService POOL = bounded(SHARED_POOL_SIZE);
+    }
+
+    private static final class PumpThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "process-runner-pump-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            // pumps end with the process they read from, so they never need to keep the JVM alive
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
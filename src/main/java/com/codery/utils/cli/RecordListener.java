@@ -0,0 +1,21 @@
+package com.codery.utils.cli;
+
+/**
+ * Receives the records parsed from process output, see {@link RecordOutputAdapter}.
+ */
+public interface RecordListener<R> {
+
+    /**
+     * @param record a record owned by the listener, which may keep it.
+     */
+    void onRecord(R record);
+
+    /**
+     * Called for a record that couldn't be parsed, or whose {@link #onRecord(Object)} threw. The record is skipped and
+     * parsing goes on with the next one, so the output is still read to its end. Does nothing by default; the adapter
+     * already logs the error.
+     */
+    default void onError(RuntimeException error) {
+    }
+
+}
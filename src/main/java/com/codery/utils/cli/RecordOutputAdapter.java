@@ -0,0 +1,95 @@
+package com.codery.utils.cli;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses process output into records with a {@link RecordParser} and hands each record to a {@link RecordListener}
+ * as soon as its bytes arrived, instead of collecting the whole output first. The bytes are parsed as written, without
+ * being copied or decoded as a whole.
+ * <p>
+ * Like {@link LineOutputAdapter}, a last record without terminator is delivered on {@link #flush()}, which the output
+ * pumps call when a process' stream ends, and on {@link #close()}. An adapter added to a {@link ShellCli} parses each
+ * execution with its own parser, so its listener must then accept calls from several threads at once.
+ * <p>
+ * A record that can't be parsed is skipped and reported to {@link RecordListener#onError(RuntimeException)}, and the
+ * parsing goes on: the adapter never throws from a write, so the output pump keeps draining the process.
+ */
+public class RecordOutputAdapter<R> extends OutputStream implements ExecutionScopedOutput {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordOutputAdapter.class);
+
+    private final Supplier<? extends RecordParser<R>> parsers;
+    private final RecordListener<? super R> listener;
+    private final RecordParser<R> parser;
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param parsers creates a parser for each output parsed, e.g. {@code () -> RecordParsers.csv(charset)}.
+     */
+    public RecordOutputAdapter(Supplier<? extends RecordParser<R>> parsers, RecordListener<? super R> listener) {
+        this.parsers = parsers;
+        this.listener = listener;
+        this.parser = parsers.get();
+    }
+
+    @Override
+    public RecordOutputAdapter<R> forExecution() {
+        return new RecordOutputAdapter<>(parsers, listener);
+    }
+
+    @Override
+    public void write(int b) {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ByteBuffer bytes = ByteBuffer.wrap(b, off, len);
+        while (bytes.hasRemaining()) {
+            int position = bytes.position();
+            try {
+                parser.parse(bytes, listener);
+            } catch (RuntimeException e) {
+                failed(e);
+                if (bytes.position() == position) {
+                    // a parser that failed without consuming anything would fail again
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        endOfInput();
+    }
+
+    @Override
+    public void close() {
+        endOfInput();
+    }
+
+    private void endOfInput() {
+        try {
+            parser.endOfInput(listener);
+        } catch (RuntimeException e) {
+            failed(e);
+        }
+    }
+
+    private void failed(RuntimeException error) {
+        LOGGER.warn("A record of the output was skipped.", error);
+        try {
+            listener.onError(error);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Record listener " + listener + " failed handling an error.", e);
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.codery.utils.cli;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns the bytes of an output into records as they arrive, for a {@link RecordOutputAdapter}. A parser is fed a
+ * single output, in order, and keeps whatever belongs to a record not complete yet until the next bytes arrive.
+ * Built-in parsers are in {@link RecordParsers}.
+ */
+public interface RecordParser<R> {
+
+    /**
+     * Consumes every byte from the position to the limit of {@code bytes}, handing the records they complete to
+     * {@code listener}. The buffer is only valid during the call.
+     * <p>
+     * A parser may throw for a record it can't parse, once it consumed the record's bytes and dropped its state; the
+     * adapter then reports the error and calls it again with the rest of {@code bytes}.
+     */
+    void parse(ByteBuffer bytes, RecordListener<? super R> listener);
+
+    /**
+     * The output ended: hands a last record without terminator to {@code listener}, and gets ready for a new output.
+     */
+    void endOfInput(RecordListener<? super R> listener);
+
+}
@@ -0,0 +1,573 @@
+package com.codery.utils.cli;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Built-in {@link RecordParser}s. They find record and field boundaries in the raw bytes and only decode the fields
+ * themselves, so the charset must encode line terminators, delimiters and quotes as their ASCII bytes and never use
+ * those bytes inside a multibyte character: UTF-8, the ISO-8859 family and the Windows and OEM code pages do, UTF-16
+ * doesn't. Lines may end with {@code \n} or {@code \r\n}, and blank lines are skipped.
+ */
+public final class RecordParsers {
+
+    private RecordParsers() {
+    }
+
+    /**
+     * @return a parser of comma separated values as in RFC 4180, like the output of {@code tasklist /fo csv}: fields
+     * may be quoted, and quoted fields may hold commas, line breaks and doubled quotes.
+     */
+    public static RecordParser<List<String>> csv(Charset charset) {
+        return new CsvParser(charset, ',');
+    }
+
+    /**
+     * @return a parser of lines split at every {@code delimiter}, without quoting.
+     */
+    public static RecordParser<List<String>> delimited(Charset charset, char delimiter) {
+        checkAscii(delimiter);
+        return new DelimitedParser(charset, (byte) delimiter);
+    }
+
+    /**
+     * @return a parser of lines split at runs of spaces and tabs, for the aligned tables printed by tools like
+     * {@code ps} or {@code df}. Leading and trailing blanks are ignored.
+     */
+    public static RecordParser<List<String>> columns(Charset charset) {
+        return new DelimitedParser(charset, (byte) 0);
+    }
+
+    /**
+     * @return a parser of JSON lines, a JSON value per line. Objects become {@link Map}s keeping their members' order,
+     * arrays {@link List}s, numbers {@link Long}s when integral and in range, {@link Double}s otherwise.
+     * A line that isn't valid JSON is reported as a {@link ShellCliException} to {@link RecordListener#onError}.
+     */
+    public static RecordParser<Object> jsonLines(Charset charset) {
+        return new JsonLinesParser(charset);
+    }
+
+    /**
+     * @return a parser taking the first record of {@code parser} as a header, and the following ones as maps from
+     * header to field. Fields missing from a record are missing from its map, and fields beyond the header are
+     * ignored.
+     */
+    public static RecordParser<Map<String, String>> withHeader(RecordParser<List<String>> parser) {
+        return new HeaderParser(parser);
+    }
+
+    private static void checkAscii(char delimiter) {
+        if (delimiter == 0 || delimiter > 0x7f || delimiter == '\n' || delimiter == '\r') {
+            throw new IllegalArgumentException("Delimiter must be an ASCII character other than a line terminator, got " + (int) delimiter);
+        }
+    }
+
+    /**
+     * Bytes of the field or line being parsed, reused for the whole output.
+     */
+    private static final class ByteAccumulator {
+
+        private byte[] bytes = new byte[256];
+        private int count;
+
+        void append(byte b) {
+            if (count == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[count++] = b;
+        }
+
+        String decode(int start, int end, Charset charset) {
+            return new String(bytes, start, end - start, charset);
+        }
+    }
+
+    private static final class CsvParser implements RecordParser<List<String>> {
+
+        private static final int FIELD_START = 0;
+        private static final int UNQUOTED = 1;
+        private static final int QUOTED = 2;
+        // a quote inside a quoted field: either the end of the field or the first of two quotes
+        private static final int QUOTE_IN_QUOTED = 3;
+
+        private final Charset charset;
+        private final byte delimiter;
+        private final ByteAccumulator field = new ByteAccumulator();
+        private List<String> record = new ArrayList<>();
+        private int state = FIELD_START;
+        private boolean quoted;
+
+        CsvParser(Charset charset, char delimiter) {
+            this.charset = charset;
+            this.delimiter = (byte) delimiter;
+        }
+
+        @Override
+        public void parse(ByteBuffer bytes, RecordListener<? super List<String>> listener) {
+            while (bytes.hasRemaining()) {
+                byte b = bytes.get();
+                switch (state) {
+                    case QUOTED:
+                        if (b == '"') {
+                            state = QUOTE_IN_QUOTED;
+                        } else {
+                            field.append(b);
+                        }
+                        break;
+                    case QUOTE_IN_QUOTED:
+                        if (b == '"') {
+                            field.append(b);
+                            state = QUOTED;
+                            break;
+                        }
+                        unquoted(b, listener);
+                        break;
+                    case FIELD_START:
+                        if (b == '"') {
+                            quoted = true;
+                            state = QUOTED;
+                            break;
+                        }
+                        unquoted(b, listener);
+                        break;
+                    default:
+                        unquoted(b, listener);
+                }
+            }
+        }
+
+        private void unquoted(byte b, RecordListener<? super List<String>> listener) {
+            if (b == delimiter) {
+                endField();
+                state = FIELD_START;
+            } else if (b == '\n') {
+                endRecord(listener);
+            } else if (b != '\r') {
+                field.append(b);
+                state = UNQUOTED;
+            }
+        }
+
+        private void endField() {
+            record.add(field.decode(0, field.count, charset));
+            field.count = 0;
+        }
+
+        private void endRecord(RecordListener<? super List<String>> listener) {
+            boolean blank = record.isEmpty() && field.count == 0 && !quoted;
+            if (!blank) {
+                endField();
+                List<String> ret = record;
+                record = new ArrayList<>(ret.size());
+                listener.onRecord(ret);
+            }
+            field.count = 0;
+            quoted = false;
+            state = FIELD_START;
+        }
+
+        @Override
+        public void endOfInput(RecordListener<? super List<String>> listener) {
+            endRecord(listener);
+        }
+    }
+
+    /**
+     * Splits the output into lines of bytes, without decoding them.
+     */
+    private abstract static class LineParser<R> implements RecordParser<R> {
+
+        final Charset charset;
+        final ByteAccumulator line = new ByteAccumulator();
+        // of the line being parsed, from 1
+        long lineNumber;
+
+        LineParser(Charset charset) {
+            this.charset = charset;
+        }
+
+        @Override
+        public void parse(ByteBuffer bytes, RecordListener<? super R> listener) {
+            while (bytes.hasRemaining()) {
+                byte b = bytes.get();
+                if (b == '\n') {
+                    endLine(listener);
+                } else {
+                    line.append(b);
+                }
+            }
+        }
+
+        @Override
+        public void endOfInput(RecordListener<? super R> listener) {
+            try {
+                if (line.count > 0) {
+                    endLine(listener);
+                }
+            } finally {
+                lineNumber = 0;
+            }
+        }
+
+        private void endLine(RecordListener<? super R> listener) {
+            lineNumber++;
+            int end = line.count;
+            if (end > 0 && line.bytes[end - 1] == '\r') {
+                end--;
+            }
+            R record;
+            try {
+                record = isBlank(end) ? null : parseLine(end);
+            } finally {
+                // a line that can't be parsed is dropped, so the next one starts clean
+                line.count = 0;
+            }
+            if (record != null) {
+                listener.onRecord(record);
+            }
+        }
+
+        private boolean isBlank(int end) {
+            for (int i = 0; i < end; i++) {
+                if (line.bytes[i] != ' ' && line.bytes[i] != '\t') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the record in the first {@code end} bytes of {@link #line}.
+         */
+        abstract R parseLine(int end);
+    }
+
+    private static final class DelimitedParser extends LineParser<List<String>> {
+
+        // 0 splits at runs of blanks
+        private final byte delimiter;
+
+        DelimitedParser(Charset charset, byte delimiter) {
+            super(charset);
+            this.delimiter = delimiter;
+        }
+
+        @Override
+        List<String> parseLine(int end) {
+            List<String> record = new ArrayList<>();
+            byte[] bytes = line.bytes;
+            if (delimiter != 0) {
+                int start = 0;
+                for (int i = 0; i < end; i++) {
+                    if (bytes[i] == delimiter) {
+                        record.add(line.decode(start, i, charset));
+                        start = i + 1;
+                    }
+                }
+                record.add(line.decode(start, end, charset));
+                return record;
+            }
+            int i = 0;
+            while (i < end) {
+                while (i < end && isBlank(bytes[i])) {
+                    i++;
+                }
+                int start = i;
+                while (i < end && !isBlank(bytes[i])) {
+                    i++;
+                }
+                if (i > start) {
+                    record.add(line.decode(start, i, charset));
+                }
+            }
+            return record;
+        }
+
+        private static boolean isBlank(byte b) {
+            return b == ' ' || b == '\t';
+        }
+    }
+
+    private static final class JsonLinesParser extends LineParser<Object> {
+
+        JsonLinesParser(Charset charset) {
+            super(charset);
+        }
+
+        @Override
+        Object parseLine(int end) {
+            return new JsonReader(line.decode(0, end, charset), lineNumber).readDocument();
+        }
+    }
+
+    /**
+     * Reads a single JSON value, as defined by RFC 8259.
+     */
+    private static final class JsonReader {
+
+        private final String text;
+        private final long lineNumber;
+        private int pos;
+
+        JsonReader(String text, long lineNumber) {
+            this.text = text;
+            this.lineNumber = lineNumber;
+        }
+
+        Object readDocument() {
+            Object value = readValue();
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("unexpected '" + text.charAt(pos) + "' after the value");
+            }
+            return value;
+        }
+
+        private Object readValue() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("unexpected end of line");
+            }
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                    return readString();
+                case 't':
+                    return readLiteral("true", Boolean.TRUE);
+                case 'f':
+                    return readLiteral("false", Boolean.FALSE);
+                case 'n':
+                    return readLiteral("null", null);
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return readNumber();
+                    }
+                    throw error("unexpected '" + c + "'");
+            }
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("expected a member name");
+                }
+                String name = readString();
+                skipWhitespace();
+                expect(':');
+                object.put(name, readValue());
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    throw error("expected ',' or '}'");
+                }
+            }
+        }
+
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue());
+                skipWhitespace();
+                char c = next();
+                if (c == ']') {
+                    return array;
+                }
+                if (c != ',') {
+                    throw error("expected ',' or ']'");
+                }
+            }
+        }
+
+        private String readString() {
+            pos++;
+            StringBuilder ret = null;
+            int start = pos;
+            while (true) {
+                if (pos >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char c = text.charAt(pos);
+                if (c == '"') {
+                    String value = ret == null ? text.substring(start, pos) : ret.append(text, start, pos).toString();
+                    pos++;
+                    return value;
+                }
+                if (c != '\\') {
+                    pos++;
+                    continue;
+                }
+                // only strings with escapes are copied
+                if (ret == null) {
+                    ret = new StringBuilder();
+                }
+                ret.append(text, start, pos);
+                pos++;
+                ret.append(readEscape());
+                start = pos;
+            }
+        }
+
+        private char readEscape() {
+            char c = next();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw error("truncated unicode escape");
+                    }
+                    try {
+                        char ret = (char) Integer.parseInt(text.substring(pos, pos + 4), 16);
+                        pos += 4;
+                        return ret;
+                    } catch (NumberFormatException e) {
+                        throw error("invalid unicode escape");
+                    }
+                default:
+                    throw error("invalid escape '\\" + c + "'");
+            }
+        }
+
+        private Object readNumber() {
+            int start = pos;
+            boolean integral = true;
+            if (peek() == '-') {
+                pos++;
+            }
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c == '.' || c == 'e' || c == 'E' || c == '+' || (c == '-' && pos > start)) {
+                    integral = false;
+                } else if (c < '0' || c > '9') {
+                    break;
+                }
+                pos++;
+            }
+            String number = text.substring(start, pos);
+            try {
+                if (integral) {
+                    try {
+                        return Long.parseLong(number);
+                    } catch (NumberFormatException e) {
+                        // beyond the range of a long
+                        return Double.parseDouble(number);
+                    }
+                }
+                return Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                throw error("invalid number " + number);
+            }
+        }
+
+        private Object readLiteral(String literal, Object value) {
+            if (!text.startsWith(literal, pos)) {
+                throw error("unexpected '" + text.charAt(pos) + "'");
+            }
+            pos += literal.length();
+            return value;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+
+        private char next() {
+            if (pos >= text.length()) {
+                throw error("unexpected end of line");
+            }
+            return text.charAt(pos++);
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw error("expected '" + c + "'");
+            }
+        }
+
+        private ShellCliException error(String message) {
+            return new ShellCliException("Malformed JSON in line " + lineNumber + " at column " + (pos + 1) + ": " + message);
+        }
+    }
+
+    private static final class HeaderParser implements RecordParser<Map<String, String>> {
+
+        private final RecordParser<List<String>> parser;
+        private List<String> header;
+
+        HeaderParser(RecordParser<List<String>> parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public void parse(ByteBuffer bytes, RecordListener<? super Map<String, String>> listener) {
+            parser.parse(bytes, fields -> record(fields, listener));
+        }
+
+        @Override
+        public void endOfInput(RecordListener<? super Map<String, String>> listener) {
+            parser.endOfInput(fields -> record(fields, listener));
+            header = null;
+        }
+
+        private void record(List<String> fields, RecordListener<? super Map<String, String>> listener) {
+            if (header == null) {
+                header = fields;
+                return;
+            }
+            Map<String, String> record = new LinkedHashMap<>();
+            for (int i = 0; i < fields.size() && i < header.size(); i++) {
+                record.put(header.get(i), fields.get(i));
+            }
+            listener.onRecord(record);
+        }
+    }
+
+}
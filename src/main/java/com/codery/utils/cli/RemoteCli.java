@@ -0,0 +1,253 @@
+package com.codery.utils.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ShellCli} that runs its executions on {@link ShellAgent}s instead of on this host. Commands are compiled as
+ * by {@link PosixCli}, so agents must run on POSIX hosts, and each execution goes to the agent with the fewest
+ * executions in flight. Every agent gets a single connection, shared by all the executions sent to it, and is
+ * pinged every second; an agent that stays silent for three heartbeats, or whose connection fails, is considered
+ * lost and reconnected to a few seconds later.
+ * <p>
+ * Executions on a lost agent that hadn't produced any output nor been given any input are run again on another
+ * agent. The others fail with a {@link ShellCliException}, since they may have had effects already. The same
+ * exception is thrown when no agent can be reached.
+ * <p>
+ * Output, input, timeouts, listeners, scheduling and the result cache work as for local executions, with the
+ * directory and environment of this instance applied on the agent; there is no default directory, so processes run
+ * in the agent's working directory. Output can't be redirected to a file on the agent, and shell sessions and
+ * {@link #pipeline(CliCommand)} aren't supported.
+ */
+public class RemoteCli extends PosixCli {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteCli.class);
+    private static final long DEFAULT_HEARTBEAT_INTERVAL = 1_000;
+    private static final int MISSED_HEARTBEATS = 3;
+    private static final int CONNECT_TIMEOUT = 5_000;
+    private static final long RECONNECT_DELAY = 5_000;
+
+    private final List<Agent> agents;
+    private final String token;
+    private final Object dispatchLock = new Object();
+    private final ScheduledExecutorService heartbeats;
+    private volatile ScheduledFuture<?> heartbeat;
+    private volatile long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+
+    public RemoteCli(List<InetSocketAddress> agents, String token) {
+        this(agents, token, -1);
+    }
+
+    public RemoteCli(List<InetSocketAddress> agents, String token, long timeout) {
+        this(agents, token, timeout, null);
+    }
+
+    /**
+     * @param pumpExecutor runs the output pumps; see {@link AbstractShellCli#AbstractShellCli(long, File, ExecutorService)}.
+     */
+    public RemoteCli(List<InetSocketAddress> agents, String token, long timeout, ExecutorService pumpExecutor) {
+        super(timeout, null, pumpExecutor);
+        if (agents.isEmpty()) {
+            throw new IllegalArgumentException("A RemoteCli needs at least one agent.");
+        }
+        List<Agent> list = new ArrayList<>(agents.size());
+        for (InetSocketAddress each : agents) {
+            list.add(new Agent(each));
+        }
+        this.agents = Collections.unmodifiableList(list);
+        this.token = token;
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "process-runner-remote-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleHeartbeat();
+    }
+
+    /**
+     * Sets how often agents are pinged. An agent is lost once it didn't answer for three intervals, so the interval
+     * must be well under {@link ShellAgent#IDLE_TIMEOUT}.
+     */
+    public RemoteCli heartbeat(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Heartbeat interval must be positive, got " + interval);
+        }
+        this.heartbeatInterval = unit.toMillis(interval);
+        heartbeat.cancel(false);
+        scheduleHeartbeat();
+        return this;
+    }
+
+    private void scheduleHeartbeat() {
+        long interval = heartbeatInterval;
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(interval * MISSED_HEARTBEATS);
+        heartbeat = heartbeats.scheduleWithFixedDelay(() -> {
+            for (Agent each : agents) {
+                AgentConnection connection = each.connection;
+                if (connection != null) {
+                    connection.heartbeat(timeoutNanos);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public List<InetSocketAddress> getAgents() {
+        List<InetSocketAddress> ret = new ArrayList<>(agents.size());
+        for (Agent each : agents) {
+            ret.add(each.address);
+        }
+        return ret;
+    }
+
+    /**
+     * @return whether this instance is connected to {@code agent}. Agents are connected to on the first execution.
+     */
+    public boolean isConnected(InetSocketAddress agent) {
+        return agent(agent).connection != null;
+    }
+
+    /**
+     * @return how many executions are running on {@code agent}.
+     */
+    public int getInFlight(InetSocketAddress agent) {
+        AgentConnection connection = agent(agent).connection;
+        return connection != null ? connection.inFlight() : 0;
+    }
+
+    private Agent agent(InetSocketAddress address) {
+        for (Agent each : agents) {
+            if (each.address.equals(address)) {
+                return each;
+            }
+        }
+        throw new IllegalArgumentException(address + " isn't an agent of this instance.");
+    }
+
+    @Override
+    SessionProtocol sessionProtocol() {
+        return null;
+    }
+
+    @Override
+    boolean isLocal() {
+        return false;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always: the commands of a pipeline would have to run on the same agent.
+     */
+    @Override
+    public Pipeline pipeline(CliCommand cmd) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support pipelines, use FutureExecution.pipe(CliCommand) instead.");
+    }
+
+    @Override
+    Process startProcess(ProcessBuilder pb, EnvironmentSnapshot environment) throws IOException {
+        if (pb.redirectOutput().type() != ProcessBuilder.Redirect.Type.PIPE) {
+            throw new ShellCliException(getClass().getSimpleName() + " can't redirect output to a file, use FutureExecution.stdout(OutputStream) instead.");
+        }
+        String dir = pb.directory() != null ? pb.directory().getPath() : null;
+        RemoteProcess process = new RemoteProcess(this, AgentProtocol.execute(pb.command(), dir, environment.getVariables(), environment.isInheriting()));
+        dispatch(process);
+        return process;
+    }
+
+    /**
+     * Sends {@code process} to the agent with the fewest executions in flight, connecting first to the agents that
+     * aren't connected and aren't waiting to be retried.
+     */
+    void dispatch(RemoteProcess process) throws IOException {
+        IOException unreachable = null;
+        long now = System.nanoTime();
+        for (Agent each : agents) {
+            try {
+                each.connectIfDue(now);
+            } catch (IOException e) {
+                unreachable = e;
+            }
+        }
+
+        AgentConnection target = null;
+        int id;
+        synchronized (dispatchLock) {
+            for (Agent each : agents) {
+                AgentConnection connection = each.connection;
+                if (connection != null && (target == null || connection.inFlight() < target.inFlight())) {
+                    target = connection;
+                }
+            }
+            if (target == null) {
+                throw new IOException("None of the agents " + getAgents() + " can be reached.", unreachable);
+            }
+            // registered before leaving the lock, so the next dispatch sees it in flight
+            id = target.register(process);
+        }
+        process.dispatched(target, id);
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            // waits for the processes still running to be killed on their agents
+            super.close();
+        } finally {
+            heartbeats.shutdownNow();
+            for (Agent each : agents) {
+                AgentConnection connection = each.connection;
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private final class Agent {
+
+        private final InetSocketAddress address;
+        private volatile AgentConnection connection;
+        // guarded by this
+        private boolean down;
+        private long retryAt;
+
+        Agent(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        synchronized void connectIfDue(long now) throws IOException {
+            if (connection != null || (down && now - retryAt < 0)) {
+                return;
+            }
+            try {
+                connection = AgentConnection.open(address, token, CONNECT_TIMEOUT, this::lost);
+                down = false;
+                LOGGER.debug("Connected to agent " + address);
+            } catch (IOException e) {
+                LOGGER.warn("It wasn't possible to connect to agent " + address + ", retrying in " + RECONNECT_DELAY + " ms: " + e);
+                down = true;
+                retryAt = now + TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY);
+                throw e;
+            }
+        }
+
+        synchronized void lost(AgentConnection lost) {
+            if (connection == lost) {
+                connection = null;
+                down = true;
+                retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,392 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A process running on a {@link ShellAgent}, seen through the {@link Process} API so executions of a
+ * {@link RemoteCli} go through the same pumps, timeouts and termination as local ones. Its output streams are fed
+ * by the frames of its connection, and its standard input is sent as frames.
+ * <p>
+ * When the connection is lost before the process sent any output or read any input, nothing of it can have been
+ * observed, so it is dispatched again to another agent; otherwise {@link #onExit()} fails with a
+ * {@link ShellCliException}. A process that can't be started on the agent fails the same way. The process has no
+ * {@link ProcessHandle}: {@link #destroy()} has the agent terminate its whole tree.
+ */
+final class RemoteProcess extends Process {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteProcess.class);
+    private static final int MAX_CHUNK = 65_536;
+
+    private final RemoteCli cli;
+    private final byte[] request;
+    private final FrameInputStream stdout = new FrameInputStream();
+    private final FrameInputStream stderr = new FrameInputStream();
+    private final OutputStream stdin = new FrameOutputStream();
+    private final CompletableFuture<Process> exited = new CompletableFuture<>();
+    private volatile int exitCode;
+    // guarded by this
+    private AgentConnection connection;
+    private int id;
+    private boolean outputReceived;
+    private boolean inputSent;
+    private boolean inputClosed;
+    private boolean killed;
+
+    /**
+     * @param request the {@link AgentProtocol#EXECUTE} payload, sent again on failover.
+     */
+    RemoteProcess(RemoteCli cli, byte[] request) {
+        this.cli = cli;
+        this.request = request;
+    }
+
+    /**
+     * Sends the process to {@code connection}, where it got {@code id}.
+     */
+    void dispatched(AgentConnection connection, int id) {
+        boolean closeInput;
+        synchronized (this) {
+            this.connection = connection;
+            this.id = id;
+            closeInput = inputClosed;
+        }
+        try {
+            connection.send(AgentProtocol.EXECUTE, id, request);
+            if (closeInput) {
+                connection.send(AgentProtocol.STDIN_CLOSE, id, new byte[0]);
+            }
+        } catch (IOException e) {
+            // the connection is lost and may or may not have told this process already
+            connectionLost(connection, e);
+        }
+    }
+
+    void received(AgentConnection from, AgentProtocol.Frame frame) throws IOException {
+        switch (frame.type) {
+            case AgentProtocol.STDOUT:
+                outputReceived();
+                stdout.add(frame.payload);
+                break;
+            case AgentProtocol.STDERR:
+                outputReceived();
+                stderr.add(frame.payload);
+                break;
+            case AgentProtocol.EXIT:
+                exitCode = frame.payload().readInt();
+                detach();
+                stdout.end();
+                stderr.end();
+                exited.complete(this);
+                break;
+            case AgentProtocol.FAILED:
+                detach();
+                fail(new ShellCliException("Agent " + from.getAddress() + " couldn't start the process: " + AgentProtocol.readString(frame.payload())));
+                break;
+            default:
+                LOGGER.debug("Ignoring unknown frame type " + frame.type + " from agent " + from.getAddress() + ".");
+        }
+    }
+
+    private synchronized void outputReceived() {
+        outputReceived = true;
+    }
+
+    private synchronized void detach() {
+        connection = null;
+    }
+
+    /**
+     * Runs the process on another agent if nothing of it was observed yet, or fails it.
+     */
+    void connectionLost(AgentConnection lost, IOException cause) {
+        boolean retry;
+        synchronized (this) {
+            if (connection != lost) {
+                return;
+            }
+            connection = null;
+            retry = !outputReceived && !inputSent && !killed;
+        }
+        if (!retry) {
+            fail(new ShellCliException("Lost agent " + lost.getAddress() + " while it was running the process.", cause));
+            return;
+        }
+        LOGGER.info("Agent " + lost.getAddress() + " was lost before the process started producing output, dispatching it again.");
+        // connecting to another agent may take a while, and this may be the connection's reader thread
+        CompletableFuture.runAsync(() -> {
+            try {
+                cli.dispatch(this);
+            } catch (IOException | RuntimeException e) {
+                fail(new ShellCliException("Lost agent " + lost.getAddress() + " and no other agent could run the process.", e));
+            }
+        });
+    }
+
+    private void fail(ShellCliException error) {
+        stdout.end();
+        stderr.end();
+        exited.completeExceptionally(error);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return stdin;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return stdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return stderr;
+    }
+
+    /**
+     * @throws ShellCliException if the process was lost with its agent, or couldn't be started.
+     */
+    @Override
+    public int waitFor() throws InterruptedException {
+        try {
+            exited.get();
+        } catch (ExecutionException e) {
+            throw (ShellCliException) e.getCause();
+        }
+        return exitCode;
+    }
+
+    @Override
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            exited.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw (ShellCliException) e.getCause();
+        } catch (TimeoutException e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int exitValue() {
+        if (!exited.isDone()) {
+            throw new IllegalThreadStateException("The process is still running.");
+        }
+        try {
+            exited.getNow(null);
+        } catch (CompletionException e) {
+            throw (ShellCliException) e.getCause();
+        }
+        return exitCode;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return !exited.isDone();
+    }
+
+    @Override
+    public CompletableFuture<Process> onExit() {
+        return exited.copy();
+    }
+
+    @Override
+    public boolean supportsNormalTermination() {
+        return true;
+    }
+
+    /**
+     * Has the agent terminate the process and its descendants, with the {@link RemoteCli}'s kill grace period.
+     */
+    @Override
+    public void destroy() {
+        kill(cli.killGracePeriodMillis());
+    }
+
+    @Override
+    public Process destroyForcibly() {
+        kill(0);
+        return this;
+    }
+
+    private void kill(long graceMillis) {
+        AgentConnection current;
+        int currentId;
+        synchronized (this) {
+            killed = true;
+            current = connection;
+            currentId = id;
+        }
+        if (current == null) {
+            if (!exited.isDone()) {
+                // lost, or being dispatched again
+                fail(new ShellCliException("The process was killed while it had no agent."));
+            }
+            return;
+        }
+        try {
+            current.send(AgentProtocol.KILL, currentId, AgentProtocol.kill(graceMillis));
+        } catch (IOException e) {
+            LOGGER.debug("It wasn't possible to send a kill to agent " + current.getAddress() + ".", e);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RemoteProcess{agent=" + (connection != null ? connection.getAddress() : null) + ", id=" + id + "}";
+    }
+
+    /**
+     * Output of the process, as chunks handed over by the connection's reader. Chunks are queued rather than waited
+     * for, so a slow reader never holds up the other executions of the connection.
+     */
+    private static final class FrameInputStream extends InputStream {
+
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+        private volatile boolean closed;
+        private byte[] current;
+        private int position;
+        private boolean ended;
+
+        void add(byte[] chunk) {
+            if (chunk.length > 0 && !closed) {
+                chunks.add(chunk);
+            }
+        }
+
+        void end() {
+            chunks.add(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!advance()) {
+                return -1;
+            }
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return current != null ? current.length - position : 0;
+        }
+
+        private boolean advance() throws IOException {
+            while (current == null || position == current.length) {
+                if (ended) {
+                    return false;
+                }
+                byte[] next;
+                try {
+                    next = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the output of a remote process.");
+                }
+                if (next == END) {
+                    ended = true;
+                    return false;
+                }
+                current = next;
+                position = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            chunks.clear();
+            ended = true;
+        }
+    }
+
+    /**
+     * Standard input of the process, sent to its agent. Once a byte was sent, the process can't be run elsewhere.
+     */
+    private final class FrameOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            AgentConnection current;
+            int currentId;
+            synchronized (RemoteProcess.this) {
+                if (inputClosed) {
+                    throw new IOException("Stream closed");
+                }
+                inputSent = true;
+                current = connection;
+                currentId = id;
+            }
+            if (current == null) {
+                throw new SocketException("The agent running the process was lost.");
+            }
+            for (int sent = 0; sent < len; sent += MAX_CHUNK) {
+                current.send(AgentProtocol.STDIN, currentId, b, off + sent, Math.min(MAX_CHUNK, len - sent));
+            }
+        }
+
+        @Override
+        public void close() {
+            AgentConnection current;
+            int currentId;
+            synchronized (RemoteProcess.this) {
+                if (inputClosed) {
+                    return;
+                }
+                inputClosed = true;
+                current = connection;
+                currentId = id;
+            }
+            if (current == null) {
+                // sent along with the process if it's dispatched again
+                return;
+            }
+            try {
+                current.send(AgentProtocol.STDIN_CLOSE, currentId, new byte[0]);
+            } catch (IOException e) {
+                LOGGER.debug("It wasn't possible to close the input of a process on agent " + current.getAddress() + ".", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.codery.utils.cli;
+
+/**
+ * A limit an execution's process tree was killed for exceeding, see {@link ExecutionResult#getLimitExceeded()}.
+ */
+public enum ResourceLimit {
+
+    /**
+     * The CPU time of the whole tree, see {@link AbstractShellCli#cpuTimeLimit(long, java.util.concurrent.TimeUnit)}.
+     */
+    CPU_TIME,
+
+    /**
+     * The memory the whole tree had resident at once, see {@link AbstractShellCli#residentMemoryLimit(long)}.
+     */
+    RESIDENT_MEMORY
+
+}
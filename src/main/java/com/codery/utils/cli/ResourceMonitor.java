@@ -0,0 +1,218 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples the CPU time and resident memory of a process tree until its root exits, and reports the first limit
+ * the tree exceeds. On Linux both come from {@code /proc}; elsewhere the CPU time comes from
+ * {@link ProcessHandle.Info} and the memory isn't known.
+ * <p>
+ * The CPU time of the tree is the sum of the last CPU time seen for each process that was part of it, so the
+ * processes that start and exit between two samples, and what the others use after the last one, aren't counted.
+ * The peak resident memory is the largest resident total of a sample, or the peak of a single process if that is
+ * larger. All monitors share one sampling thread, and a sample reads two small files per process of the tree.
+ */
+final class ResourceMonitor implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceMonitor.class);
+    static final long DEFAULT_INTERVAL = 100;
+    private static final Path PROC = Paths.get("/proc");
+    private static final boolean HAS_PROC = Files.isDirectory(PROC.resolve("self"));
+    // USER_HZ, the unit of the times in /proc/<pid>/stat, is 100 on every architecture the JDK runs on
+    private static final long NANOS_PER_TICK = 10_000_000;
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "process-runner-resource-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ProcessHandle root;
+    private final long cpuLimitNanos;
+    private final long residentLimitBytes;
+    private final Consumer<ResourceLimit> onExceeded;
+    // guarded by this
+    private final Map<Long, Long> cpuByPid = new HashMap<>();
+    private long cpuNanos;
+    private long peakResidentBytes = -1;
+    private ResourceLimit exceeded;
+    private ScheduledFuture<?> task;
+
+    private ResourceMonitor(ProcessHandle root, long cpuLimitNanos, long residentLimitBytes, Consumer<ResourceLimit> onExceeded) {
+        this.root = root;
+        this.cpuLimitNanos = cpuLimitNanos;
+        this.residentLimitBytes = residentLimitBytes;
+        this.onExceeded = onExceeded;
+    }
+
+    /**
+     * @param cpuLimitNanos      CPU time past which {@code onExceeded} is called, or 0 for no limit.
+     * @param residentLimitBytes resident memory past which {@code onExceeded} is called, or 0 for no limit; only
+     *                           enforced where {@code /proc} is available.
+     * @return the monitor, or null for a process without a {@link ProcessHandle}, like a remote one.
+     */
+    static ResourceMonitor start(Process process, long intervalMillis, long cpuLimitNanos, long residentLimitBytes, Consumer<ResourceLimit> onExceeded) {
+        ProcessHandle root;
+        try {
+            root = process.toHandle();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        if (residentLimitBytes > 0 && !HAS_PROC) {
+            LOGGER.warn("Resident memory limits can't be enforced without /proc.");
+        }
+        ResourceMonitor monitor = new ResourceMonitor(root, cpuLimitNanos, residentLimitBytes, onExceeded);
+        synchronized (monitor) {
+            monitor.task = SAMPLER.scheduleAtFixedRate(monitor, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        process.onExit().whenComplete((ignored, error) -> monitor.stop());
+        return monitor;
+    }
+
+    @Override
+    public void run() {
+        ResourceLimit limit;
+        synchronized (this) {
+            if (exceeded != null || task == null || task.isCancelled()) {
+                return;
+            }
+            long resident = sample();
+            if (cpuLimitNanos > 0 && cpuNanos > cpuLimitNanos) {
+                exceeded = ResourceLimit.CPU_TIME;
+            } else if (residentLimitBytes > 0 && resident > residentLimitBytes) {
+                exceeded = ResourceLimit.RESIDENT_MEMORY;
+            } else {
+                return;
+            }
+            limit = exceeded;
+        }
+        try {
+            onExceeded.accept(limit);
+        } catch (RuntimeException e) {
+            LOGGER.warn("It wasn't possible to enforce the " + limit + " limit of process " + root.pid() + ".", e);
+        }
+    }
+
+    /**
+     * @return the resident memory of the tree now, or -1 if it isn't known.
+     */
+    private long sample() {
+        List<ProcessHandle> tree = new ArrayList<>();
+        tree.add(root);
+        root.descendants().forEach(tree::add);
+        long resident = HAS_PROC ? 0 : -1;
+        for (ProcessHandle each : tree) {
+            long cpu = HAS_PROC ? procCpuNanos(each.pid()) : infoCpuNanos(each);
+            if (cpu >= 0) {
+                cpuByPid.merge(each.pid(), cpu, Math::max);
+            }
+            if (HAS_PROC) {
+                long[] memory = procMemoryBytes(each.pid());
+                if (memory != null) {
+                    resident += memory[0];
+                    peakResidentBytes = Math.max(peakResidentBytes, memory[1]);
+                }
+            }
+        }
+        long total = 0;
+        for (long each : cpuByPid.values()) {
+            total += each;
+        }
+        cpuNanos = total;
+        if (resident >= 0) {
+            peakResidentBytes = Math.max(peakResidentBytes, resident);
+        }
+        return resident;
+    }
+
+    synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    synchronized Duration getCpuTime() {
+        return Duration.ofNanos(cpuNanos);
+    }
+
+    /**
+     * @return the peak resident memory of the tree, or -1 if it isn't known.
+     */
+    synchronized long getPeakResidentBytes() {
+        return peakResidentBytes;
+    }
+
+    // user and system time of the process itself, or -1 once it's gone
+    private static long procCpuNanos(long pid) {
+        String stat = read(PROC.resolve(Long.toString(pid)).resolve("stat"));
+        if (stat == null) {
+            return -1;
+        }
+        // the command name, in parentheses, may contain spaces
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        // utime and stime are the 14th and 15th fields, and the state, the 3rd, is the first one after the name
+        try {
+            return (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) * NANOS_PER_TICK;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private static long infoCpuNanos(ProcessHandle process) {
+        Optional<Duration> cpu = process.info().totalCpuDuration();
+        return cpu.isPresent() ? cpu.get().toNanos() : -1;
+    }
+
+    // the current and peak resident memory of the process, or null once it's gone
+    private static long[] procMemoryBytes(long pid) {
+        String status = read(PROC.resolve(Long.toString(pid)).resolve("status"));
+        if (status == null) {
+            return null;
+        }
+        long[] ret = new long[2];
+        for (String line : status.split("\n")) {
+            if (line.startsWith("VmRSS:")) {
+                ret[0] = kilobytes(line);
+            } else if (line.startsWith("VmHWM:")) {
+                ret[1] = kilobytes(line);
+            }
+        }
+        return ret;
+    }
+
+    private static long kilobytes(String line) {
+        String value = line.substring(line.indexOf(':') + 1).trim();
+        int unit = value.indexOf(' ');
+        try {
+            return Long.parseLong(unit > 0 ? value.substring(0, unit) : value) * 1024;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String read(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+}
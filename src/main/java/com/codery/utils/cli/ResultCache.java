@@ -0,0 +1,180 @@
+package com.codery.utils.cli;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Results of {@link FutureExecution#cached() cached} executions, evicted once older than a time to live or, least
+ * recently used first, once there are more than {@code maxEntries}. An execution still running is in the cache as
+ * well, so identical executions requested meanwhile share it instead of starting their own process. Failed and
+ * timed out executions aren't kept.
+ */
+final class ResultCache {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, CachedResult> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResultCache(int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Result cache size must be positive, got " + maxEntries);
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Result cache time to live must be positive, got " + ttl);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() > ResultCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param execution starts the execution, on a miss only.
+     * @return the cached result for {@code key}, the execution already running for it, or a new execution.
+     */
+    CompletableFuture<ExecutionResult> get(Key key, Supplier<CompletableFuture<ExecutionResult>> execution) {
+        CachedResult entry;
+        boolean miss = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.nanoTime())) {
+                entries.remove(key);
+                evictions.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new CachedResult();
+                entries.put(key, entry);
+                miss = true;
+            }
+        }
+
+        if (!miss) {
+            if (entry.result.isDone()) {
+                hits.increment();
+            } else {
+                coalesced.increment();
+            }
+            // callers can't complete or cancel the shared future
+            return entry.result.copy();
+        }
+
+        misses.increment();
+        CompletableFuture<ExecutionResult> started;
+        try {
+            started = execution.get();
+        } catch (RuntimeException e) {
+            remove(key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+        CachedResult owned = entry;
+        started.whenComplete((result, error) -> {
+            if (error != null || result.isTimedOut()) {
+                remove(key, owned);
+            } else {
+                owned.expiresAt = System.nanoTime() + ttlNanos;
+            }
+            if (error != null) {
+                owned.result.completeExceptionally(error);
+            } else {
+                owned.result.complete(result);
+            }
+        });
+        return owned.result.copy();
+    }
+
+    private synchronized void remove(Key key, CachedResult entry) {
+        entries.remove(key, entry);
+    }
+
+    ResultCacheStatistics statistics() {
+        int size;
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (Iterator<CachedResult> it = entries.values().iterator(); it.hasNext(); ) {
+                if (it.next().isExpired(now)) {
+                    it.remove();
+                    evictions.increment();
+                }
+            }
+            size = entries.size();
+        }
+        return new ResultCacheStatistics(hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), size);
+    }
+
+    private static final class CachedResult {
+
+        private final CompletableFuture<ExecutionResult> result = new CompletableFuture<>();
+        // set once the execution finished; entries still running never expire
+        private volatile long expiresAt;
+
+        boolean isExpired(long now) {
+            return result.isDone() && expiresAt != 0 && now - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * What makes two executions interchangeable: the command line started, the environment and the directory it
+     * ran in, and how much of its output was captured.
+     */
+    static final class Key {
+
+        private final CliCommand command;
+        private final EnvironmentSnapshot environment;
+        private final File dir;
+        private final int captureHeadBytes;
+        private final int captureTailBytes;
+
+        Key(CliCommand command, EnvironmentSnapshot environment, File dir, int captureHeadBytes, int captureTailBytes) {
+            this.command = command;
+            this.environment = environment;
+            this.dir = dir;
+            this.captureHeadBytes = captureHeadBytes;
+            this.captureTailBytes = captureTailBytes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key that = (Key) o;
+            return captureHeadBytes == that.captureHeadBytes && captureTailBytes == that.captureTailBytes
+                    && command.equals(that.command) && environment.equals(that.environment)
+                    && (dir != null ? dir.equals(that.dir) : that.dir == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = command.hashCode();
+            result = 31 * result + environment.hashCode();
+            result = 31 * result + (dir != null ? dir.hashCode() : 0);
+            result = 31 * result + captureHeadBytes;
+            result = 31 * result + captureTailBytes;
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.codery.utils.cli;
+
+/**
+ * A point-in-time view of a {@link ShellCli}'s result cache, see {@link ShellCli#useResultCache(int, long, java.util.concurrent.TimeUnit)}.
+ */
+public final class ResultCacheStatistics {
+
+    static final ResultCacheStatistics DISABLED = new ResultCacheStatistics(0, 0, 0, 0, 0);
+
+    private final long hits;
+    private final long misses;
+    private final long coalesced;
+    private final long evictions;
+    private final int size;
+
+    ResultCacheStatistics(long hits, long misses, long coalesced, long evictions, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.coalesced = coalesced;
+        this.evictions = evictions;
+        this.size = size;
+    }
+
+    /**
+     * @return executions answered with a result already in the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return executions that started a process.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return executions that joined an identical execution still running instead of starting a process.
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return results dropped because they expired or the cache was full.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the share of executions that didn't start a process, from 0 to 1.
+     */
+    public double getHitRate() {
+        long total = hits + misses + coalesced;
+        return total == 0 ? 0 : (double) (hits + coalesced) / total;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits + ", misses=" + misses + ", coalesced=" + coalesced + ", evictions=" + evictions + ", size=" + size;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.codery.utils.cli;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Up to {@code size} warm {@link ShellSession}s. Tasks get an idle session, a new one while the pool isn't full, or
+ * wait in line for the next session released. Sessions that died, timed out or belong to an older generation (see
+ * {@link #recycle()}) are killed on release and replaced on demand.
+ */
+class SessionPool {
+
+    interface Task {
+
+        void run(ShellSession session);
+
+        void failed(RuntimeException error);
+    }
+
+    interface Factory {
+
+        ShellSession start(int generation);
+    }
+
+    private final int size;
+    private final Factory factory;
+    private final Deque<ShellSession> idle = new ArrayDeque<>();
+    private final Deque<Task> pending = new ArrayDeque<>();
+    private int live;
+    private int generation;
+    private boolean closed;
+
+    SessionPool(int size, Factory factory) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Session pool size must be positive, got " + size);
+        }
+        this.size = size;
+        this.factory = factory;
+    }
+
+    void submit(Task task) {
+        ShellSession session;
+        int spawnGeneration;
+        synchronized (this) {
+            if (closed) {
+                throw new ShellCliException("The session pool is closed.");
+            }
+            session = idle.poll();
+            if (session == null && live >= size) {
+                pending.add(task);
+                return;
+            }
+            if (session == null) {
+                live++;
+            }
+            spawnGeneration = generation;
+        }
+        runOn(session, spawnGeneration, task);
+    }
+
+    /**
+     * Gives a session back after a command, handing it to the next waiting task if there is one.
+     *
+     * @param healthy false if the session must not be reused, like after a timeout.
+     */
+    void release(ShellSession session, boolean healthy) {
+        Task next;
+        int spawnGeneration;
+        synchronized (this) {
+            if (!healthy || closed || session.getGeneration() != generation || !session.isAlive()) {
+                session.kill();
+                session = null;
+                live--;
+            }
+            next = closed ? null : pending.poll();
+            if (next == null) {
+                if (session != null) {
+                    idle.push(session);
+                }
+                return;
+            }
+            if (session == null) {
+                live++;
+            }
+            spawnGeneration = generation;
+        }
+        runOn(session, spawnGeneration, next);
+    }
+
+    private void runOn(ShellSession session, int spawnGeneration, Task task) {
+        if (session == null) {
+            try {
+                session = factory.start(spawnGeneration);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    live--;
+                }
+                task.failed(e);
+                return;
+            }
+        }
+        task.run(session);
+    }
+
+    /**
+     * Makes every session started so far be replaced, such as after the environment changed. Idle sessions are
+     * killed right away, busy ones when released.
+     */
+    void recycle() {
+        List<ShellSession> stale;
+        synchronized (this) {
+            generation++;
+            stale = new ArrayList<>(idle);
+            idle.clear();
+            live -= stale.size();
+        }
+        for (ShellSession each : stale) {
+            each.kill();
+        }
+    }
+
+    void close() {
+        List<ShellSession> stale;
+        List<Task> waiting;
+        synchronized (this) {
+            closed = true;
+            stale = new ArrayList<>(idle);
+            idle.clear();
+            live -= stale.size();
+            waiting = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (ShellSession each : stale) {
+            each.kill();
+        }
+        for (Task each : waiting) {
+            each.failed(new ShellCliException("The session pool was closed before the command could run."));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.codery.utils.cli;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+/**
+ * How a backend talks to the long-lived shell of a {@link ShellSession}.
+ */
+interface SessionProtocol {
+
+    /**
+     * @return the command line of the shell that reads commands from its standard input.
+     */
+    String[] shellCommandLine();
+
+    /**
+     * @param commandLine the command as the shell should read it, or null for none.
+     * @return the text to write to the shell so it runs {@code commandLine} in {@code dir}, with its standard input
+     * closed, and then prints {@code marker + ":" + exitCode} and a line break to the standard output and
+     * {@code marker} and a line break to the error output.
+     */
+    String script(String commandLine, File dir, String marker);
+
+    /**
+     * @return the charset the shell expects its input in.
+     */
+    Charset charset();
+
+}
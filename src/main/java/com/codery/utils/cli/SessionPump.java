@@ -0,0 +1,49 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Pumps the output of one command run in a {@link ShellSession}, stopping at the command's end marker.
+ */
+class SessionPump extends OutputPump {
+
+    private final ShellSession.SessionStream stream;
+    private final String marker;
+    private final boolean withExitCode;
+    private final List<OutputStream> outStreams;
+    private volatile int exitCode;
+
+    SessionPump(ShellSession.SessionStream stream, String marker, boolean withExitCode, List<OutputStream> outStreams) {
+        this.stream = stream;
+        this.marker = marker;
+        this.withExitCode = withExitCode;
+        this.outStreams = outStreams;
+    }
+
+    @Override
+    public void run() {
+        try {
+            exitCode = stream.pumpUntil(marker, withExitCode, outStreams, this);
+        } catch (IOException e) {
+            throw new ShellCliException("An error occurred trying to write into the output streams.", e);
+        } finally {
+            for (OutputStream out : outStreams) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    throw new ShellCliException("It wasn't possible to flush an outputstream.", e);
+                }
+            }
+        }
+    }
+
+    void counted(long bytes) {
+        pumped(bytes);
+    }
+
+    int getExitCode() {
+        return exitCode;
+    }
+}
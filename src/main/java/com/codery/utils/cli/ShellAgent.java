@@ -0,0 +1,416 @@
+package com.codery.utils.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Worker that runs the executions of {@link RemoteCli}s on its host. Every client connection gets a thread reading
+ * its frames; processes are started as a {@link PosixCli} would start them and their output is sent back as it's
+ * read, so any number of executions share the connection. Processes of a connection that is closed or goes silent
+ * for {@link #IDLE_TIMEOUT} milliseconds are killed with their descendants, and so is everything still running on
+ * {@link #close()}.
+ * <p>
+ * Clients authenticate with a shared token, but nothing is encrypted: anyone able to reach the port with the token
+ * runs commands as the agent's user. Bind it to loopback or to a trusted network only.
+ */
+public class ShellAgent implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShellAgent.class);
+    /**
+     * How long a connection may go without any frame; {@link RemoteCli} pings much more often than that.
+     */
+    public static final int IDLE_TIMEOUT = 30_000;
+    private static final int HANDSHAKE_TIMEOUT = 10_000;
+    private static final int MAX_CHUNK = 65_536;
+    private static final byte[] STDIN_END = new byte[0];
+
+    private final ServerSocket server;
+    private final byte[] token;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final ProcessReaper reaper = new ProcessReaper();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+
+    /**
+     * Listens on a free port of the loopback interface; see {@link #getAddress()}.
+     */
+    public ShellAgent(String token) {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), token, null);
+    }
+
+    public ShellAgent(InetSocketAddress bindAddress, String token) {
+        this(bindAddress, token, null);
+    }
+
+    /**
+     * @param pumpExecutor runs the output pumps and input writers of every process. If null, this agent creates an
+     *                     {@link PumpExecutors#elastic()} pool and shuts it down on {@link #close()}.
+     */
+    public ShellAgent(InetSocketAddress bindAddress, String token, ExecutorService pumpExecutor) {
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("An agent needs a token.");
+        }
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        try {
+            this.server = new ServerSocket();
+            server.bind(bindAddress);
+        } catch (IOException e) {
+            throw new ShellCliException("It wasn't possible to listen on " + bindAddress + ".", e);
+        }
+        this.ownsExecutor = pumpExecutor == null;
+        this.executor = pumpExecutor != null ? pumpExecutor : PumpExecutors.elastic();
+        Thread acceptor = new Thread(this::accept, "process-runner-agent-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info("Shell agent listening on " + getAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    /**
+     * @return how many processes started by this agent are still running.
+     */
+    public int getRunning() {
+        return reaper.liveCount();
+    }
+
+    /**
+     * @return how many clients are connected.
+     */
+    public int getConnections() {
+        return connections.size();
+    }
+
+    private void accept() {
+        while (!isClosed.get()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!isClosed.get()) {
+                    LOGGER.warn("Shell agent on " + getAddress() + " stopped accepting connections.", e);
+                }
+                return;
+            }
+            Connection connection = new Connection(socket);
+            connections.add(connection);
+            if (isClosed.get()) {
+                connection.close();
+                return;
+            }
+            Thread reader = new Thread(connection, "process-runner-agent-" + server.getLocalPort() + "-" + socket.getRemoteSocketAddress());
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * Stops listening, drops every connection and kills the processes still running.
+     */
+    @Override
+    public void close() {
+        if (!isClosed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            LOGGER.debug("It wasn't possible to close the agent's server socket.", e);
+        }
+        for (Connection each : connections) {
+            each.close();
+        }
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private final class Connection implements Runnable {
+
+        private final Socket socket;
+        private final Map<Integer, Execution> executions = new ConcurrentHashMap<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private DataOutputStream out;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                if (!handshake(in)) {
+                    return;
+                }
+                socket.setSoTimeout(IDLE_TIMEOUT);
+                AgentProtocol.Frame frame;
+                while ((frame = AgentProtocol.read(in)) != null) {
+                    handle(frame);
+                }
+            } catch (IOException e) {
+                if (!closed.get()) {
+                    LOGGER.debug("Lost connection with " + socket.getRemoteSocketAddress() + ".", e);
+                }
+            } finally {
+                close();
+            }
+        }
+
+        private boolean handshake(DataInputStream in) throws IOException {
+            AgentProtocol.Frame hello = AgentProtocol.read(in);
+            if (hello == null || hello.type != AgentProtocol.HELLO) {
+                return false;
+            }
+            DataInputStream payload = hello.payload();
+            int version = payload.readInt();
+            byte[] received = AgentProtocol.readString(payload).getBytes(StandardCharsets.UTF_8);
+            if (version != AgentProtocol.VERSION) {
+                send(AgentProtocol.FAILED, 0, AgentProtocol.message("Unsupported protocol version " + version + "."));
+                return false;
+            }
+            if (!MessageDigest.isEqual(received, token)) {
+                LOGGER.warn("Refused a connection with a wrong token from " + socket.getRemoteSocketAddress() + ".");
+                send(AgentProtocol.FAILED, 0, AgentProtocol.message("Wrong token."));
+                return false;
+            }
+            send(AgentProtocol.WELCOME, 0, new byte[0]);
+            return true;
+        }
+
+        private void handle(AgentProtocol.Frame frame) throws IOException {
+            switch (frame.type) {
+                case AgentProtocol.EXECUTE:
+                    AgentProtocol.Execute request;
+                    try {
+                        request = AgentProtocol.Execute.decode(frame);
+                    } catch (IOException e) {
+                        // the frame was read whole, so only its execution fails and the connection goes on
+                        send(AgentProtocol.FAILED, frame.id, AgentProtocol.message("Malformed execution request: " + e.getMessage()));
+                        break;
+                    }
+                    execute(frame.id, request);
+                    break;
+                case AgentProtocol.STDIN:
+                    Execution target = executions.get(frame.id);
+                    if (target != null) {
+                        target.input(frame.payload);
+                    }
+                    break;
+                case AgentProtocol.STDIN_CLOSE:
+                    Execution closing = executions.get(frame.id);
+                    if (closing != null) {
+                        closing.input(STDIN_END);
+                    }
+                    break;
+                case AgentProtocol.KILL:
+                    Execution killed = executions.get(frame.id);
+                    if (killed != null) {
+                        killed.kill(frame.payload().readLong());
+                    }
+                    break;
+                case AgentProtocol.PING:
+                    send(AgentProtocol.PONG, 0, frame.payload);
+                    break;
+                default:
+                    LOGGER.debug("Ignoring unknown frame type " + frame.type + " from " + socket.getRemoteSocketAddress() + ".");
+            }
+        }
+
+        private void execute(int id, AgentProtocol.Execute request) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(request.cmdLine);
+            Process process;
+            try {
+                EnvironmentSnapshot.empty(true).inheriting(request.inherit).with(request.variables).applyTo(pb.environment());
+                if (request.dir != null) {
+                    File dir = new File(request.dir);
+                    if (!dir.exists()) {
+                        LOGGER.info("Directory \"" + dir + "\" don't exist and will be created.");
+                        Files.createDirectory(dir.toPath());
+                    }
+                    pb.directory(dir);
+                }
+                LOGGER.debug("Running command \"" + String.join(" ", request.cmdLine) + "\" in directory \"" + pb.directory() + "\" for " + socket.getRemoteSocketAddress());
+                process = reaper.track(pb.start());
+            } catch (IOException e) {
+                send(AgentProtocol.FAILED, id, AgentProtocol.message(e.getMessage()));
+                return;
+            } catch (RuntimeException e) {
+                // like an environment variable name the OS rejects: fails this execution, not the connection
+                LOGGER.debug("Execution " + id + " for " + socket.getRemoteSocketAddress() + " couldn't be started.", e);
+                send(AgentProtocol.FAILED, id, AgentProtocol.message(e.toString()));
+                return;
+            }
+
+            Execution execution = new Execution(process);
+            executions.put(id, execution);
+            StreamPump stdPump = new StreamPump(process.getInputStream(), Collections.<OutputStream>singletonList(new FrameOutputStream(AgentProtocol.STDOUT, id)));
+            StreamPump errPump = new StreamPump(process.getErrorStream(), Collections.<OutputStream>singletonList(new FrameOutputStream(AgentProtocol.STDERR, id)));
+            // every output frame is sent before the exit code
+            CompletableFuture.allOf(CompletableFuture.runAsync(stdPump, executor), CompletableFuture.runAsync(errPump, executor), process.onExit())
+                    .whenComplete((ignored, error) -> {
+                        executions.remove(id);
+                        execution.endInput();
+                        try {
+                            send(AgentProtocol.EXIT, id, AgentProtocol.exitCode(process.exitValue()));
+                        } catch (IOException e) {
+                            LOGGER.debug("It wasn't possible to send the exit code of \"" + request.cmdLine + "\".", e);
+                        }
+                    });
+        }
+
+        void send(byte type, int id, byte[] payload) throws IOException {
+            send(type, id, payload, 0, payload.length);
+        }
+
+        void send(byte type, int id, byte[] payload, int off, int len) throws IOException {
+            synchronized (out) {
+                AgentProtocol.write(out, type, id, payload, off, len);
+            }
+        }
+
+        /**
+         * Drops the connection and kills the processes it started, since nobody is left to read their output.
+         */
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug("It wasn't possible to close the connection with " + socket.getRemoteSocketAddress() + ".", e);
+            }
+            for (Execution each : executions.values()) {
+                each.kill(0);
+            }
+        }
+
+        /**
+         * Sends what a pump reads as frames of its stream.
+         */
+        private final class FrameOutputStream extends OutputStream {
+
+            private final byte type;
+            private final int id;
+
+            FrameOutputStream(byte type, int id) {
+                this.type = type;
+                this.id = id;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (closed.get()) {
+                    throw new SocketException("Connection with " + socket.getRemoteSocketAddress() + " is closed.");
+                }
+                for (int sent = 0; sent < len; sent += MAX_CHUNK) {
+                    send(type, id, b, off + sent, Math.min(MAX_CHUNK, len - sent));
+                }
+            }
+        }
+    }
+
+    /**
+     * A running process. Its standard input is written by a task of its own, started with the first chunk, so a
+     * process that doesn't read its input doesn't hold up the frames of the others; chunks wait in memory until
+     * the process reads them.
+     */
+    private final class Execution {
+
+        private final Process process;
+        private BlockingQueue<byte[]> input;
+
+        Execution(Process process) {
+            this.process = process;
+        }
+
+        synchronized void input(byte[] chunk) {
+            if (input == null) {
+                if (chunk == STDIN_END) {
+                    closeInput();
+                    return;
+                }
+                input = new LinkedBlockingQueue<>();
+                CompletableFuture.runAsync(this::writeInput, executor);
+            }
+            input.add(chunk);
+        }
+
+        private void writeInput() {
+            OutputStream stdin = process.getOutputStream();
+            try {
+                byte[] chunk;
+                while ((chunk = input.take()) != STDIN_END) {
+                    stdin.write(chunk);
+                    stdin.flush();
+                }
+            } catch (IOException e) {
+                // the process closed its input or exited without reading all of it
+                LOGGER.debug("Stopped writing the standard input of a process.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closeInput();
+            }
+        }
+
+        private void closeInput() {
+            try {
+                process.getOutputStream().close();
+            } catch (IOException e) {
+                LOGGER.debug("It wasn't possible to close the standard input of a process.", e);
+            }
+        }
+
+        void kill(long graceMillis) {
+            ProcessReaper.terminate(process, graceMillis);
+            endInput();
+        }
+
+        // unblocks the input writer of a process that is gone
+        synchronized void endInput() {
+            if (input != null) {
+                input.add(STDIN_END);
+            }
+        }
+    }
+
+}
@@ -2,7 +2,13 @@ package com.codery.utils.cli;
 
 import java.io.File;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Created by thomasadriano on 09/07/15.
@@ -15,14 +21,110 @@ public interface ShellCli extends AutoCloseable {
 
     Map<String,String> getEnvironentVariables();
 
+    /**
+     * Chooses whether processes start with the JVM's environment plus the variables set on this instance, which is
+     * the default, or with those variables only.
+     */
+    ShellCli inheritEnvironment(boolean inherit);
+
+    /**
+     * @return the environment handed to the processes started from now on. It never changes, so it can be kept and
+     * compared with later snapshots.
+     */
+    EnvironmentSnapshot getEnvironment();
+
     FutureExecution command(CliCommand cmd);
 
+    /**
+     * Same as chaining {@link FutureExecution#pipe}, {@link FutureExecution#and} and {@link FutureExecution#background}
+     * from {@link #command(CliCommand)}, for a tree built beforehand. Executing the same tree again reuses its
+     * compiled command line.
+     */
+    FutureExecution command(CommandTree tree);
+
+    /**
+     * @return a {@link Pipeline} whose first stage is {@code cmd}, to be extended with more commands and line stages.
+     */
+    Pipeline pipeline(CliCommand cmd);
+
+    /**
+     * Executes every command with at most {@code parallelism} of them running at once, collecting all results.
+     *
+     * @return the results, in the same order as {@code cmds}.
+     * @see #executeAll(Collection, int, BatchErrorMode)
+     */
+    List<ExecutionResult> executeAll(Collection<CliCommand> cmds, int parallelism);
+
+    /**
+     * Executes every command with at most {@code parallelism} of them running at once, using this instance's
+     * environment, directory and output targets.
+     *
+     * @return the results, in the same order as {@code cmds}.
+     * @throws ShellCliException if the batch failed according to {@code errorMode}.
+     */
+    List<ExecutionResult> executeAll(Collection<CliCommand> cmds, int parallelism, BatchErrorMode errorMode);
+
+    /**
+     * Asynchronous version of {@link #executeAll(Collection, int, BatchErrorMode)} that also hands every result to
+     * {@code onResult} as soon as its command finishes.
+     */
+    CompletableFuture<List<ExecutionResult>> executeAllAsync(Collection<CliCommand> cmds, int parallelism, BatchErrorMode errorMode, Consumer<ExecutionResult> onResult);
+
     ShellCli dir(File dir);
 
+    /**
+     * Runs commands in up to {@code poolSize} warm shell sessions instead of starting a process for each one.
+     * A {@code poolSize} of 0 goes back to a process per command.
+     *
+     * @throws UnsupportedOperationException if this backend doesn't support sessions.
+     */
+    ShellCli useSessions(int poolSize);
+
+    /**
+     * Queues every execution started from now on in {@code scheduler}, which may be shared with other instances to
+     * limit their executions together. A null scheduler starts executions right away, which is the default.
+     */
+    ShellCli useScheduler(ExecutionScheduler scheduler);
+
+    /**
+     * Keeps the results of {@link FutureExecution#cached() cached} executions for {@code ttl}, up to
+     * {@code maxEntries} of them, evicting the least recently used first. Calling it again starts an empty cache, and
+     * a {@code maxEntries} of 0 disables caching.
+     */
+    ShellCli useResultCache(int maxEntries, long ttl, TimeUnit unit);
+
+    /**
+     * @return the hits and misses of the result cache so far, all zero if it isn't used.
+     */
+    ResultCacheStatistics getResultCacheStatistics();
+
     ShellCli addStandardOutput(OutputStream dest);
 
     ShellCli addErrorOutput(OutputStream dest);
+
+    /**
+     * Adds a standard output target that decodes the output with {@code charset} and hands it to {@code listener}
+     * line by line.
+     *
+     * @see LineOutputAdapter
+     */
+    ShellCli addStandardOutput(LineListener listener, Charset charset);
+
+    /**
+     * Adds an error output target that decodes the output with {@code charset} and hands it to {@code listener}
+     * line by line.
+     *
+     * @see LineOutputAdapter
+     */
+    ShellCli addErrorOutput(LineListener listener, Charset charset);
     
+    /**
+     * Registers a listener notified of the start, finish or failure of every execution of this instance.
+     */
+    ShellCli addExecutionListener(ExecutionListener listener);
+
+    ShellCli removeExecutionListener(ExecutionListener listener);
+
     ShellCli clearStandardOutputTargets();
     
     ShellCli clearErrorOutputTargets();
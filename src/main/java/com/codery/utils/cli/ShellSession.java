@@ -0,0 +1,196 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A shell process kept open to run many commands, one at a time, without starting a process for each. Commands are
+ * written to the shell's standard input, and the end of their output and their exit code are recognized by a marker
+ * that is unique per command.
+ */
+final class ShellSession {
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private final SessionProtocol protocol;
+    private final Process process;
+    private final Writer stdin;
+    private final SessionStream stdout;
+    private final SessionStream stderr;
+    private final String id;
+    private final int generation;
+    private long commands;
+
+    private ShellSession(SessionProtocol protocol, Process process, int generation, int bufferSize) {
+        this.protocol = protocol;
+        this.process = process;
+        this.stdin = new OutputStreamWriter(process.getOutputStream(), protocol.charset());
+        this.stdout = new SessionStream(process.getInputStream(), bufferSize);
+        this.stderr = new SessionStream(process.getErrorStream(), bufferSize);
+        this.id = Long.toString(IDS.incrementAndGet(), 36) + Long.toString(System.nanoTime(), 36);
+        this.generation = generation;
+    }
+
+    /**
+     * Starts the shell and waits until it is ready, dropping whatever it prints on startup (banners and the like).
+     */
+    static ShellSession start(SessionProtocol protocol, ProcessBuilder pb, int generation, int bufferSize, ProcessReaper reaper) throws IOException {
+        pb.command(protocol.shellCommandLine());
+        ShellSession session = new ShellSession(protocol, reaper.track(pb.start()), generation, bufferSize);
+        try {
+            String marker = session.nextMarker();
+            session.send(protocol.script(null, pb.directory(), marker));
+            session.stdout.pumpUntil(marker, true, null, null);
+            session.stderr.pumpUntil(marker, false, null, null);
+        } catch (IOException | RuntimeException e) {
+            session.kill();
+            throw e;
+        }
+        return session;
+    }
+
+    String nextMarker() {
+        return "__process_runner_" + id + "_" + (++commands) + "__";
+    }
+
+    void send(String script) throws IOException {
+        stdin.write(script);
+        stdin.flush();
+    }
+
+    SessionStream stdout() {
+        return stdout;
+    }
+
+    SessionStream stderr() {
+        return stderr;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Kills the shell and whatever it is running right away: its state can't be trusted anymore, so there's nothing
+     * to let it clean up.
+     */
+    void kill() {
+        ProcessReaper.terminate(process.toHandle(), 0);
+    }
+
+    /**
+     * One of the shell's output streams, with the bytes read past the last marker kept for the next command.
+     */
+    static final class SessionStream {
+
+        private final InputStream in;
+        private byte[] buffer;
+        private int start;
+        private int end;
+
+        SessionStream(InputStream in, int bufferSize) {
+            this.in = in;
+            this.buffer = new byte[bufferSize];
+        }
+
+        /**
+         * Copies the stream into {@code targets} until {@code marker} shows up.
+         *
+         * @param withExitCode whether the marker is followed by {@code :<exit code>}.
+         * @param pump         counts the bytes copied, if not null.
+         * @return the exit code following the marker, or 0 if {@code withExitCode} is false.
+         * @throws ShellCliException if the shell ended before printing the marker.
+         */
+        int pumpUntil(String marker, boolean withExitCode, List<OutputStream> targets, SessionPump pump) throws IOException {
+            byte[] m = marker.getBytes(StandardCharsets.US_ASCII);
+            int found;
+            while ((found = indexOf(m)) < 0) {
+                // the end of the buffer may hold the beginning of the marker, so it is kept for the next read
+                int safe = Math.max(start, end - (m.length - 1));
+                write(targets, pump, start, safe);
+                start = safe;
+                fill();
+            }
+            write(targets, pump, start, found);
+            start = found + m.length;
+
+            int lineEnd;
+            while ((lineEnd = indexOf((byte) '\n')) < 0) {
+                fill();
+            }
+            String rest = new String(buffer, start, lineEnd - start, StandardCharsets.US_ASCII).trim();
+            start = lineEnd + 1;
+            if (!withExitCode) {
+                return 0;
+            }
+            try {
+                return Integer.parseInt(rest.substring(rest.indexOf(':') + 1).trim());
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                throw new ShellCliException("Unexpected exit code marker \"" + rest + "\" from a shell session.");
+            }
+        }
+
+        private void write(List<OutputStream> targets, SessionPump pump, int from, int to) throws IOException {
+            if (to <= from) {
+                return;
+            }
+            if (pump != null) {
+                pump.counted(to - from);
+            }
+            if (targets != null) {
+                for (OutputStream out : targets) {
+                    out.write(buffer, from, to - from);
+                }
+            }
+        }
+
+        private void fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            if (end == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                throw new ShellCliException("The shell session ended unexpectedly.");
+            }
+            end += read;
+        }
+
+        private int indexOf(byte[] m) {
+            outer:
+            for (int i = start; i <= end - m.length; i++) {
+                for (int j = 0; j < m.length; j++) {
+                    if (buffer[i + j] != m[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private int indexOf(byte b) {
+            for (int i = start; i < end; i++) {
+                if (buffer[i] == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.codery.utils.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Captures all of the output, unlike {@link BoundedOutputAdapter}, without keeping it on the heap: output is kept in
+ * memory up to {@code memoryThreshold} bytes, and from then on written to a temporary file, so the heap used stays
+ * the same however large the output gets. Once the execution finished, {@link #finish()} hands the output over as a
+ * {@link CapturedOutput}, which reads a spilled file back through a read-only memory mapping.
+ * <p>
+ * The temporary file is deleted when the {@link CapturedOutput} is closed, or when this adapter is closed without
+ * having been finished. Use it with {@link FutureExecution#stdout(java.io.OutputStream)}, which doesn't close it.
+ */
+public class SpillingOutputAdapter extends OutputStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillingOutputAdapter.class);
+    private static final int INITIAL_MEMORY_SIZE = 256;
+    private static final int FILE_BUFFER_SIZE = 65536;
+    // a single mapping can't be larger than a ByteBuffer
+    private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+    private final int memoryThreshold;
+    private final Path tempDir;
+    private final byte[] single = new byte[1];
+    private byte[] memory;
+    private int memoryCount;
+    private Path file;
+    private OutputStream fileOut;
+    private long size;
+    private boolean finished;
+    private boolean closed;
+
+    public SpillingOutputAdapter(int memoryThreshold) {
+        this(memoryThreshold, null);
+    }
+
+    /**
+     * @param tempDir where to create the temporary file, or null for the default temporary directory.
+     */
+    public SpillingOutputAdapter(int memoryThreshold, Path tempDir) {
+        if (memoryThreshold < 0) {
+            throw new IllegalArgumentException("Memory threshold can't be negative, got " + memoryThreshold);
+        }
+        this.memoryThreshold = memoryThreshold;
+        this.tempDir = tempDir;
+        this.memory = new byte[Math.min(memoryThreshold, INITIAL_MEMORY_SIZE)];
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (finished || closed) {
+            throw new IOException("The capture already " + (closed ? "was closed." : "finished."));
+        }
+        if (fileOut == null && memoryCount + len > memoryThreshold) {
+            spill();
+        }
+        if (fileOut != null) {
+            fileOut.write(b, off, len);
+        } else {
+            if (memoryCount + len > memory.length) {
+                memory = Arrays.copyOf(memory, (int) Math.min(memoryThreshold, Math.max(memory.length * 2L, memoryCount + len)));
+            }
+            System.arraycopy(b, off, memory, memoryCount, len);
+            memoryCount += len;
+        }
+        size += len;
+    }
+
+    private void spill() throws IOException {
+        file = tempDir != null ? Files.createTempFile(tempDir, "process-runner-", ".out") : Files.createTempFile("process-runner-", ".out");
+        LOGGER.debug("Output capture exceeded " + memoryThreshold + " bytes, spilling to \"" + file + "\"");
+        fileOut = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.WRITE), FILE_BUFFER_SIZE);
+        fileOut.write(memory, 0, memoryCount);
+        // from now on the heap only holds the file buffer
+        memory = null;
+        memoryCount = 0;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (fileOut != null && !finished && !closed) {
+            fileOut.flush();
+        }
+    }
+
+    /**
+     * @return how many bytes were written so far.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return whether the output went past the memory threshold and is in a temporary file.
+     */
+    public synchronized boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Ends the capture: later writes fail. Closing the returned output, rather than this adapter, deletes the
+     * temporary file.
+     */
+    public synchronized CapturedOutput finish() throws IOException {
+        if (finished || closed) {
+            throw new IllegalStateException("The capture already " + (closed ? "was closed." : "finished."));
+        }
+        finished = true;
+        if (fileOut == null) {
+            return new CapturedOutput(Collections.singletonList(ByteBuffer.wrap(memory, 0, memoryCount).slice()), size, null);
+        }
+        fileOut.close();
+        List<ByteBuffer> regions = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // mappings stay valid once the channel is closed
+            for (long position = 0; position < size || regions.isEmpty(); position += MAX_REGION_SIZE) {
+                regions.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_REGION_SIZE, size - position)));
+            }
+        } catch (IOException | RuntimeException e) {
+            CapturedOutput.delete(file);
+            throw e;
+        }
+        return new CapturedOutput(regions, size, file);
+    }
+
+    /**
+     * Deletes the temporary file, unless {@link #finish()} already handed it over.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (finished || file == null) {
+            return;
+        }
+        try {
+            fileOut.close();
+        } finally {
+            CapturedOutput.delete(file);
+        }
+    }
+
+}
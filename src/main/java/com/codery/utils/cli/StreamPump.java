@@ -0,0 +1,75 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Copies everything read from a process stream into a list of output targets, in chunks of up to
+ * {@code bufferSize} bytes. The buffer is allocated once per pump and reused for every read, and each
+ * chunk is handed to the targets through {@link OutputStream#write(byte[], int, int)}.
+ */
+class StreamPump extends OutputPump {
+
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final List<OutputStream> outStreams;
+    private final InputStream inStream;
+    private final int bufferSize;
+
+    StreamPump(InputStream inStream, List<OutputStream> outStreams) {
+        this(inStream, outStreams, DEFAULT_BUFFER_SIZE);
+    }
+
+    StreamPump(InputStream inStream, List<OutputStream> outStreams, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive, got " + bufferSize);
+        }
+        this.inStream = inStream;
+        this.outStreams = outStreams;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public void run() {
+        try {
+            readInputStream();
+        } catch (IOException e) {
+            throw new ShellCliException("An error occurred trying to write into the output streams.", e);
+        } finally {
+            flushOutputStreams();
+            closeInputStream();
+        }
+    }
+
+    private void readInputStream() throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = inStream.read(buffer, 0, buffer.length)) != -1) {
+            pumped(read);
+            for (OutputStream out : outStreams) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private void flushOutputStreams() {
+        for (OutputStream out : outStreams) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new ShellCliException("It wasn't possible to flush an outputstream.", e);
+            }
+        }
+    }
+
+    private void closeInputStream() {
+        try {
+            inStream.close();
+        } catch (IOException e) {
+            throw new ShellCliException("It wasn't possible to close an inputstream.", e);
+        }
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.codery.utils.cli;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * A running execution whose output is published instead of written into the {@link ShellCli}'s output targets.
+ * The process streams are read only as the subscribers request data, so a slow subscriber slows the process down
+ * instead of piling its output up in the heap.
+ * <p>
+ * Each publisher accepts one subscriber, and every {@link ByteBuffer} it publishes is reused for the next chunk:
+ * copy what must outlive {@link Flow.Subscriber#onNext(Object)}. Both streams must be subscribed, or cancelled, for
+ * the process to finish: a stream nobody reads eventually blocks the process until its timeout expires.
+ */
+public interface StreamingExecution {
+
+    Flow.Publisher<ByteBuffer> standardOutput();
+
+    Flow.Publisher<ByteBuffer> errorOutput();
+
+    /**
+     * @return a future completed once the process exited and both streams were published, or once the timeout
+     * expired.
+     */
+    CompletableFuture<ExecutionResult> result();
+
+}
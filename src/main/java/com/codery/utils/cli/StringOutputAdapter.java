@@ -13,6 +13,11 @@ public class StringOutputAdapter extends OutputStream {
         outStream.write(arg0);
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        outStream.write(b, off, len);
+    }
+
     public String getWrittenContent() {
         String ret = new String(outStream.toByteArray());
         outStream.reset();
@@ -0,0 +1,172 @@
+package com.codery.utils.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs consecutive {@link LineStage}s of a {@link Pipeline} over a process' output and writes the lines they keep
+ * into the next process' standard input, or into the output targets of the last stage. The read buffer, the decoder
+ * and the encoder are allocated once per pump, like {@link StreamPump}'s buffer, and written lines are encoded
+ * straight into a reused output buffer.
+ * <p>
+ * When the next process stops reading, or a stage throws, the pump stops and closes its input, so the process
+ * feeding it gets a broken pipe, as it would in a shell.
+ */
+class TransformPump extends OutputPump implements LineListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransformPump.class);
+    private static final CharBuffer LINE_TERMINATOR = CharBuffer.wrap("\n").asReadOnlyBuffer();
+
+    private final InputStream inStream;
+    private final List<LineStage> stages;
+    private final Charset charset;
+    private final List<OutputStream> outStreams;
+    private final boolean closeOutputs;
+    private final int bufferSize;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer encoded;
+    private volatile long written;
+    private boolean stopped;
+
+    /**
+     * @param closeOutputs whether the outputs end with this pump, which is the case of a process' standard input.
+     */
+    TransformPump(InputStream inStream, List<LineStage> stages, Charset charset, List<OutputStream> outStreams, boolean closeOutputs, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive, got " + bufferSize);
+        }
+        this.inStream = inStream;
+        this.stages = stages;
+        this.charset = charset;
+        this.outStreams = outStreams;
+        this.closeOutputs = closeOutputs;
+        this.bufferSize = bufferSize;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoded = ByteBuffer.allocate(Math.max(bufferSize, (int) Math.ceil(encoder.maxBytesPerChar())));
+    }
+
+    @Override
+    public void run() {
+        LineOutputAdapter lines = new LineOutputAdapter(this, charset);
+        try {
+            byte[] buffer = new byte[bufferSize];
+            int read;
+            while (!stopped && (read = inStream.read(buffer, 0, buffer.length)) != -1) {
+                pumped(read);
+                lines.write(buffer, 0, read);
+                // the next process may be waiting for these lines before producing the output that lets it read more;
+                // output targets take a flush for the end of the output, so they're only flushed at the end
+                drain(closeOutputs);
+            }
+            if (!stopped) {
+                // delivers a last line without terminator
+                lines.close();
+                drain(true);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // mostly a broken pipe: the next process exited or closed its input before reading everything
+            LOGGER.debug("Pipeline stage output stopped before the end of its input.", e);
+        } catch (RuntimeException e) {
+            // a stage failed, it keeps the error
+            LOGGER.debug("Pipeline line stage failed.", e);
+        } finally {
+            if (closeOutputs) {
+                closeOutputStreams();
+            }
+            closeInputStream();
+        }
+    }
+
+    @Override
+    public void onLine(CharSequence line) {
+        if (stopped) {
+            return;
+        }
+        CharSequence current = line;
+        for (LineStage each : stages) {
+            try {
+                current = each.process(current);
+            } catch (RuntimeException e) {
+                stopped = true;
+                throw e;
+            }
+            if (current == null) {
+                return;
+            }
+        }
+        try {
+            encode(CharBuffer.wrap(current));
+            encode(LINE_TERMINATOR.duplicate());
+        } catch (IOException e) {
+            stopped = true;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void encode(CharBuffer chars) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, encoded, false);
+            if (!result.isOverflow()) {
+                return;
+            }
+            drain(false);
+        }
+    }
+
+    private void drain(boolean flush) throws IOException {
+        encoded.flip();
+        int count = encoded.remaining();
+        if (count > 0) {
+            for (OutputStream out : outStreams) {
+                out.write(encoded.array(), encoded.arrayOffset() + encoded.position(), count);
+            }
+            written += count;
+        }
+        encoded.clear();
+        if (flush) {
+            for (OutputStream out : outStreams) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * @return how many bytes were written into the outputs.
+     */
+    long getWritten() {
+        return written;
+    }
+
+    private void closeOutputStreams() {
+        for (OutputStream out : outStreams) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.debug("It wasn't possible to close a pipeline stage output.", e);
+            }
+        }
+    }
+
+    private void closeInputStream() {
+        try {
+            inStream.close();
+        } catch (IOException e) {
+            LOGGER.debug("It wasn't possible to close a pipeline stage input.", e);
+        }
+    }
+
+}
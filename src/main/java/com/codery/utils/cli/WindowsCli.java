@@ -1,39 +1,15 @@
 package com.codery.utils.cli;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public class WindowsCli implements ShellCli {
+public class WindowsCli extends AbstractShellCli<WindowsCli> {
 
     private static final String[] CMD_CALL_PARAMS = new String[] { "cmd", "/c" };
-    private static final Logger LOGGER = LoggerFactory.getLogger(WindowsCli.class);
-    protected static final long DEFAULT_TIMEOUT = 300_000; //5 min
-    public static final long MAX_TIMEOUT = Long.MAX_VALUE;
-    protected final long timeout;
-    private final ExecutorService executor = Executors.newFixedThreadPool(4);
-    private final List<OutputStream> stdOutputs = new ArrayList<>();
-    private final List<OutputStream> errOutputs = new ArrayList<>();
-    private final Map<String, String> environment = new HashMap<>();
-    protected File dir;
-    private boolean isClosed;
 
     public WindowsCli() {
         this(-1, new File(System.getProperty("user.dir")));
@@ -48,375 +24,200 @@ public class WindowsCli implements ShellCli {
     }
 
     public WindowsCli(long timeout, File dir) {
-        if (timeout < 0) {
-            this.timeout = DEFAULT_TIMEOUT;
-        } else {
-            this.timeout = timeout;
-        }
-
-        this.dir = dir;
+        this(timeout, dir, null);
     }
 
-    @Override
-    public ShellCli clearStandardOutputTargets() {
-        stdOutputs.removeAll(stdOutputs);
-        return this;
+    /**
+     * @param pumpExecutor runs the output pumps; see {@link AbstractShellCli#AbstractShellCli(long, File, ExecutorService)}.
+     */
+    public WindowsCli(long timeout, File dir, ExecutorService pumpExecutor) {
+        super(timeout, dir, pumpExecutor);
     }
 
-    @Override
-    public ShellCli clearErrorOutputTargets() {
-        errOutputs.removeAll(errOutputs);
-        return this;
+    /**
+     * @return the charset console programs use for their output, which on Windows is the OEM code page (cp850,
+     * cp437...) rather than the ANSI one returned by {@link Charset#defaultCharset()}. It is what the JVM detected
+     * for its own console, or the default charset when the JVM has no console. To decode output with a specific
+     * code page, use {@code Charset.forName("IBM850")} and the like.
+     */
+    public static Charset consoleCharset() {
+        for (String property : new String[] { "stdout.encoding", "sun.stdout.encoding" }) {
+            String name = System.getProperty(property);
+            if (name != null && Charset.isSupported(name)) {
+                return Charset.forName(name);
+            }
+        }
+        return Charset.defaultCharset();
     }
 
     @Override
-    public WindowsCli setEnvironmentVariable(String key, String value) {
-        secureEnvStore(environment, key, value);
+    protected WindowsCli self() {
         return this;
     }
 
     @Override
-    public WindowsCli setEnvironmentVariables(Map<String, String> vars) {
-        for (Entry<String, String> each : vars.entrySet()) {
-            secureEnvStore(environment, each.getKey(), each.getValue());
-        }
-        return this;
+    protected boolean isEnvironmentCaseSensitive() {
+        return false;
     }
 
     @Override
-    public Map<String, String> getEnvironentVariables() {
-        return Collections.unmodifiableMap(environment);
-    }
-
-    private void secureEnvStore(Map<String, String> target, String key, String value) {
-        boolean found = false;
-        for (String each : target.keySet()) {
-            if (each.equalsIgnoreCase(key)) {
-                found = true;
-                target.put(each, value);
-            }
-        }
-        if (!found) {
-            target.put(key, value);
-        }
+    SessionProtocol sessionProtocol() {
+        return new WindowsSessionProtocol();
     }
 
     @Override
     public FutureExecution command(CliCommand cmd) {
-        return new WindowsCliFutureExecution(new CliCommand(ArraysUtils.concat(CMD_CALL_PARAMS, cmd.getCmdLine())));
-    }
-
-    @Override
-    public WindowsCli dir(File dir) {
-        this.dir = dir;
-        return this;
-    }
-
-    @Override
-    public WindowsCli addStandardOutput(OutputStream dest) {
-        stdOutputs.add(dest);
-        return this;
+        return command(CommandTree.of(cmd));
     }
 
     @Override
-    public WindowsCli addErrorOutput(OutputStream dest) {
-        errOutputs.add(dest);
-        return this;
+    public FutureExecution command(CommandTree tree) {
+        return new WindowsCliFutureExecution(tree);
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) {
-            return true;
-        }
-        if (o == null || getClass() != o.getClass()) {
-            return false;
-        }
+    /**
+     * Every command runs through {@code cmd /c}, with the operators as separate arguments.
+     */
+    private static final class WindowsCompiler implements CommandTree.Compiler<CliCommand> {
 
-        WindowsCli that = (WindowsCli) o;
+        private static final WindowsCompiler INSTANCE = new WindowsCompiler();
 
-        if (dir == null && that.dir == null && environment.equals(that.environment)) {
-            return true;
+        @Override
+        public CliCommand compile(CommandTree tree) {
+            List<String> cmdLine = new ArrayList<>();
+            Collections.addAll(cmdLine, CMD_CALL_PARAMS);
+            tree.accept(new TokenWriter(cmdLine));
+            return new CliCommand(cmdLine.toArray(new String[0]));
         }
-
-        return (dir != null ? dir.equals(that.dir) : dir == that.dir) && environment.equals(that.environment);
     }
 
-    @Override
-    public int hashCode() {
-        int result = dir != null ? dir.hashCode() : 0;
-        result = 31 * result + (environment != null ? environment.hashCode() : 0);
-        return result;
-    }
+    private static final class TokenWriter implements CommandTree.Visitor<Void> {
 
-    @Override
-    public void close() throws Exception {
-        if (isClosed) {
-            throw new RuntimeException("This instance of " + WindowsCli.class + " is already closed.");
-        }
-        closOutputStreams(stdOutputs);
-        closOutputStreams(errOutputs);
-        executor.shutdown();
-        isClosed = true;
-    }
+        private final List<String> tokens;
 
-    private void closOutputStreams(List<OutputStream> outStreams) {
-        for (OutputStream out : outStreams) {
-            if (out == System.out || out == System.err) {
-                continue;
-            }
-            try {
-                out.close();
-            } catch (IOException e) {
-                throw new ShellCliException("It wasn't possible to close an outputstream.", e);
-            }
+        TokenWriter(List<String> tokens) {
+            this.tokens = tokens;
         }
-    }
-
-    private class WindowsCliFutureExecution implements FutureExecution {
 
-        private final CliCommand cmd;
-        private File redirectOutputTarget;
-        private boolean supressOuput;
-
-        WindowsCliFutureExecution(CliCommand cmd) {
-            this.cmd = new CliCommand(cmd.getCmdLine());
+        @Override
+        public Void command(CliCommand cmd) {
+            Collections.addAll(tokens, cmd.getCmdLine());
+            return null;
         }
 
-        WindowsCliFutureExecution(WindowsCliFutureExecution futureEx) {
-            cmd = new CliCommand(futureEx.cmd);
-            redirectOutputTarget = futureEx.redirectOutputTarget;
-            supressOuput = futureEx.supressOuput;
+        @Override
+        public Void pipe(CommandTree left, CommandTree right) {
+            left.accept(this);
+            tokens.add("|");
+            return right.accept(this);
         }
 
         @Override
-        public int execute() {
-            if (isClosed) {
-                throw new RuntimeException("It is not possible to execute a closed instance of " + WindowsCli.class);
-            }
-
-            ProcessBuilder pb = setupProcessBuilder();
-            Process p = null;
+        public Void sequence(CommandTree first, CommandTree second) {
+            first.accept(this);
+            tokens.add("&");
+            return second.accept(this);
+        }
 
-            int ret = -1;
-            try {
-                if (pb.directory() != null && !pb.directory().exists()) {
-                    LOGGER.info("Directory \"" + pb.directory() + "\" don't exist and will be created.");
-                    Files.createDirectory(pb.directory().toPath());
-                }
+        @Override
+        public Void background(CommandTree cmd) {
+            tokens.add("start");
+            return cmd.accept(this);
+        }
+    }
 
-                LOGGER.debug("Running command \"" + pb.command().toString().replaceAll("\\[|\\]|,", "") + "\" in directory \"" + pb.directory() + "\"");
-                p = pb.start();
+    /**
+     * Runs each command as a line typed into {@code cmd}. Since {@code cmd} has no subshells, variables set by a
+     * command stay set for the next commands of the same session; the current directory is reset before each one.
+     */
+    private static final class WindowsSessionProtocol implements SessionProtocol {
 
-                //the default output is not used. Closing it prevents some processes from hanging (all powershell executions, for example).
-                p.getOutputStream().close();
+        private static final String LINE_BREAK = "\r\n";
 
-                if (redirectOutputTarget == null) {
-                    startOutputStreamsWriters(p.getInputStream(), p.getErrorStream());
-                } else {
-                    FileInputStream fis = new FileInputStream(redirectOutputTarget);
-                    startOutputStreamsWriters(fis, null);
-                }
+        @Override
+        public String[] shellCommandLine() {
+            return new String[] { "cmd", "/Q", "/K" };
+        }
 
-                if (timeout == MAX_TIMEOUT) {
-                    ret = p.waitFor();
-                } else {
-                    ret = waitFor(p, timeout, TimeUnit.MILLISECONDS);
+        @Override
+        public String script(String commandLine, File dir, String marker) {
+            StringBuilder script = new StringBuilder();
+            // each line is parsed only when the previous one finished, so %ERRORLEVEL% is the command's exit code
+            if (commandLine == null) {
+                script.append("ver >NUL").append(LINE_BREAK);
+            } else {
+                if (dir != null) {
+                    script.append("cd /d \"").append(dir.getAbsolutePath()).append('"').append(LINE_BREAK);
                 }
-            } catch (IOException | InterruptedException | ShellCliException ex) {
-                throw new ShellCliException("An error occurred while trying to execute command \"" + pb.command() + "\" in directory \"" + pb.directory() + "\"", ex);
+                script.append(commandLine).append(" <NUL").append(LINE_BREAK);
             }
-            return ret;
+            script.append("echo ").append(marker).append(":%ERRORLEVEL%").append(LINE_BREAK);
+            script.append("1>&2 echo ").append(marker).append(LINE_BREAK);
+            return script.toString();
         }
 
-        private int waitFor(Process p, long timeout, TimeUnit unit) {
-            long startTime = System.nanoTime();
-            long rem = unit.toNanos(timeout);
-
-            do {
-                try {
-                    return p.exitValue();
-                } catch (IllegalThreadStateException ex) {
-                    if (rem > 0) {
-                        try {
-                            Thread.sleep(Math.min(TimeUnit.NANOSECONDS.toMillis(rem) + 1, 100));
-                        } catch (InterruptedException e) {
-                            throw new ShellCliException("An error ocurred verifying timeout completion", e);
-                        }
-                    }
-                }
-                rem = unit.toNanos(timeout) - (System.nanoTime() - startTime);
-            } while (rem > 0);
-            return -1;
+        @Override
+        public Charset charset() {
+            return consoleCharset();
         }
+    }
 
-        private ProcessBuilder setupProcessBuilder() {
-            ProcessBuilder pb = new ProcessBuilder(cmd.getCmdLine());
+    private class WindowsCliFutureExecution extends AbstractFutureExecution {
 
-            for (Entry<String, String> each : environment.entrySet()) {
-                secureEnvStore(pb.environment(), each.getKey(), each.getValue());
-            }
+        private final CommandTree tree;
 
-            pb = pb.directory(dir);
-            return pb;
+        WindowsCliFutureExecution(CommandTree tree) {
+            this.tree = tree;
         }
 
-        private void startOutputStreamsWriters(InputStream stdStream, InputStream errStream) {
-            List<OutputStream> stdOutStreams = new ArrayList<>();
-            List<OutputStream> errOutStreams = new ArrayList<>();
-
-            if (!stdOutputs.isEmpty() && !supressOuput) {
-                stdOutStreams = stdOutputs;
-            } else {
-                // it is necessarily to read all process's inputStream from std and err or else the execution will hang.
-                stdOutStreams.add(new ByteArrayOutputStream());
-            }
-
-            if (!errOutputs.isEmpty() && !supressOuput) {
-                errOutStreams = errOutputs;
-            } else {
-                errOutStreams.add(new ByteArrayOutputStream());
-            }
-
-            if (stdStream != null) {
-                executor.submit(new InputStreamReader(stdStream, stdOutStreams));
-            }
-            if (errStream != null) {
-                executor.submit(new InputStreamReader(errStream, errOutStreams));
-            }
+        WindowsCliFutureExecution(WindowsCliFutureExecution futureEx) {
+            this(futureEx, futureEx.tree);
         }
 
-        @Override
-        public FutureExecution redirectOutput(File out) {
-            WindowsCliFutureExecution ret = new WindowsCliFutureExecution(createNextCmdLine(">", out.getAbsolutePath()));
-            ret.redirectOutputTarget = out;
-            return ret;
+        // the settings already chained carry over to the grown command
+        WindowsCliFutureExecution(WindowsCliFutureExecution futureEx, CommandTree tree) {
+            super(futureEx);
+            this.tree = tree;
         }
 
         @Override
-        public FutureExecution redirectOutputAppending(File out) {
-            WindowsCliFutureExecution ret = new WindowsCliFutureExecution(createNextCmdLine(">>", out.getAbsolutePath()));
-            ret.redirectOutputTarget = out;
-            return ret;
+        protected WindowsCliFutureExecution copy() {
+            return new WindowsCliFutureExecution(this);
         }
 
         @Override
         public FutureExecution pipe(CliCommand cmd) {
-            return new WindowsCliFutureExecution(createNextCmdLine("|", cmd));
+            return new WindowsCliFutureExecution(this, tree.pipe(CommandTree.of(cmd)));
         }
 
         @Override
         public FutureExecution and(CliCommand cmd) {
-            return new WindowsCliFutureExecution(createNextCmdLine("&", cmd));
+            return new WindowsCliFutureExecution(this, tree.and(CommandTree.of(cmd)));
         }
 
         @Override
         public FutureExecution background() {
-            return new WindowsCliFutureExecution(createBackgroundCmdLine());
+            return new WindowsCliFutureExecution(this, tree.background());
         }
 
         @Override
-        public CliCommand getCommand() {
-            return cmd;
-        }
-
-        private CliCommand createBackgroundCmdLine() {
-            String[] cmdArr = cmd.getCmdLine();
-            String[] prefixCmdArr = new String[] { "start" };
-            if (cmd.getCmdLine()[0].equalsIgnoreCase("cmd")) {
-                cmdArr = ArraysUtils.slice(cmdArr, 1);
-                prefixCmdArr = ArraysUtils.concat(CMD_CALL_PARAMS, prefixCmdArr);
-            }
-            return new CliCommand(ArraysUtils.concat(prefixCmdArr, cmdArr));
-        }
-
-        private CliCommand createNextCmdLine(String param, CliCommand cmd) {
-            return new CliCommand(ArraysUtils.concat(createPrevCmdLine(param), cmd.getCmdLine()));
-        }
-
-        private CliCommand createNextCmdLine(String param, String param2) {
-            return new CliCommand(ArraysUtils.concat(createPrevCmdLine(param), new String[] { param2 }));
-        }
-
-        private String[] createPrevCmdLine(String param) {
-            return ArraysUtils.concat(cmd.getCmdLine(), new String[] { param });
-        }
-
-        @Override
-        public String toString() {
-            return Arrays.toString(cmd.getCmdLine());
-        }
-
-        @Override
-        public FutureExecution supressOutput() {
-            WindowsCliFutureExecution ret = new WindowsCliFutureExecution(this);
-            ret.supressOuput = true;
-            return ret;
-        }
-
-    }
-
-    private static final class InputStreamReader implements Runnable {
-
-        private final List<OutputStream> outStreams;
-        private final InputStream inStream;
-
-        public InputStreamReader(InputStream inStream, List<OutputStream> outStreams) {
-            this.inStream = inStream;
-            this.outStreams = outStreams;
-        }
-
-        @Override
-        public void run() {
-            try {
-                readInputStream();
-            } catch (IOException e) {
-                throw new ShellCliException("An error occurred trying to write into the output streams.", e);
-            } finally {
-                flushOutputStreams();
-                closeInputStream();
-            }
-        }
-
-        //TODO find a way to R/W chunks (512/2014) of bytes. Byte-to-byte reading is slower. :(
-        private synchronized void readInputStream() throws IOException {
-            int i = -1;
-            while ((i = inStream.read()) != -1) {
-                for (OutputStream out : outStreams) {
-                    out.write(i);
+        String sessionCommandLine() {
+            // what cmd /c would run, as a single line
+            String[] cmdLine = getCommand().getCmdLine();
+            StringBuilder line = new StringBuilder();
+            for (int i = CMD_CALL_PARAMS.length; i < cmdLine.length; i++) {
+                String each = cmdLine[i];
+                if (line.length() > 0) {
+                    line.append(' ');
                 }
+                line.append(each.indexOf(' ') >= 0 && !each.startsWith("\"") ? '"' + each + '"' : each);
             }
+            return line.toString();
         }
 
-        private void flushOutputStreams() {
-            for (OutputStream out : outStreams) {
-                try {
-                    out.flush();
-                } catch (IOException e) {
-                    throw new ShellCliException("It wasn't possible to flush an outputstream.", e);
-                }
-            }
-        }
-
-        private void closeInputStream() {
-            try {
-                inStream.close();
-            } catch (IOException e) {
-                throw new ShellCliException("It wasn't possible to close an inputstream.", e);
-            }
-        }
-
-        private byte[] trimBytes(byte[] bytes) {
-            if (bytes[bytes.length - 1] != 0) {
-                return bytes;
-            }
-
-            int i = bytes.length - 1;
-            while (i >= 0 && bytes[i] == 0) {
-                --i;
-            }
-
-            return Arrays.copyOf(bytes, i + 1);
+        @Override
+        public CliCommand getCommand() {
+            return tree.compile(WindowsCompiler.INSTANCE);
         }
 
     }
@@ -0,0 +1,63 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class BoundedOutputAdapterTest {
+
+    @Test
+    public void shouldKeepEverything_WhenWithinBudget() {
+        BoundedOutputAdapter adapter = new BoundedOutputAdapter(4, 4);
+        write(adapter, "abcdefg");
+
+        assertThat(adapter.getWrittenContent(StandardCharsets.US_ASCII), is("abcdefg"));
+        assertThat(adapter.getDroppedBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldKeepHeadAndTail_AndCountDroppedBytes() {
+        BoundedOutputAdapter adapter = new BoundedOutputAdapter(3, 4);
+        for (char c = 'a'; c <= 'z'; c++) {
+            write(adapter, String.valueOf(c));
+        }
+
+        assertThat(new String(adapter.getHead(), StandardCharsets.US_ASCII), is("abc"));
+        assertThat(new String(adapter.getTail(), StandardCharsets.US_ASCII), is("wxyz"));
+        assertThat(adapter.getDroppedBytes(), is(19L));
+        assertThat(adapter.getTotalBytes(), is(26L));
+    }
+
+    @Test
+    public void shouldKeepTail_WhenOneWriteExceedsIt() {
+        BoundedOutputAdapter adapter = new BoundedOutputAdapter(0, 4);
+        write(adapter, "ab");
+        write(adapter, "cdefghij");
+        write(adapter, "kl");
+
+        assertThat(new String(adapter.getTail(), StandardCharsets.US_ASCII), is("ijkl"));
+        assertThat(adapter.getDroppedBytes(), is(8L));
+    }
+
+    @Test
+    public void boundedCapture_ShouldLimitCapturedOutput() throws Exception {
+        try (ShellCli cli = new PosixCli(new File(System.getProperty("java.io.tmpdir")))) {
+            ExecutionResult result = cli.command(new CliCommand("seq").param("1").param("100000"))
+                    .captureOutput(4, 7).executeAsync().get();
+
+            assertThat(result.getStandardOutput().startsWith("1\n2\n"), is(true));
+            assertThat(result.getStandardOutput().endsWith("\n100000\n"), is(true));
+            assertThat(result.getDroppedStandardOutputBytes(), is(588895L - 11));
+        }
+    }
+
+    private static void write(BoundedOutputAdapter adapter, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+        adapter.write(bytes, 0, bytes.length);
+    }
+
+}
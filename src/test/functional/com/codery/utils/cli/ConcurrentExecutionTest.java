@@ -0,0 +1,194 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ConcurrentExecutionTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+    private static final int CONCURRENT_EXECUTIONS = 500;
+
+    @Test
+    public void defaultPumpExecutor_ShouldSupportManyConcurrentExecutions() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR)) {
+            runConcurrently(cli);
+        }
+    }
+
+    @Test
+    public void sharedPumpExecutor_ShouldSupportManyConcurrentExecutions() throws Exception {
+        try (PosixCli cli = new PosixCli(-1, TEST_DIR, PumpExecutors.shared())) {
+            runConcurrently(cli);
+        }
+    }
+
+    @Test
+    public void elasticPumpExecutor_ShouldSupportManyConcurrentExecutions() throws Exception {
+        ExecutorService pumps = PumpExecutors.elastic();
+        try (PosixCli cli = new PosixCli(-1, TEST_DIR, pumps)) {
+            runConcurrently(cli);
+        } finally {
+            pumps.shutdown();
+        }
+    }
+
+    @Test
+    public void virtualPumpExecutor_ShouldSupportManyConcurrentExecutions() throws Exception {
+        ExecutorService pumps = PumpExecutors.virtual();
+        try (PosixCli cli = new PosixCli(-1, TEST_DIR, pumps)) {
+            runConcurrently(cli);
+        } finally {
+            pumps.shutdown();
+        }
+    }
+
+    @Test
+    public void executeAll_ShouldReturnResultsInInputOrder() throws Exception {
+        List<CliCommand> cmds = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            cmds.add(new CliCommand("sh").param("-c", "exit " + (i % 3)));
+        }
+        try (PosixCli cli = new PosixCli(TEST_DIR)) {
+            List<ExecutionResult> results = cli.executeAll(cmds, 8);
+
+            assertThat(results.size(), is(cmds.size()));
+            for (int i = 0; i < cmds.size(); i++) {
+                assertThat(results.get(i).getCommand(), is(cmds.get(i)));
+                assertThat(results.get(i).getExitCode(), is(i % 3));
+            }
+        }
+    }
+
+    @Test(expected = ShellCliException.class)
+    public void executeAll_ShouldFailFast_WhenConfiguredSo() throws Exception {
+        List<CliCommand> cmds = new ArrayList<>();
+        cmds.add(new CliCommand("false"));
+        for (int i = 0; i < 20; i++) {
+            cmds.add(new CliCommand("true"));
+        }
+        try (PosixCli cli = new PosixCli(TEST_DIR)) {
+            cli.executeAll(cmds, 1, BatchErrorMode.FAIL_FAST);
+        }
+    }
+
+    @Test
+    public void executeAll_ShouldFail_WhenAProgramDoesNotExist() throws Exception {
+        // the missing program is started first, and again from the completion of a running command
+        List<CliCommand> cmds = Arrays.asList(new CliCommand("no-such-program-here"), new CliCommand("sleep").param("0.2"),
+                new CliCommand("no-such-program-here"), new CliCommand("true"));
+        try (PosixCli cli = new PosixCli(TEST_DIR)) {
+            for (BatchErrorMode mode : BatchErrorMode.values()) {
+                List<ExecutionResult> finished = new CopyOnWriteArrayList<>();
+                try {
+                    cli.executeAllAsync(cmds, 1, mode, finished::add).get(10, TimeUnit.SECONDS);
+                    fail("The batch should have failed.");
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause() instanceof ShellCliException, is(true));
+                }
+                assertThat(finished.size(), is(mode == BatchErrorMode.FAIL_FAST ? 0 : 2));
+            }
+        }
+    }
+
+    @Test
+    public void executeAll_ShouldComplete_WhenTheResultConsumerThrows() throws Exception {
+        List<CliCommand> cmds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            cmds.add(new CliCommand("sh").param("-c", "sleep 0.05; exit " + i));
+        }
+        AtomicInteger consumed = new AtomicInteger();
+        try (PosixCli cli = new PosixCli(TEST_DIR)) {
+            List<ExecutionResult> results = cli.executeAllAsync(cmds, 1, BatchErrorMode.COLLECT_ALL, result -> {
+                consumed.incrementAndGet();
+                throw new IllegalStateException("consumer failure");
+            }).get(10, TimeUnit.SECONDS);
+
+            assertThat(consumed.get(), is(5));
+            assertThat(results.size(), is(5));
+            assertThat(results.get(4).getExitCode(), is(4));
+        }
+    }
+
+    @Test
+    public void perExecutionSinks_ShouldNeverMixOrLoseOutput_WhileTargetsChange() throws Exception {
+        final int lines = 200;
+        List<ByteArrayOutputStream> sinks = new ArrayList<>();
+        List<CompletableFuture<ExecutionResult>> executions = new ArrayList<>();
+        Set<String> sharedLines = ConcurrentHashMap.newKeySet();
+        try (PosixCli cli = new PosixCli(TEST_DIR)) {
+            cli.addStandardOutput(line -> sharedLines.add(line.toString()), StandardCharsets.UTF_8);
+            for (int i = 0; i < CONCURRENT_EXECUTIONS; i++) {
+                ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                sinks.add(sink);
+                String script = "i=0; while [ $i -lt " + lines + " ]; do echo execution-" + i + "-line-$i; i=$((i+1)); done";
+                executions.add(cli.command(new CliCommand("sh").param("-c", script)).stdout(sink).executeAsync());
+                // the instance's targets change while the executions above are pumping
+                cli.addErrorOutput(new ByteArrayOutputStream());
+                if (i % 50 == 0) {
+                    cli.clearErrorOutputTargets();
+                }
+            }
+
+            for (int i = 0; i < CONCURRENT_EXECUTIONS; i++) {
+                assertThat(executions.get(i).get(60, TimeUnit.SECONDS).getExitCode(), is(0));
+                StringBuilder expected = new StringBuilder();
+                for (int line = 0; line < lines; line++) {
+                    expected.append("execution-").append(i).append("-line-").append(line).append('\n');
+                }
+                assertThat(new String(sinks.get(i).toByteArray(), StandardCharsets.UTF_8), is(expected.toString()));
+            }
+        }
+        assertThat("Executions overriding their output shouldn't reach the shared targets.", sharedLines.isEmpty(), is(true));
+    }
+
+    @Test
+    public void sharedLineListener_ShouldGetWholeLines_FromConcurrentExecutions() throws Exception {
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<ExecutionResult>> executions = new ArrayList<>();
+        try (PosixCli cli = new PosixCli(TEST_DIR)) {
+            cli.addStandardOutput(line -> received.add(line.toString()), StandardCharsets.UTF_8);
+            for (int i = 0; i < CONCURRENT_EXECUTIONS; i++) {
+                executions.add(cli.command(new CliCommand("sh").param("-c", "printf 'execution-" + i + "-'; sleep 0.01; echo done")).executeAsync());
+            }
+            for (CompletableFuture<ExecutionResult> each : executions) {
+                each.get(60, TimeUnit.SECONDS);
+            }
+        }
+        assertThat(received.size(), is(CONCURRENT_EXECUTIONS));
+        for (int i = 0; i < CONCURRENT_EXECUTIONS; i++) {
+            assertThat(received.contains("execution-" + i + "-done"), is(true));
+        }
+    }
+
+    private static void runConcurrently(ShellCli cli) throws Exception {
+        List<CompletableFuture<ExecutionResult>> executions = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_EXECUTIONS; i++) {
+            executions.add(cli.command(new CliCommand("echo").param("execution-" + i)).captureOutput().executeAsync());
+        }
+
+        for (int i = 0; i < CONCURRENT_EXECUTIONS; i++) {
+            ExecutionResult result = executions.get(i).get(60, TimeUnit.SECONDS);
+            assertThat(result.getExitCode(), is(0));
+            assertThat(result.getStandardOutput(), is("execution-" + i + "\n"));
+        }
+    }
+
+}
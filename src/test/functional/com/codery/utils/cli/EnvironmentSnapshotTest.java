@@ -0,0 +1,61 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class EnvironmentSnapshotTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    @Test
+    public void caseInsensitiveSnapshot_ShouldReplaceInheritedVariable_WhateverItsCase() {
+        String inheritedKey = System.getenv().keySet().iterator().next();
+        EnvironmentSnapshot snapshot = EnvironmentSnapshot.empty(false).with(inheritedKey.toLowerCase(), "replaced");
+        Map<String, String> target = new HashMap<>(System.getenv());
+
+        snapshot.applyTo(target);
+
+        assertThat(target.size(), is(System.getenv().size()));
+        assertThat(target.get(inheritedKey), is("replaced"));
+    }
+
+    @Test
+    public void caseInsensitiveSnapshot_ShouldKeepOneVariablePerName() {
+        EnvironmentSnapshot snapshot = EnvironmentSnapshot.empty(false).with("Foo", "1").with("FOO", "2");
+
+        assertThat(snapshot.getVariables().size(), is(1));
+        assertThat(snapshot.getVariables().get("foo"), is("2"));
+    }
+
+    @Test
+    public void snapshot_ShouldNotChange_WhenEnvironmentChanges() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            cli.setEnvironmentVariable("SNAPSHOT_TEST", "before");
+            EnvironmentSnapshot before = cli.getEnvironment();
+
+            cli.setEnvironmentVariable("SNAPSHOT_TEST", "after").setEnvironmentVariable("snapshot_test", "other");
+
+            assertThat(before.getVariables().get("SNAPSHOT_TEST"), is("before"));
+            assertThat(cli.getEnvironentVariables().size(), is(2));
+        }
+    }
+
+    @Test
+    public void notInheritedEnvironment_ShouldHoldOnlyTheVariablesSet() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            cli.setEnvironmentVariable("ONLY", "1").inheritEnvironment(false);
+
+            ExecutionResult result = cli.command(new CliCommand("/usr/bin/env")).captureOutput().executeAsync().get(5, TimeUnit.SECONDS);
+
+            assertThat(result.getStandardOutput(), is("ONLY=1\n"));
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExecutionJournalTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    private Path dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("execution-journal");
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        for (Path each : segments()) {
+            Files.delete(each);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void executions_ShouldBeRecordedAndQueried() throws Exception {
+        long before = System.currentTimeMillis();
+        try (ExecutionJournal journal = new ExecutionJournal(dir);
+             PosixCli cli = new PosixCli(TEST_DIR)) {
+            cli.addExecutionListener(journal);
+            cli.command(new CliCommand("echo").param("hello")).execute();
+            cli.command(new CliCommand("false")).execute();
+            cli.command(new CliCommand("false")).execute();
+            cli.command(new CliCommand("sleep").param("0.4")).execute();
+            cli.command(new CliCommand("sleep").param("5")).executeAsync(100, TimeUnit.MILLISECONDS).get();
+            try {
+                cli.command(new CliCommand("lsr")).execute();
+            } catch (ShellCliException e) {
+                // recorded as failed
+            }
+            journal.flush();
+
+            List<JournalEntry> all = new ArrayList<>();
+            journal.forEach(all::add);
+            assertThat(all.size(), is(6));
+            JournalEntry echo = all.get(0);
+            assertThat(echo.getCommand(), is("echo hello"));
+            assertThat(echo.getDirectory(), is(TEST_DIR.getPath()));
+            assertThat(echo.getExitCode(), is(0));
+            assertThat(echo.getStandardOutputBytes(), is(6L));
+            assertThat(echo.isSuccess(), is(true));
+
+            List<JournalEntry> slowest = journal.slowest(2);
+            assertThat(slowest.get(0).getCommand(), is("sleep 0.4"));
+            assertThat(slowest.get(1).getCommand(), is("sleep 5"));
+            assertThat(slowest.get(1).isTimedOut(), is(true));
+
+            Map<String, Long> failures = journal.failuresByCommand();
+            assertThat(failures.keySet().iterator().next(), is("false"));
+            assertThat(failures.get("false"), is(2L));
+            assertThat(failures.get("sleep 5"), is(1L));
+            assertThat(failures.get("lsr"), is(1L));
+            assertThat(failures.containsKey("echo hello"), is(false));
+
+            assertThat(journal.between(before, System.currentTimeMillis() + 1).size(), is(6));
+            assertThat(journal.between(0, before).size(), is(0));
+            assertThat(journal.getDropped(), is(0L));
+        }
+    }
+
+    @Test
+    public void segments_ShouldRotate_AndOldOnesBeDeleted() throws Exception {
+        try (ExecutionJournal journal = new ExecutionJournal(dir, 300, 2)) {
+            for (int i = 0; i < 20; i++) {
+                journal.finished(result("echo " + i, i));
+            }
+            journal.flush();
+
+            assertThat(segments().size(), is(2));
+            List<JournalEntry> kept = new ArrayList<>();
+            journal.forEach(kept::add);
+            assertThat(kept.get(kept.size() - 1).getCommand(), is("echo 19"));
+            assertThat(kept.size() < 20, is(true));
+        }
+    }
+
+    @Test
+    public void history_ShouldSurviveReopening_AndTornRecords() throws Exception {
+        try (ExecutionJournal journal = new ExecutionJournal(dir)) {
+            journal.finished(result("first", 0));
+        }
+        // a crash in the middle of a record
+        Path segment = segments().get(0);
+        Files.write(segment, new byte[] { 0, 0, 1, 0, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+        try (ExecutionJournal journal = new ExecutionJournal(dir)) {
+            journal.finished(result("second", 1));
+            journal.flush();
+
+            List<JournalEntry> all = new ArrayList<>();
+            journal.forEach(all::add);
+            assertThat(all.size(), is(2));
+            assertThat(all.get(0).getCommand(), is("first"));
+            assertThat(all.get(1).getCommand(), is("second"));
+            assertThat(all.get(1).getExitCode(), is(1));
+            assertThat(segments().size(), is(2));
+        }
+    }
+
+    private static ExecutionResult result(String cmd, int exitCode) {
+        return new ExecutionResult.Builder(new CliCommand(cmd)).spawned().exited(exitCode).build();
+    }
+
+    private List<Path> segments() throws Exception {
+        List<Path> ret = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path each : stream) {
+                ret.add(each);
+            }
+        }
+        ret.sort(null);
+        return ret;
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ExecutionSchedulerTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    @Test
+    public void namedLimit_ShouldBoundConcurrentExecutions() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(64).limit("compiler", 2);
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutionListener counter = new ExecutionListener() {
+            @Override
+            public void started(CliCommand cmd) {
+                maxRunning.accumulateAndGet(scheduler.getRunning("compiler"), Math::max);
+            }
+
+            @Override
+            public void finished(ExecutionResult result) {
+            }
+        };
+        try (ShellCli cli = new PosixCli(TEST_DIR).useScheduler(scheduler).addExecutionListener(counter)) {
+            List<CompletableFuture<ExecutionResult>> executions = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                executions.add(cli.command(new CliCommand("sleep").param("0.05")).schedule("compiler", 0).executeAsync());
+            }
+            assertThat(scheduler.getQueueDepth("compiler"), is(18));
+
+            for (CompletableFuture<ExecutionResult> each : executions) {
+                assertThat(each.get(10, TimeUnit.SECONDS).getExitCode(), is(0));
+            }
+        }
+        assertThat(maxRunning.get(), is(2));
+        assertThat(scheduler.getQueueDepth("compiler"), is(0));
+        assertThat(scheduler.getRunning("compiler"), is(0));
+        assertThat(scheduler.getWaitLatency("compiler").getCount(), is(20L));
+    }
+
+    @Test
+    public void higherPriority_ShouldStartFirst() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(1);
+        List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        try (ShellCli cli = new PosixCli(TEST_DIR).useScheduler(scheduler).addExecutionListener(recordingStarts(started))) {
+            CompletableFuture<ExecutionResult> blocker = cli.command(new CliCommand("sleep").param("0.2")).executeAsync();
+            CompletableFuture<ExecutionResult> low = cli.command(new CliCommand("echo").param("low")).schedule(ExecutionScheduler.DEFAULT_RESOURCE, -1).executeAsync();
+            CompletableFuture<ExecutionResult> high = cli.command(new CliCommand("echo").param("high")).schedule(ExecutionScheduler.DEFAULT_RESOURCE, 10).executeAsync();
+
+            CompletableFuture.allOf(blocker, low, high).get(10, TimeUnit.SECONDS);
+        }
+        assertThat(started, is(Arrays.asList("0.2", "high", "low")));
+    }
+
+    @Test
+    public void callers_ShouldTakeTurns() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(1);
+        List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        try (ShellCli cli = new PosixCli(TEST_DIR).useScheduler(scheduler).addExecutionListener(recordingStarts(started))) {
+            List<CompletableFuture<ExecutionResult>> executions = new ArrayList<>();
+            executions.add(cli.command(new CliCommand("sleep").param("0.2")).executeAsync());
+            for (int i = 0; i < 3; i++) {
+                executions.add(cli.command(new CliCommand("echo").param("greedy")).onBehalfOf("greedy").executeAsync());
+            }
+            executions.add(cli.command(new CliCommand("echo").param("polite")).onBehalfOf("polite").executeAsync());
+
+            CompletableFuture.allOf(executions.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        }
+        assertThat(started, is(Arrays.asList("0.2", "greedy", "polite", "greedy", "greedy")));
+    }
+
+    @Test
+    public void expiredDeadline_ShouldFailWithoutTakingASlot() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(1);
+        try (ShellCli cli = new PosixCli(TEST_DIR).useScheduler(scheduler)) {
+            CompletableFuture<ExecutionResult> blocker = cli.command(new CliCommand("sleep").param("0.5")).executeAsync();
+            CompletableFuture<ExecutionResult> late = cli.command(new CliCommand("true")).startBefore(100, TimeUnit.MILLISECONDS).executeAsync();
+
+            try {
+                late.get(300, TimeUnit.MILLISECONDS);
+                throw new AssertionError("The execution should've missed its deadline.");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(ShellCliException.class));
+            }
+            assertThat(blocker.isDone(), is(false));
+            assertThat(scheduler.getExpired(ExecutionScheduler.DEFAULT_RESOURCE), is(1L));
+            assertThat(scheduler.getQueueDepth(ExecutionScheduler.DEFAULT_RESOURCE), is(0));
+            blocker.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    // records the last argument of each command started
+    private static ExecutionListener recordingStarts(List<String> started) {
+        return new ExecutionListener() {
+            @Override
+            public void started(CliCommand cmd) {
+                started.add(cmd.getCmdLine()[cmd.getCmdLine().length - 1]);
+            }
+
+            @Override
+            public void finished(ExecutionResult result) {
+            }
+        };
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+public class ExecutionStatisticsTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    @Test
+    public void listener_ShouldReceiveTimingsAndByteCounts() throws Exception {
+        List<ExecutionResult> results = new ArrayList<>();
+        try (ShellCli cli = new PosixCli(TEST_DIR).addExecutionListener(results::add)) {
+            cli.command(new CliCommand("sh").param("-c", "printf 12345; printf 123 >&2; exit 4")).execute();
+        }
+
+        ExecutionResult result = results.get(0);
+        assertThat(result.getExitCode(), is(4));
+        assertThat(result.getStandardOutputBytes(), is(5L));
+        assertThat(result.getErrorOutputBytes(), is(3L));
+        assertThat(result.getFirstByteDuration().compareTo(result.getSpawnDuration()) >= 0, is(true));
+        assertThat(result.getDrainDuration().isNegative(), is(false));
+    }
+
+    @Test
+    public void statistics_ShouldAggregateExecutions_AndBeReadableOverJmx() throws Exception {
+        ExecutionStatistics stats = new ExecutionStatistics().registerMBean("test");
+        try (ShellCli cli = new PosixCli(TEST_DIR).addExecutionListener(stats)) {
+            for (int i = 0; i < 10; i++) {
+                cli.command(new CliCommand("echo").param("hello")).execute();
+            }
+            cli.command(new CliCommand("false")).execute();
+            cli.command(new CliCommand("sleep").param("5")).executeAsync(50, TimeUnit.MILLISECONDS).get();
+            try {
+                cli.command(new CliCommand("does-not-exist")).execute();
+            } catch (ShellCliException expected) {
+                // counted as a failure
+            }
+
+            assertThat(stats.getExecutions(), is(12L));
+            assertThat(stats.getNonZeroExits(), is(1L));
+            assertThat(stats.getTimeouts(), is(1L));
+            assertThat(stats.getFailures(), is(1L));
+            assertThat(stats.getStandardOutputBytes(), is(60L));
+            assertThat(stats.getTotalLatency().getP50Micros(), greaterThan(0L));
+
+            ObjectName name = new ObjectName("com.codery.utils.cli:type=ExecutionStatistics,name=\"test\"");
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Executions"), is((Object) 12L));
+            CompositeData spawn = (CompositeData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "SpawnLatency");
+            assertThat(spawn.get("count"), is((Object) 12L));
+        } finally {
+            stats.unregisterMBean("test");
+        }
+    }
+
+}
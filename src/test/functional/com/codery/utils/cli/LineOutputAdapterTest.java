@@ -0,0 +1,89 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LineOutputAdapterTest {
+
+    private final List<String> lines = new ArrayList<>();
+    private final LineListener collector = line -> lines.add(line.toString());
+
+    @Test
+    public void shouldSplitLines_WithAnyTerminator() throws Exception {
+        try (LineOutputAdapter adapter = new LineOutputAdapter(collector, StandardCharsets.UTF_8)) {
+            adapter.write("one\r\ntwo\n\nthree".getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(lines, is(Arrays.asList("one", "two", "", "three")));
+    }
+
+    @Test
+    public void shouldDecodeMultibyteCharacters_SplitBetweenWrites() throws Exception {
+        byte[] content = "a\u00e7\u00e3o\n\u00fcber\n".getBytes(StandardCharsets.UTF_8);
+        try (LineOutputAdapter adapter = new LineOutputAdapter(collector, StandardCharsets.UTF_8)) {
+            for (byte b : content) {
+                adapter.write(new byte[] { b }, 0, 1);
+            }
+        }
+        assertThat(lines, is(Arrays.asList("a\u00e7\u00e3o", "\u00fcber")));
+    }
+
+    @Test
+    public void shouldDecodeWindowsOemCodePages() throws Exception {
+        Charset oem = Charset.forName("IBM850");
+        try (LineOutputAdapter adapter = new LineOutputAdapter(collector, oem)) {
+            adapter.write("Diret\u00f3rio de C:\\\r\n".getBytes(oem));
+        }
+        assertThat(lines, is(Arrays.asList("Diret\u00f3rio de C:\\")));
+    }
+
+    @Test
+    public void shouldDeliverLines_LongerThanItsBuffer() throws Exception {
+        char[] longLine = new char[100_000];
+        Arrays.fill(longLine, 'x');
+        try (LineOutputAdapter adapter = new LineOutputAdapter(collector, StandardCharsets.UTF_8)) {
+            adapter.write((new String(longLine) + "\nshort\n").getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(lines, is(Arrays.asList(new String(longLine), "short")));
+    }
+
+    @Test(timeout = 10_000)
+    public void shouldDecodeSurrogatePairs_AtTheEndOfItsBuffer() throws Exception {
+        char[] filler = new char[8191];
+        Arrays.fill(filler, 'a');
+        String line = new String(filler) + "\ud83d\ude00";
+        try (LineOutputAdapter adapter = new LineOutputAdapter(collector, StandardCharsets.UTF_8)) {
+            adapter.write((line + "\n" + line).getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(lines, is(Arrays.asList(line, line)));
+    }
+
+    @Test
+    public void shouldDeliverPendingLine_OnFlush() throws Exception {
+        LineOutputAdapter adapter = new LineOutputAdapter(collector, StandardCharsets.UTF_8);
+        adapter.write("no terminator".getBytes(StandardCharsets.UTF_8));
+        assertThat(lines.isEmpty(), is(true));
+
+        adapter.flush();
+        assertThat(lines, is(Arrays.asList("no terminator")));
+    }
+
+    @Test
+    public void shouldReceiveProcessOutput_LineByLine() throws Exception {
+        List<String> received = new ArrayList<>();
+        try (ShellCli cli = new PosixCli(new File(System.getProperty("java.io.tmpdir")))) {
+            cli.addStandardOutput(line -> received.add(line.toString()), StandardCharsets.UTF_8);
+            cli.command(new CliCommand("printf").param("a\\nb\\nc")).execute();
+        }
+        assertThat(received, is(Arrays.asList("a", "b", "c")));
+    }
+
+}
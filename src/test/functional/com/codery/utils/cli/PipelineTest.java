@@ -0,0 +1,142 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PipelineTest {
+
+    @Test
+    public void commands_ShouldBeConnectedWithoutShell() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ShellCli cli = new PosixCli()) {
+            PipelineResult result = cli.pipeline(new CliCommand("printf").param("b\\na\\nb\\n"))
+                    .pipe(new CliCommand("sort"))
+                    .pipe(new CliCommand("uniq"))
+                    .stdout(out)
+                    .executeAsync().get();
+
+            assertThat(result.isSuccess(), is(true));
+            assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8), is("a\nb\n"));
+            List<PipelineResult.Stage> stages = result.getStages();
+            assertThat(stages.size(), is(3));
+            assertThat(stages.get(0).getName(), is("printf b\\na\\nb\\n"));
+            assertThat(stages.get(0).getBytesIn(), is(0L));
+            assertThat(stages.get(0).getBytesOut(), is(PipelineResult.UNKNOWN));
+            assertThat(stages.get(2).getBytesOut(), is(4L));
+        }
+    }
+
+    @Test
+    public void lineStages_ShouldRunBetweenProcesses() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ShellCli cli = new PosixCli()) {
+            PipelineResult result = cli.pipeline(new CliCommand("seq").param("1", "20"))
+                    .grep(Pattern.compile("1"))
+                    .map(line -> "n" + line)
+                    .pipe(new CliCommand("tail").param("-n", "2"))
+                    .filter(line -> !line.toString().endsWith("9"))
+                    .stdout(out)
+                    .executeAsync().get();
+
+            assertThat(result.isSuccess(), is(true));
+            assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8), is("n18\n"));
+
+            List<PipelineResult.Stage> stages = result.getStages();
+            assertThat(stages.size(), is(5));
+            PipelineResult.Stage grep = stages.get(1);
+            assertThat(grep.isProcess(), is(false));
+            assertThat(grep.getName(), is("grep 1"));
+            assertThat(grep.getBytesIn(), is(51L));
+            assertThat(grep.getLinesIn(), is(20L));
+            assertThat(grep.getLinesOut(), is(11L));
+            PipelineResult.Stage map = stages.get(2);
+            assertThat(map.getBytesOut(), is(stages.get(3).getBytesIn()));
+            assertThat(map.getBytesOut(), is(greaterThan(0L)));
+            assertThat(stages.get(4).getLinesIn(), is(2L));
+            assertThat(stages.get(4).getBytesOut(), is(4L));
+        }
+    }
+
+    @Test
+    public void lineSplitAcrossReads_ShouldReachLineTargetsWhole_AndFlushOnlyAtTheEnd() throws Exception {
+        List<String> lines = new ArrayList<>();
+        AtomicInteger flushes = new AtomicInteger();
+        // a line adapter delivers its pending line on flush, so it takes a flush for the end of the output
+        LineOutputAdapter target = new LineOutputAdapter(line -> lines.add(line.toString()), StandardCharsets.UTF_8) {
+            @Override
+            public void flush() throws IOException {
+                flushes.incrementAndGet();
+                super.flush();
+            }
+        };
+        try (ShellCli cli = new PosixCli()) {
+            PipelineResult result = cli.pipeline(new CliCommand("sh").param("-c", "printf 'one\\nhel'; sleep 0.3; printf 'lo\\n'"))
+                    .map(line -> line)
+                    .stdout(target)
+                    .executeAsync().get();
+
+            assertThat(result.isSuccess(), is(true));
+            assertThat(lines.toString(), is("[one, hello]"));
+            assertThat(flushes.get(), is(1));
+        }
+    }
+
+    @Test
+    public void failingLineStage_ShouldReportItsError() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ShellCli cli = new PosixCli()) {
+            PipelineResult result = cli.pipeline(new CliCommand("seq").param("1", "100000"))
+                    .map(line -> {
+                        if (line.length() > 2) {
+                            throw new IllegalStateException("too long: " + line);
+                        }
+                        return line;
+                    })
+                    .stdout(out)
+                    .executeAsync().get();
+
+            PipelineResult.Stage map = result.getStages().get(1);
+            assertThat(result.isSuccess(), is(false));
+            assertThat(result.getExitCode(), is(1));
+            assertThat(map.getError().getMessage(), is("too long: 100"));
+            assertThat(map.getLinesOut(), is(99L));
+            // the upstream process gets a broken pipe instead of blocking
+            assertThat(result.getStages().get(0).getExitCode(), is(greaterThan(0)));
+        }
+    }
+
+    @Test
+    public void timeout_ShouldTerminateEveryProcess() throws Exception {
+        try (ShellCli cli = new PosixCli()) {
+            long start = System.nanoTime();
+            PipelineResult result = cli.pipeline(new CliCommand("sleep").param("30"))
+                    .pipe(new CliCommand("cat"))
+                    .executeAsync(300, TimeUnit.MILLISECONDS).get();
+
+            assertThat(result.isTimedOut(), is(true));
+            assertThat(result.getExitCode(), is(ExecutionResult.TIMEOUT_EXIT_CODE));
+            assertThat(result.getStages().get(0).getExitCode(), is(ExecutionResult.TIMEOUT_EXIT_CODE));
+            assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10, is(true));
+        }
+    }
+
+    @Test(expected = ShellCliException.class)
+    public void missingProgram_ShouldFailThePipeline() throws Exception {
+        try (ShellCli cli = new PosixCli()) {
+            cli.pipeline(new CliCommand("true")).pipe(new CliCommand("no-such-program-here")).execute();
+        }
+    }
+
+}
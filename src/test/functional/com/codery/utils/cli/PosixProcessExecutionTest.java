@@ -0,0 +1,351 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PosixProcessExecutionTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    @Test
+    public void shouldReturnZero_WhenProcessIsCorrect() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            CliCommand cmd = new CliCommand("true");
+            int ret = cli.command(cmd).execute();
+            assertThat("The command " + cmd + " should've return 0", ret, is(0));
+        }
+    }
+
+    @Test
+    public void shouldReturnExitCode_WhenProcessFails() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            int ret = cli.command(new CliCommand("ls").param("/does/not/exist")).execute();
+            assertThat(ret, is(2));
+        }
+    }
+
+    @Test(expected = ShellCliException.class)
+    public void shouldThrow_WhenProgramDoesNotExist() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            cli.command(new CliCommand("lsr")).execute();
+        }
+    }
+
+    @Test
+    public void plainCommand_ShouldNotBeWrappedInShell() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            String[] actualCmd = cli.command(new CliCommand("echo").param("a b")).getCommand().getCmdLine();
+            assertThat(actualCmd, is(new String[] { "echo", "a b" }));
+        }
+    }
+
+    @Test
+    public void shellOperators_ShouldRunThroughShell_WithQuotedArguments() throws Exception {
+        File target = File.createTempFile("posix-cli", ".txt");
+        target.deleteOnExit();
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            FutureExecution execution = cli.command(new CliCommand("echo").param("it's $HOME"))
+                    .pipe(new CliCommand("tr").param("a-z", "A-Z"));
+
+            String[] expectedCmd = new String[] { "sh", "-c", "echo 'it'\\''s $HOME' | tr a-z A-Z" };
+            assertThat(execution.getCommand().getCmdLine(), is(expectedCmd));
+
+            int ret = execution.redirectOutput(target).execute();
+
+            assertThat(ret, is(0));
+            assertThat(new String(Files.readAllBytes(target.toPath())), is("IT'S $HOME\n"));
+        }
+    }
+
+    @Test
+    public void shellOperators_ShouldKeepTheSettingsChainedBeforeThem() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            ExecutionResult piped = cli.command(new CliCommand("cat")).input(ByteBuffer.wrap("abc\n".getBytes())).captureOutput()
+                    .pipe(new CliCommand("tr").param("a-z", "A-Z")).executeAsync().get(5, TimeUnit.SECONDS);
+            cli.command(new CliCommand("echo").param("one")).stdout(out).and(new CliCommand("echo").param("two")).execute();
+
+            assertThat(piped.getStandardOutput(), is("ABC\n"));
+            assertThat(new String(out.toByteArray()), is("one\ntwo\n"));
+        }
+    }
+
+    @Test
+    public void andProcessTest() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            String[] expectedCmd = new String[] { "sh", "-c", "false ; true" };
+            FutureExecution execution = cli.command(new CliCommand("false")).and(new CliCommand("true"));
+
+            assertThat(execution.getCommand().getCmdLine(), is(expectedCmd));
+            assertThat(execution.execute(), is(0));
+        }
+    }
+
+    @Test
+    public void commandTree_ShouldCompileLikeChainedOperators() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            CommandTree tree = CommandTree.of(new CliCommand("sleep").param("0")).background()
+                    .and(CommandTree.of(new CliCommand("printf").param("%s\\n", "a b")).pipe(CommandTree.of(new CliCommand("wc").param("-l"))));
+
+            assertThat(cli.command(tree).getCommand().getCmdLine(), is(new String[] { "sh", "-c", "sleep 0 & printf '%s\\n' 'a b' | wc -l" }));
+            ExecutionResult result = cli.command(tree).captureOutput().executeAsync().get();
+            assertThat(result.getExitCode(), is(0));
+            assertThat(result.getStandardOutput().trim(), is("1"));
+        }
+    }
+
+    @Test
+    public void longParamChain_ShouldKeepEveryParam() throws Exception {
+        CliCommand cmd = new CliCommand("echo");
+        CliCommand half = null;
+        for (int i = 0; i < 1000; i++) {
+            cmd = cmd.param(Integer.toString(i));
+            if (i == 499) {
+                half = cmd;
+            }
+        }
+
+        assertThat(cmd.size(), is(1001));
+        assertThat(half.getCmdLine().length, is(501));
+        String[] cmdLine = cmd.getCmdLine();
+        assertThat(cmdLine[0], is("echo"));
+        assertThat(cmdLine[1000], is("999"));
+        assertThat(half.param("x").getCmdLine()[501], is("x"));
+        assertThat(cmd.toString().startsWith("echo 0 1 2"), is(true));
+    }
+
+    @Test
+    public void executeAsync_ShouldCompleteWithCapturedOutput() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            ExecutionResult result = cli.command(new CliCommand("sh").param("-c", "echo out; echo err >&2; exit 3"))
+                    .captureOutput().executeAsync().get(5, TimeUnit.SECONDS);
+
+            assertThat(result.getExitCode(), is(3));
+            assertThat(result.isTimedOut(), is(false));
+            assertThat(result.getStandardOutput(), is("out\n"));
+            assertThat(result.getErrorOutput(), is("err\n"));
+            assertThat(result.getTotalDuration().compareTo(result.getRunDuration()) >= 0, is(true));
+        }
+    }
+
+    @Test
+    public void executeAsync_ShouldReportTimeout() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            long init = System.currentTimeMillis();
+            ExecutionResult result = cli.command(new CliCommand("sleep").param("5")).executeAsync(200, TimeUnit.MILLISECONDS).get();
+            long elapsed = System.currentTimeMillis() - init;
+
+            assertThat(result.isTimedOut(), is(true));
+            assertThat(result.getExitCode(), is(ExecutionResult.TIMEOUT_EXIT_CODE));
+            assertThat("Should've respected the timeout.", elapsed, lessThan(1000L));
+        }
+    }
+
+    @Test
+    public void shouldRedirectOutput_ToFile() throws Exception {
+        File target = File.createTempFile("posix-cli", ".txt");
+        target.deleteOnExit();
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            int ret = cli.command(new CliCommand("echo").param("redirected")).redirectOutput(target).execute();
+
+            assertThat(ret, is(0));
+            assertThat(new String(Files.readAllBytes(target.toPath())), is("redirected\n"));
+        }
+    }
+
+    @Test
+    public void redirectedOutput_ShouldBeTeedIntoOutputTargets() throws Exception {
+        File target = File.createTempFile("posix-cli", ".txt");
+        target.deleteOnExit();
+        Files.write(target.toPath(), "previous\n".getBytes());
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            FutureExecution execution = cli.command(new CliCommand("seq").param("1").param("100000"));
+            assertThat(execution.redirectOutput(target).getCommand(), is(execution.getCommand()));
+
+            ExecutionResult result = execution.redirectOutputAppending(target).captureOutput().executeAsync().get();
+
+            String fileContent = new String(Files.readAllBytes(target.toPath()));
+            assertThat(result.getExitCode(), is(0));
+            assertThat(fileContent, is("previous\n" + result.getStandardOutput()));
+            assertThat(result.getStandardOutput().endsWith("\n99999\n100000\n"), is(true));
+        }
+    }
+
+    @Test
+    public void input_ShouldFeedStandardInput() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            ExecutionResult result = cli.command(new CliCommand("tr").param("a-z", "A-Z"))
+                    .input(new ByteArrayInputStream("streamed\n".getBytes())).captureOutput().executeAsync().get(5, TimeUnit.SECONDS);
+
+            assertThat(result.getExitCode(), is(0));
+            assertThat(result.getStandardOutput(), is("STREAMED\n"));
+        }
+    }
+
+    @Test
+    public void bufferInput_ShouldBeReusable() throws Exception {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(3);
+        bytes.put("abc".getBytes()).flip();
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            FutureExecution execution = cli.command(new CliCommand("cat")).input(bytes).captureOutput();
+
+            assertThat(execution.executeAsync().get(5, TimeUnit.SECONDS).getStandardOutput(), is("abc"));
+            assertThat(execution.executeAsync().get(5, TimeUnit.SECONDS).getStandardOutput(), is("abc"));
+            assertThat(bytes.remaining(), is(3));
+        }
+    }
+
+    @Test
+    public void fileInput_ShouldBeReadByTheProcess() throws Exception {
+        File source = File.createTempFile("posix-cli", ".txt");
+        source.deleteOnExit();
+        Files.write(source.toPath(), "1\n2\n3\n".getBytes());
+        try (ShellCli cli = new PosixCli(TEST_DIR).useSessions(1)) {
+            ExecutionResult result = cli.command(new CliCommand("wc").param("-l")).input(source.toPath()).captureOutput().executeAsync().get(5, TimeUnit.SECONDS);
+
+            assertThat(result.getStandardOutput().trim(), is("3"));
+        }
+    }
+
+    @Test
+    public void unreadableInputFile_ShouldFailWithoutLeavingAProcess() throws Exception {
+        File zip = File.createTempFile("posix-cli", ".zip");
+        zip.delete();
+        zip.deleteOnExit();
+        // a file outside the default file system is copied by the library instead of redirected by the OS
+        try (FileSystem zipFs = FileSystems.newFileSystem(URI.create("jar:" + zip.toURI()), Collections.singletonMap("create", "true"));
+             ShellCli cli = new PosixCli(TEST_DIR)) {
+            try {
+                cli.command(new CliCommand("sleep").param("31.7")).input(zipFs.getPath("/missing.txt")).executeAsync().get(5, TimeUnit.SECONDS);
+                fail("The execution should have failed.");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause() instanceof ShellCliException, is(true));
+            }
+            Thread.sleep(200);
+            long left = ProcessHandle.current().children()
+                    .filter(child -> Arrays.asList(child.info().arguments().orElse(new String[0])).contains("31.7"))
+                    .count();
+            assertThat(left, is(0L));
+        }
+    }
+
+    @Test
+    public void largeInput_ShouldStreamWithoutBeingStaged() throws Exception {
+        final long size = 64L * 1024 * 1024;
+        InputStream zeros = new InputStream() {
+            private long left = size;
+
+            @Override
+            public int read() {
+                return left-- > 0 ? 0 : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (left <= 0) {
+                    return -1;
+                }
+                int count = (int) Math.min(len, left);
+                left -= count;
+                return count;
+            }
+        };
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            ExecutionResult result = cli.command(new CliCommand("wc").param("-c")).input(zeros).captureOutput().executeAsync().get(30, TimeUnit.SECONDS);
+
+            assertThat(result.getStandardOutput().trim(), is(String.valueOf(size)));
+        }
+    }
+
+    @Test
+    public void unreadInput_ShouldNotHoldTheExecution() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            ExecutionResult result = cli.command(new CliCommand("true")).input(ByteBuffer.allocate(8 * 1024 * 1024)).executeAsync().get(5, TimeUnit.SECONDS);
+
+            assertThat(result.getExitCode(), is(0));
+        }
+    }
+
+    @Test
+    public void timeout_ShouldKillTheWholeProcessTree() throws Exception {
+        File pidFile = File.createTempFile("posix-cli", ".pid");
+        pidFile.deleteOnExit();
+        try (PosixCli cli = new PosixCli(TEST_DIR).killGracePeriod(100, TimeUnit.MILLISECONDS)) {
+            String script = "sleep 30 & echo $! > " + pidFile.getAbsolutePath() + "; wait";
+            ExecutionResult result = cli.command(new CliCommand("sh").param("-c", script)).executeAsync(500, TimeUnit.MILLISECONDS).get();
+
+            assertThat(result.isTimedOut(), is(true));
+            assertThat("The shell's child should've been killed as well.", waitForExit(readPid(pidFile)), is(true));
+        }
+    }
+
+    @Test
+    public void timeout_ShouldLetTheProcessCleanUp_DuringTheGracePeriod() throws Exception {
+        File marker = File.createTempFile("posix-cli", ".txt");
+        marker.deleteOnExit();
+        try (PosixCli cli = new PosixCli(TEST_DIR).killGracePeriod(5, TimeUnit.SECONDS)) {
+            String script = "trap 'echo cleaned > " + marker.getAbsolutePath() + "; exit 0' TERM; sleep 30 & wait";
+            ExecutionResult result = cli.command(new CliCommand("sh").param("-c", script)).executeAsync(500, TimeUnit.MILLISECONDS).get();
+
+            assertThat(result.isTimedOut(), is(true));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (marker.length() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertThat(new String(Files.readAllBytes(marker.toPath())), is("cleaned\n"));
+        }
+    }
+
+    @Test
+    public void close_ShouldKillProcessesStillRunning() throws Exception {
+        File pidFile = File.createTempFile("posix-cli", ".pid");
+        pidFile.deleteOnExit();
+        PosixCli cli = new PosixCli(TEST_DIR).killGracePeriod(100, TimeUnit.MILLISECONDS);
+        cli.command(new CliCommand("sh").param("-c", "echo $$ > " + pidFile.getAbsolutePath() + "; exec sleep 30")).executeAsync();
+        long pid = readPid(pidFile);
+
+        cli.close();
+
+        assertThat(ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false), is(false));
+    }
+
+    private static long readPid(File pidFile) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String content = "";
+        while (!content.endsWith("\n") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            content = new String(Files.readAllBytes(pidFile.toPath()));
+        }
+        return Long.parseLong(content.trim());
+    }
+
+    private static boolean waitForExit(long pid) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+}
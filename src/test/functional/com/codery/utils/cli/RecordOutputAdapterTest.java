@@ -0,0 +1,186 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+public class RecordOutputAdapterTest {
+
+    @Test
+    public void csv_ShouldHandleQuotes_WhateverTheChunking() {
+        String csv = "\"Image Name\",\"PID\"\r\n\r\n\"a, b\",\"say \"\"hi\"\"\"\r\nplain,\"multi\nline\"\r\n\"\",last";
+        List<List<String>> expected = Arrays.asList(
+                Arrays.asList("Image Name", "PID"),
+                Arrays.asList("a, b", "say \"hi\""),
+                Arrays.asList("plain", "multi\nline"),
+                Arrays.asList("", "last"));
+
+        assertThat(parseInEveryChunking(() -> RecordParsers.csv(StandardCharsets.UTF_8), csv), is(expected));
+    }
+
+    @Test
+    public void csvWithHeader_ShouldMapFieldsByName() {
+        String csv = "\"Image Name\",\"PID\",\"Mem Usage\"\r\n\"java.exe\",\"42\",\"1.024 K\"\r\n\"cmd.exe\",\"7\"\r\n";
+        List<Map<String, String>> records = parse(() -> RecordParsers.withHeader(RecordParsers.csv(StandardCharsets.UTF_8)), csv, csv.length());
+
+        Map<String, String> java = new LinkedHashMap<>();
+        java.put("Image Name", "java.exe");
+        java.put("PID", "42");
+        java.put("Mem Usage", "1.024 K");
+        Map<String, String> cmd = new LinkedHashMap<>();
+        cmd.put("Image Name", "cmd.exe");
+        cmd.put("PID", "7");
+        assertThat(records, is(Arrays.asList(java, cmd)));
+    }
+
+    @Test
+    public void delimitedAndColumns_ShouldSplitLines() {
+        assertThat(parseInEveryChunking(() -> RecordParsers.delimited(StandardCharsets.UTF_8, ':'), "root:x:0\n\nnobody::65534"),
+                is(Arrays.asList(Arrays.asList("root", "x", "0"), Arrays.asList("nobody", "", "65534"))));
+        assertThat(parseInEveryChunking(() -> RecordParsers.columns(StandardCharsets.UTF_8), "  PID TTY   CMD\r\n    1 ?     init  \n"),
+                is(Arrays.asList(Arrays.asList("PID", "TTY", "CMD"), Arrays.asList("1", "?", "init"))));
+    }
+
+    @Test
+    public void multibyteCharacters_ShouldSurviveSplitWrites() {
+        assertThat(parseInEveryChunking(() -> RecordParsers.csv(StandardCharsets.UTF_8), "a\u00e7\u00e3o,\u65e5\u672c\n"),
+                is(Collections.singletonList(Arrays.asList("a\u00e7\u00e3o", "\u65e5\u672c"))));
+    }
+
+    @Test
+    public void jsonLines_ShouldYieldValues() {
+        String json = "{\"name\":\"a\\\"b\\u00e7\",\"n\":[1,-2.5e1,true,null],\"o\":{}}\n\n[12345678901234567890]\r\n\"x\"";
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("name", "a\"b\u00e7");
+        first.put("n", Arrays.asList(1L, -25.0, Boolean.TRUE, null));
+        first.put("o", new LinkedHashMap<>());
+
+        assertThat(parseInEveryChunking(() -> RecordParsers.jsonLines(StandardCharsets.UTF_8), json),
+                is(Arrays.<Object>asList(first, Collections.singletonList(1.2345678901234567E19), "x")));
+    }
+
+    @Test
+    public void malformedJsonLine_ShouldBeReported_AndSkipped() {
+        List<Object> records = new ArrayList<>();
+        List<RuntimeException> errors = new ArrayList<>();
+        RecordOutputAdapter<Object> adapter = new RecordOutputAdapter<>(() -> RecordParsers.jsonLines(StandardCharsets.UTF_8), new RecordListener<Object>() {
+            @Override
+            public void onRecord(Object record) {
+                records.add(record);
+            }
+
+            @Override
+            public void onError(RuntimeException error) {
+                errors.add(error);
+            }
+        });
+        byte[] bytes = "{\"a\":1}\n{\"a\" 1}\n2\n[\n".getBytes(StandardCharsets.UTF_8);
+        adapter.write(bytes, 0, bytes.length);
+        adapter.flush();
+
+        assertThat(records, is(Arrays.<Object>asList(Collections.singletonMap("a", 1L), 2L)));
+        assertThat(errors.size(), is(2));
+        assertThat(errors.get(0).getMessage().startsWith("Malformed JSON in line 2 "), is(true));
+        assertThat(errors.get(0) instanceof ShellCliException, is(true));
+    }
+
+    @Test
+    public void malformedRecord_ShouldNotStopTheOutput() throws Exception {
+        List<Object> records = Collections.synchronizedList(new ArrayList<>());
+        List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+        RecordOutputAdapter<Object> adapter = new RecordOutputAdapter<>(() -> RecordParsers.jsonLines(StandardCharsets.UTF_8), new RecordListener<Object>() {
+            @Override
+            public void onRecord(Object record) {
+                records.add(record);
+            }
+
+            @Override
+            public void onError(RuntimeException error) {
+                errors.add(error);
+            }
+        });
+        try (ShellCli cli = new PosixCli()) {
+            // more output after the bad line than a pipe holds, so a pump that stopped would block the process
+            ExecutionResult result = cli.command(new CliCommand("sh").param("-c", "echo '{bad'; seq 1 50000"))
+                    .stdout(adapter).executeAsync(10, TimeUnit.SECONDS).get();
+
+            assertThat(result.isTimedOut(), is(false));
+            assertThat(result.getExitCode(), is(0));
+        }
+        assertThat(records.size(), is(50000));
+        assertThat(errors.size(), is(1));
+        assertThat(errors.get(0).getMessage().startsWith("Malformed JSON in line 1"), is(true));
+    }
+
+    @Test
+    public void records_ShouldArrive_WhileTheProcessRuns() throws Exception {
+        CountDownLatch firstRecord = new CountDownLatch(1);
+        List<List<String>> records = Collections.synchronizedList(new ArrayList<>());
+        RecordOutputAdapter<List<String>> adapter = new RecordOutputAdapter<>(() -> RecordParsers.csv(StandardCharsets.UTF_8), record -> {
+            records.add(record);
+            firstRecord.countDown();
+        });
+        try (ShellCli cli = new PosixCli()) {
+            CompletableFuture<ExecutionResult> execution = cli.command(new CliCommand("sh").param("-c", "echo a,b; sleep 2; echo c,d"))
+                    .stdout(adapter).executeAsync();
+
+            assertThat(firstRecord.await(1500, TimeUnit.MILLISECONDS), is(true));
+            assertThat(execution.isDone(), is(false));
+            execution.get();
+        }
+        assertThat(records, is(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"))));
+    }
+
+    @Test
+    public void sharedAdapter_ShouldParseEachExecutionSeparately() throws Exception {
+        List<List<String>> records = Collections.synchronizedList(new ArrayList<>());
+        try (ShellCli cli = new PosixCli().addStandardOutput(new RecordOutputAdapter<>(() -> RecordParsers.csv(StandardCharsets.UTF_8), records::add))) {
+            List<CompletableFuture<ExecutionResult>> executions = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                // the last record has no terminator, so it's only complete at the end of its own execution
+                executions.add(cli.command(new CliCommand("printf").param("x,%s\\ny," + i, "" + i)).executeAsync());
+            }
+            for (CompletableFuture<ExecutionResult> each : executions) {
+                each.get();
+            }
+        }
+        assertThat(records.size(), is(16));
+        for (List<String> each : records) {
+            assertThat(each.size(), is(2));
+        }
+    }
+
+    private static <R> List<R> parseInEveryChunking(Supplier<RecordParser<R>> parsers, String text) {
+        List<R> expected = parse(parsers, text, Integer.MAX_VALUE);
+        int length = text.getBytes(StandardCharsets.UTF_8).length;
+        for (int chunk = 1; chunk < length; chunk++) {
+            assertThat("chunks of " + chunk, parse(parsers, text, chunk), is(expected));
+        }
+        return expected;
+    }
+
+    private static <R> List<R> parse(Supplier<RecordParser<R>> parsers, String text, int chunk) {
+        List<R> records = new ArrayList<>();
+        RecordOutputAdapter<R> adapter = new RecordOutputAdapter<>(parsers, records::add);
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        for (int off = 0; off < bytes.length; off += chunk) {
+            adapter.write(bytes, off, Math.min(chunk, bytes.length - off));
+        }
+        adapter.flush();
+        return records;
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteCliTest {
+
+    private static final String TOKEN = "secret";
+
+    private ShellAgent first;
+    private ShellAgent second;
+
+    @Before
+    public void startAgents() {
+        first = new ShellAgent(TOKEN);
+        second = new ShellAgent(TOKEN);
+    }
+
+    @After
+    public void stopAgents() {
+        first.close();
+        second.close();
+    }
+
+    private List<InetSocketAddress> agents() {
+        return Arrays.asList(first.getAddress(), second.getAddress());
+    }
+
+    @Test
+    public void execution_ShouldRunOnAnAgent() throws Exception {
+        try (RemoteCli cli = new RemoteCli(agents(), TOKEN)) {
+            cli.setEnvironmentVariable("GREETING", "hello");
+            ExecutionResult result = cli.command(new CliCommand("sh").param("-c", "echo $GREETING; echo oops >&2; exit 3"))
+                    .captureOutput().executeAsync().get();
+
+            assertThat(result.getExitCode(), is(3));
+            assertThat(result.getStandardOutput(), is("hello\n"));
+            assertThat(result.getErrorOutput(), is("oops\n"));
+        }
+    }
+
+    @Test
+    public void input_ShouldBeSentToTheAgent() throws Exception {
+        try (RemoteCli cli = new RemoteCli(agents(), TOKEN)) {
+            ExecutionResult result = cli.command(new CliCommand("tr").param("a-z", "A-Z"))
+                    .input(ByteBuffer.wrap("remote\n".getBytes(StandardCharsets.UTF_8)))
+                    .captureOutput().executeAsync().get();
+
+            assertThat(result.getStandardOutput(), is("REMOTE\n"));
+        }
+    }
+
+    @Test
+    public void concurrentExecutions_ShouldShareOneConnection() throws Exception {
+        try (RemoteCli cli = new RemoteCli(Arrays.asList(first.getAddress()), TOKEN)) {
+            List<CompletableFuture<ExecutionResult>> executions = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                executions.add(cli.command(new CliCommand("sh").param("-c", "sleep 0.2; seq " + i + " 1000 | tail -n 1; echo " + i + " >&2"))
+                        .captureOutput().executeAsync());
+            }
+
+            assertThat(first.getConnections(), is(1));
+            for (int i = 0; i < 20; i++) {
+                ExecutionResult result = executions.get(i).get();
+                assertThat(result.getStandardOutput(), is("1000\n"));
+                assertThat(result.getErrorOutput(), is(i + "\n"));
+            }
+        }
+    }
+
+    @Test
+    public void executions_ShouldGoToTheLeastLoadedAgent() throws Exception {
+        try (RemoteCli cli = new RemoteCli(agents(), TOKEN)) {
+            List<CompletableFuture<ExecutionResult>> executions = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                executions.add(cli.command(new CliCommand("sleep").param("0.5")).executeAsync());
+            }
+
+            assertThat(cli.getInFlight(first.getAddress()), is(2));
+            assertThat(cli.getInFlight(second.getAddress()), is(2));
+            for (CompletableFuture<ExecutionResult> each : executions) {
+                assertThat(each.get().getExitCode(), is(0));
+            }
+            assertThat(cli.getInFlight(first.getAddress()), is(0));
+        }
+    }
+
+    @Test
+    public void execution_ShouldFailOver_WhenItsAgentIsLostBeforeAnyOutput() throws Exception {
+        try (RemoteCli cli = new RemoteCli(agents(), TOKEN)) {
+            CompletableFuture<ExecutionResult> execution = cli.command(new CliCommand("sh").param("-c", "sleep 0.5; echo done"))
+                    .captureOutput().executeAsync();
+            ShellAgent running = cli.getInFlight(first.getAddress()) == 1 ? first : second;
+            ShellAgent other = running == first ? second : first;
+            Thread.sleep(100);
+            running.close();
+
+            ExecutionResult result = execution.get();
+            assertThat(result.getStandardOutput(), is("done\n"));
+            assertThat(cli.isConnected(running.getAddress()), is(false));
+            assertThat(cli.isConnected(other.getAddress()), is(true));
+            assertThat(running.getRunning(), is(0));
+        }
+    }
+
+    @Test
+    public void execution_ShouldFail_WhenItsAgentIsLostAfterOutput() throws Exception {
+        try (RemoteCli cli = new RemoteCli(agents(), TOKEN)) {
+            CompletableFuture<ExecutionResult> execution = cli.command(new CliCommand("sh").param("-c", "echo started; sleep 5")).executeAsync();
+            ShellAgent running = cli.getInFlight(first.getAddress()) == 1 ? first : second;
+            Thread.sleep(300);
+            running.close();
+
+            try {
+                execution.get();
+                fail("An execution that produced output can't be run again.");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause() instanceof ShellCliException, is(true));
+            }
+        }
+    }
+
+    @Test
+    public void timeout_ShouldKillTheProcessOnItsAgent() throws Exception {
+        try (RemoteCli cli = new RemoteCli(agents(), TOKEN)) {
+            cli.killGracePeriod(100, TimeUnit.MILLISECONDS);
+            ExecutionResult result = cli.command(new CliCommand("sleep").param("30")).executeAsync(300, TimeUnit.MILLISECONDS).get();
+
+            assertThat(result.isTimedOut(), is(true));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (first.getRunning() + second.getRunning() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertThat(first.getRunning() + second.getRunning(), is(0));
+        }
+    }
+
+    @Test
+    public void malformedRequest_ShouldFailOnlyItsExecution() throws Exception {
+        try (Socket socket = new Socket()) {
+            socket.connect(first.getAddress(), 5000);
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            AgentProtocol.write(out, AgentProtocol.HELLO, 0, AgentProtocol.hello(TOKEN));
+            assertThat(AgentProtocol.read(in).type, is(AgentProtocol.WELCOME));
+
+            AgentProtocol.write(out, AgentProtocol.EXECUTE, 1, AgentProtocol.execute(Collections.<String>emptyList(), null, Collections.<String, String>emptyMap(), true));
+            AgentProtocol.Frame failed = AgentProtocol.read(in);
+            assertThat(failed.type, is(AgentProtocol.FAILED));
+            assertThat(failed.id, is(1));
+
+            // a variable name no process environment accepts
+            AgentProtocol.write(out, AgentProtocol.EXECUTE, 2, AgentProtocol.execute(Collections.singletonList("true"), null, Collections.singletonMap("A=B", "c"), true));
+            failed = AgentProtocol.read(in);
+            assertThat(failed.type, is(AgentProtocol.FAILED));
+            assertThat(failed.id, is(2));
+
+            AgentProtocol.write(out, AgentProtocol.EXECUTE, 3, AgentProtocol.execute(Collections.singletonList("true"), null, Collections.<String, String>emptyMap(), true));
+            AgentProtocol.Frame exit = AgentProtocol.read(in);
+            assertThat(exit.type, is(AgentProtocol.EXIT));
+            assertThat(exit.id, is(3));
+            assertThat(exit.payload().readInt(), is(0));
+        }
+    }
+
+    @Test(expected = ShellCliException.class)
+    public void execution_ShouldFail_WhenProgramDoesNotExist() throws Exception {
+        try (RemoteCli cli = new RemoteCli(agents(), TOKEN)) {
+            cli.command(new CliCommand("lsr")).execute();
+        }
+    }
+
+    @Test(expected = ShellCliException.class)
+    public void execution_ShouldFail_WhenTheTokenIsWrong() throws Exception {
+        try (RemoteCli cli = new RemoteCli(agents(), "wrong")) {
+            cli.command(new CliCommand("true")).execute();
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ResourceMonitorTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+    private static final String BUSY_LOOP = "i=0; while [ $i -lt 200000 ]; do i=$((i+1)); done";
+
+    @Test
+    public void result_ShouldCarryCpuTimeAndPeakMemory_WhenMonitored() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR).monitorResources(10, TimeUnit.MILLISECONDS)) {
+            ExecutionResult result = cli.command(new CliCommand("sh").param("-c", BUSY_LOOP)).executeAsync().get();
+
+            assertThat(result.isSuccess(), is(true));
+            assertThat(result.getCpuTime().compareTo(Duration.ZERO), is(greaterThan(0)));
+            assertThat(result.getCpuTime().compareTo(result.getRunDuration().multipliedBy(2)), is(lessThan(0)));
+            assertThat(result.getPeakResidentBytes(), is(greaterThan(0L)));
+            assertThat(result.getLimitExceeded() == null, is(true));
+        }
+    }
+
+    @Test
+    public void result_ShouldCarryNoResources_WhenNotMonitored() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR)) {
+            ExecutionResult result = cli.command(new CliCommand("true")).executeAsync().get();
+
+            assertThat(result.getCpuTime() == null, is(true));
+            assertThat(result.getPeakResidentBytes(), is(-1L));
+        }
+    }
+
+    @Test
+    public void subMillisecondInterval_ShouldStillMonitor() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR).monitorResources(500, TimeUnit.MICROSECONDS)) {
+            ExecutionResult result = cli.command(new CliCommand("sh").param("-c", BUSY_LOOP)).executeAsync().get();
+
+            assertThat(result.getCpuTime() == null, is(false));
+            assertThat(result.getPeakResidentBytes(), is(greaterThan(0L)));
+        }
+    }
+
+    @Test
+    public void cpuTimeLimit_ShouldKillTheProcessTree() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR).cpuTimeLimit(200, TimeUnit.MILLISECONDS).monitorResources(20, TimeUnit.MILLISECONDS)) {
+            // the loop runs in a child of the shell
+            ExecutionResult result = cli.command(new CliCommand("sh").param("-c", "sh -c 'while :; do :; done'; echo unreachable"))
+                    .captureOutput().executeAsync(10, TimeUnit.SECONDS).get();
+
+            assertThat(result.getLimitExceeded(), is(ResourceLimit.CPU_TIME));
+            assertThat(result.isTimedOut(), is(false));
+            assertThat(result.isSuccess(), is(false));
+            assertThat(result.getCpuTime().toMillis(), is(greaterThan(200L)));
+            assertThat(result.getRunDuration().getSeconds(), is(lessThan(5L)));
+        }
+    }
+
+    @Test
+    public void residentMemoryLimit_ShouldKillTheProcessTree() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR).residentMemoryLimit(32 * 1024 * 1024).monitorResources(10, TimeUnit.MILLISECONDS)) {
+            // tail keeps the last 256 MB it read in memory
+            ExecutionResult result = cli.command(new CliCommand("sh").param("-c", "head -c 268435456 /dev/zero | tail -c 268435456 > /dev/null; sleep 5"))
+                    .executeAsync(10, TimeUnit.SECONDS).get();
+
+            assertThat(result.getLimitExceeded(), is(ResourceLimit.RESIDENT_MEMORY));
+            assertThat(result.getPeakResidentBytes(), is(greaterThan(32L * 1024 * 1024)));
+            assertThat(result.getRunDuration().getSeconds(), is(lessThan(5L)));
+        }
+    }
+
+}
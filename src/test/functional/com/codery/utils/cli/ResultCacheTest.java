@@ -0,0 +1,99 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ResultCacheTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+    // prints a different number on every run, so a cached result is told apart from a new one
+    private static final CliCommand NANOS = new CliCommand("date").param("+%s%N");
+
+    @Test
+    public void cachedExecution_ShouldBeAnsweredFromTheCache() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR).useResultCache(10, 1, TimeUnit.MINUTES)) {
+            String first = cli.command(NANOS).captureOutput().cached().executeAsync().get().getStandardOutput();
+            String second = cli.command(NANOS).captureOutput().cached().executeAsync().get().getStandardOutput();
+
+            assertThat(second, is(first));
+            assertThat(cli.getResultCacheStatistics().getHits(), is(1L));
+            assertThat(cli.getResultCacheStatistics().getMisses(), is(1L));
+        }
+    }
+
+    @Test
+    public void notCachedExecution_ShouldAlwaysRun() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR).useResultCache(10, 1, TimeUnit.MINUTES)) {
+            String first = cli.command(NANOS).captureOutput().executeAsync().get().getStandardOutput();
+            String second = cli.command(NANOS).captureOutput().executeAsync().get().getStandardOutput();
+
+            assertThat(second.equals(first), is(false));
+            assertThat(cli.getResultCacheStatistics().getMisses(), is(0L));
+        }
+    }
+
+    @Test
+    public void environmentChange_ShouldMissTheCache() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR).useResultCache(10, 1, TimeUnit.MINUTES)) {
+            String first = cli.command(NANOS).captureOutput().cached().executeAsync().get().getStandardOutput();
+            cli.setEnvironmentVariable("RESULT_CACHE_TEST", "1");
+            String second = cli.command(NANOS).captureOutput().cached().executeAsync().get().getStandardOutput();
+
+            assertThat(second.equals(first), is(false));
+        }
+    }
+
+    @Test
+    public void expiredAndEvictedResults_ShouldRunAgain() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR).useResultCache(1, 200, TimeUnit.MILLISECONDS)) {
+            String first = cli.command(NANOS).captureOutput().cached().executeAsync().get().getStandardOutput();
+            Thread.sleep(300);
+            String afterTtl = cli.command(NANOS).captureOutput().cached().executeAsync().get().getStandardOutput();
+            cli.command(new CliCommand("true")).cached().execute();
+            String afterEviction = cli.command(NANOS).captureOutput().cached().executeAsync().get().getStandardOutput();
+
+            assertThat(afterTtl.equals(first), is(false));
+            assertThat(afterEviction.equals(afterTtl), is(false));
+            assertThat(cli.getResultCacheStatistics().getEvictions(), is(3L));
+            assertThat(cli.getResultCacheStatistics().getSize(), is(1));
+        }
+    }
+
+    @Test
+    public void concurrentIdenticalExecutions_ShouldShareOneProcess() throws Exception {
+        final int executions = 50;
+        try (ShellCli cli = new PosixCli(TEST_DIR).useResultCache(10, 1, TimeUnit.MINUTES)) {
+            FutureExecution slow = cli.command(new CliCommand("sh").param("-c", "sleep 0.5; date +%s%N")).captureOutput().cached();
+            List<CompletableFuture<ExecutionResult>> results = new ArrayList<>();
+            for (int i = 0; i < executions; i++) {
+                results.add(slow.executeAsync());
+            }
+
+            String output = results.get(0).get(10, TimeUnit.SECONDS).getStandardOutput();
+            for (CompletableFuture<ExecutionResult> each : results) {
+                assertThat(each.get(10, TimeUnit.SECONDS).getStandardOutput(), is(output));
+            }
+            assertThat(cli.getResultCacheStatistics().getMisses(), is(1L));
+            assertThat(cli.getResultCacheStatistics().getCoalesced(), is((long) executions - 1));
+        }
+    }
+
+    @Test
+    public void timedOutExecution_ShouldNotBeCached() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR).useResultCache(10, 1, TimeUnit.MINUTES)) {
+            FutureExecution sleep = cli.command(new CliCommand("sleep").param("5")).cached();
+
+            assertThat(sleep.executeAsync(100, TimeUnit.MILLISECONDS).get().isTimedOut(), is(true));
+            assertThat(cli.getResultCacheStatistics().getSize(), is(0));
+        }
+    }
+
+}
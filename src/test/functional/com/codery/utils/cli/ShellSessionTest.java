@@ -0,0 +1,97 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ShellSessionTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    @Test
+    public void sessionExecution_ShouldMatchFreshProcessExecution() throws Exception {
+        CliCommand cmd = new CliCommand("sh").param("-c", "printf 'out\\nno newline'; printf err >&2; pwd; exit 7");
+        try (PosixCli fresh = new PosixCli(TEST_DIR); PosixCli warm = new PosixCli(TEST_DIR).useSessions(1)) {
+            ExecutionResult expected = fresh.command(cmd).captureOutput().executeAsync().get();
+            ExecutionResult actual = warm.command(cmd).captureOutput().executeAsync().get();
+
+            assertThat(actual.getExitCode(), is(expected.getExitCode()));
+            assertThat(actual.getStandardOutput(), is(expected.getStandardOutput()));
+            assertThat(actual.getErrorOutput(), is(expected.getErrorOutput()));
+            assertThat(actual.getStandardOutputBytes(), is(expected.getStandardOutputBytes()));
+        }
+    }
+
+    @Test
+    public void commands_ShouldNotLeakStateIntoEachOther() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR).useSessions(1)) {
+            cli.command(new CliCommand("sh").param("-c", "true")).pipe(new CliCommand("true")).execute();
+            ExecutionResult first = cli.command(new CliCommand("true")).and(new CliCommand("cd").param("/")).captureOutput().executeAsync().get();
+            ExecutionResult second = cli.command(new CliCommand("pwd")).captureOutput().executeAsync().get();
+
+            assertThat(first.getExitCode(), is(0));
+            assertThat(second.getStandardOutput(), is(TEST_DIR.getCanonicalPath() + "\n"));
+        }
+    }
+
+    @Test
+    public void environmentChanges_ShouldReachNewCommands() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR).useSessions(2)) {
+            cli.setEnvironmentVariable("SESSION_TEST", "one");
+            assertThat(echoVariable(cli), is("one\n"));
+
+            cli.setEnvironmentVariable("SESSION_TEST", "two");
+            assertThat(echoVariable(cli), is("two\n"));
+        }
+    }
+
+    @Test
+    public void timedOutCommand_ShouldNotBreakTheSession() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR).useSessions(1)) {
+            ExecutionResult timedOut = cli.command(new CliCommand("sleep").param("10")).executeAsync(100, TimeUnit.MILLISECONDS).get();
+            ExecutionResult next = cli.command(new CliCommand("echo").param("alive")).captureOutput().executeAsync().get(5, TimeUnit.SECONDS);
+
+            assertThat(timedOut.isTimedOut(), is(true));
+            assertThat(next.getStandardOutput(), is("alive\n"));
+        }
+    }
+
+    @Test
+    public void deadSession_ShouldBeRespawned() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR).useSessions(1)) {
+            try {
+                cli.command(new CliCommand("sh").param("-c", "kill -9 $PPID")).execute();
+                fail("Should've reported the session death.");
+            } catch (ShellCliException expected) {
+                // the session running the command was killed
+            }
+            assertThat(cli.command(new CliCommand("true")).execute(), is(0));
+        }
+    }
+
+    @Test
+    public void sessionPool_ShouldRunManyCommandsConcurrently() throws Exception {
+        try (PosixCli cli = new PosixCli(TEST_DIR).useSessions(4)) {
+            List<CompletableFuture<ExecutionResult>> executions = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                executions.add(cli.command(new CliCommand("echo").param("command-" + i)).captureOutput().executeAsync());
+            }
+            for (int i = 0; i < executions.size(); i++) {
+                assertThat(executions.get(i).get(30, TimeUnit.SECONDS).getStandardOutput(), is("command-" + i + "\n"));
+            }
+        }
+    }
+
+    private static String echoVariable(ShellCli cli) throws Exception {
+        return cli.command(new CliCommand("sh").param("-c", "echo $SESSION_TEST")).captureOutput().executeAsync().get().getStandardOutput();
+    }
+
+}
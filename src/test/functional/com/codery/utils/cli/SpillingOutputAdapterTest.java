@@ -0,0 +1,110 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class SpillingOutputAdapterTest {
+
+    @Test
+    public void shouldKeepOutputInMemory_WhenUnderThreshold() throws Exception {
+        SpillingOutputAdapter adapter = new SpillingOutputAdapter(16);
+        adapter.write("abc\ndef".getBytes(StandardCharsets.US_ASCII));
+
+        try (CapturedOutput output = adapter.finish()) {
+            assertThat(adapter.isSpilled(), is(false));
+            assertThat(output.getFile() == null, is(true));
+            assertThat(output.size(), is(7L));
+            assertThat(StandardCharsets.US_ASCII.decode(output.asByteBuffer()).toString(), is("abc\ndef"));
+            Iterator<String> lines = output.lines(StandardCharsets.US_ASCII);
+            assertThat(lines.next(), is("abc"));
+            assertThat(lines.next(), is("def"));
+            assertThat(lines.hasNext(), is(false));
+        }
+    }
+
+    @Test
+    public void shouldSpillToFile_AndDeleteIt_OnClose() throws Exception {
+        Path dir = Files.createTempDirectory("spill-test");
+        SpillingOutputAdapter adapter = new SpillingOutputAdapter(8, dir);
+        for (int i = 0; i < 1000; i++) {
+            adapter.write(("line " + i + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        CapturedOutput output = adapter.finish();
+        Path file = output.getFile();
+        assertThat(adapter.isSpilled(), is(true));
+        assertThat(Files.size(file), is(output.size()));
+
+        ByteBuffer buffer = output.asByteBuffer();
+        assertThat(buffer.isReadOnly(), is(true));
+        assertThat((long) buffer.remaining(), is(output.size()));
+        Iterator<String> lines = output.lines(StandardCharsets.US_ASCII);
+        int count = 0;
+        while (lines.hasNext()) {
+            assertThat(lines.next(), is("line " + count));
+            count++;
+        }
+        assertThat(count, is(1000));
+        assertThat(readAll(output.openStream()), is(readAll(output.openStream())));
+
+        output.close();
+        assertThat(Files.exists(file), is(false));
+        Files.delete(dir);
+    }
+
+    @Test
+    public void unfinishedCapture_ShouldDeleteItsFile_OnClose() throws Exception {
+        Path dir = Files.createTempDirectory("spill-test");
+        SpillingOutputAdapter adapter = new SpillingOutputAdapter(0, dir);
+        adapter.write(new byte[100]);
+        adapter.close();
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.count(), is(0L));
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void shouldCaptureLargeOutput_OfAnExecution() throws Exception {
+        SpillingOutputAdapter adapter = new SpillingOutputAdapter(4096);
+        try (ShellCli cli = new PosixCli()) {
+            ExecutionResult result = cli.command(new CliCommand("seq").param("1", "200000")).stdout(adapter).executeAsync().get();
+
+            try (CapturedOutput output = adapter.finish()) {
+                assertThat(output.size(), is(result.getStandardOutputBytes()));
+                Iterator<String> lines = output.lines(StandardCharsets.US_ASCII);
+                String last = null;
+                int count = 0;
+                while (lines.hasNext()) {
+                    last = lines.next();
+                    count++;
+                }
+                assertThat(count, is(200000));
+                assertThat(last, is("200000"));
+            }
+        }
+    }
+
+    private static String readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[777];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+}
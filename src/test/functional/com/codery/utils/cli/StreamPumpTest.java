@@ -0,0 +1,80 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class StreamPumpTest {
+
+    private static final byte[] OUTPUT = new byte[128 * 1024];
+
+    static {
+        for (int i = 0; i < OUTPUT.length; i++) {
+            OUTPUT[i] = (byte) ('a' + i % 26);
+        }
+    }
+
+    @Test
+    public void shouldCopyEverything_ToEveryTarget() {
+        StringOutputAdapter first = new StringOutputAdapter();
+        StringOutputAdapter second = new StringOutputAdapter();
+        byte[] content = Arrays.copyOf(OUTPUT, 100_003);
+
+        new StreamPump(new ByteArrayInputStream(content), Arrays.<OutputStream>asList(first, second), 4096).run();
+
+        String expected = new String(content);
+        assertThat(first.getWrittenContent(), is(expected));
+        assertThat(second.getWrittenContent(), is(expected));
+    }
+
+    @Test
+    public void chunks_ShouldBeWrittenWhole_AndFlushedOnlyAtTheEnd() {
+        RecordingOutputStream first = new RecordingOutputStream();
+        RecordingOutputStream second = new RecordingOutputStream();
+        byte[] content = Arrays.copyOf(OUTPUT, 10_000);
+
+        new StreamPump(new ByteArrayInputStream(content), Arrays.<OutputStream>asList(first, second), 4096).run();
+
+        for (RecordingOutputStream each : Arrays.asList(first, second)) {
+            assertThat(each.count, is(10_000L));
+            assertThat(each.writes, is(3));
+            assertThat(each.largestWrite, is(4096));
+            assertThat(each.flushes, is(1));
+            assertThat(each.countAtFlush, is(10_000L));
+        }
+    }
+
+    private static class RecordingOutputStream extends OutputStream {
+
+        private long count;
+        private int writes;
+        private int largestWrite;
+        private int flushes;
+        private long countAtFlush;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+            writes++;
+            largestWrite = Math.max(largestWrite, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes++;
+            countAtFlush = count;
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.codery.utils.cli;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class StreamingExecutionTest {
+
+    private static final File TEST_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    @Test
+    public void publishers_ShouldDeliverTheWholeOutput() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            StreamingExecution execution = cli.command(new CliCommand("sh").param("-c", "seq 1 100000; echo err >&2"))
+                    .executeStreaming();
+            CollectingSubscriber out = new CollectingSubscriber(1);
+            CollectingSubscriber err = new CollectingSubscriber(Long.MAX_VALUE);
+            execution.standardOutput().subscribe(out);
+            execution.errorOutput().subscribe(err);
+
+            ExecutionResult result = execution.result().get(10, TimeUnit.SECONDS);
+
+            String output = out.done.get(1, TimeUnit.SECONDS);
+            assertThat(result.getExitCode(), is(0));
+            assertThat(output.startsWith("1\n2\n"), is(true));
+            assertThat(output.endsWith("\n99999\n100000\n"), is(true));
+            assertThat(err.done.get(1, TimeUnit.SECONDS), is("err\n"));
+            assertThat(result.getStandardOutputBytes(), is((long) output.length()));
+        }
+    }
+
+    @Test
+    public void missingDemand_ShouldHoldTheProcess_UntilCancelled() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            StreamingExecution execution = cli.command(new CliCommand("head").param("-c", "67108864").param("/dev/zero")).executeStreaming();
+            CollectingSubscriber out = new CollectingSubscriber(0);
+            execution.standardOutput().subscribe(out);
+            execution.errorOutput().subscribe(new CollectingSubscriber(Long.MAX_VALUE));
+
+            Thread.sleep(300);
+            assertThat("Nothing was requested, so the process should be blocked on its output.", execution.result().isDone(), is(false));
+
+            out.subscription.cancel();
+            ExecutionResult result = execution.result().get(10, TimeUnit.SECONDS);
+            assertThat(result.getExitCode(), is(0));
+            assertThat(out.content.size(), is(0));
+        }
+    }
+
+    @Test
+    public void secondSubscriber_ShouldBeRejected() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            StreamingExecution execution = cli.command(new CliCommand("true")).executeStreaming();
+            execution.standardOutput().subscribe(new CollectingSubscriber(Long.MAX_VALUE));
+            execution.errorOutput().subscribe(new CollectingSubscriber(Long.MAX_VALUE));
+            CollectingSubscriber second = new CollectingSubscriber(Long.MAX_VALUE);
+            execution.standardOutput().subscribe(second);
+
+            assertThat(second.error, instanceOf(IllegalStateException.class));
+            assertThat(execution.result().get(5, TimeUnit.SECONDS).getExitCode(), is(0));
+        }
+    }
+
+    @Test
+    public void failedStart_ShouldBeSignalledToSubscribers() throws Exception {
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            StreamingExecution execution = cli.command(new CliCommand("lsr")).executeStreaming();
+            CollectingSubscriber out = new CollectingSubscriber(Long.MAX_VALUE);
+            execution.standardOutput().subscribe(out);
+
+            execution.result().handle((result, error) -> null).get(5, TimeUnit.SECONDS);
+            try {
+                out.done.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(ShellCliException.class));
+                return;
+            }
+            throw new AssertionError("The subscriber should've got the start error.");
+        }
+    }
+
+    @Test
+    public void illegalDemand_ShouldBeSignalledOnce_WithoutOverlappingOnNext() throws Exception {
+        AtomicBoolean inOnNext = new AtomicBoolean();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        AtomicInteger errors = new AtomicInteger();
+        CompletableFuture<Throwable> signalled = new CompletableFuture<>();
+        try (ShellCli cli = new PosixCli(TEST_DIR)) {
+            StreamingExecution execution = cli.command(new CliCommand("seq").param("1", "100000")).executeStreaming();
+            execution.standardOutput().subscribe(new Flow.Subscriber<ByteBuffer>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    inOnNext.set(true);
+                    // another thread breaks the demand rules while this signal is being handled
+                    Thread other = new Thread(() -> subscription.request(0));
+                    other.start();
+                    try {
+                        other.join(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inOnNext.set(false);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    overlapped.compareAndSet(false, inOnNext.get());
+                    errors.incrementAndGet();
+                    signalled.complete(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    signalled.complete(null);
+                }
+            });
+            execution.errorOutput().subscribe(new CollectingSubscriber(Long.MAX_VALUE));
+
+            assertThat(signalled.get(5, TimeUnit.SECONDS), instanceOf(IllegalArgumentException.class));
+            // the rest of the output is discarded, so the process isn't held
+            assertThat(execution.result().get(10, TimeUnit.SECONDS).getExitCode(), is(0));
+            assertThat(overlapped.get(), is(false));
+            assertThat(errors.get(), is(1));
+        }
+    }
+
+    /**
+     * Requests {@code batch} chunks on subscription and one more for each chunk received.
+     */
+    private static class CollectingSubscriber implements Flow.Subscriber<ByteBuffer> {
+
+        private final long batch;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private final CompletableFuture<String> done = new CompletableFuture<>();
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        CollectingSubscriber(long batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batch > 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            content.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+            if (batch != Long.MAX_VALUE) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(new String(content.toByteArray()));
+        }
+    }
+
+}